@@ -0,0 +1,136 @@
+package components.walletledger.bench;
+
+import components.walletledger.WalletLedger;
+import components.walletledger.WalletLedger1L;
+import components.walletledger.WalletLedger2;
+import components.walletledger.WalletLedger3;
+import components.walletledger.WalletLedgerKernel.EntryType;
+
+/**
+ * Shared ledger construction helpers for the WalletLedger benchmarks.
+ */
+final class LedgerFixtures {
+
+    /**
+     * Number of letters in the currency alphabet.
+     */
+    private static final int LETTERS = 26;
+
+    /**
+     * Every fourth fixture entry is a debit.
+     */
+    private static final int DEBIT_STRIDE = 4;
+
+    /**
+     * Fixture amounts cycle through 1..AMOUNT_CYCLE cents. Kept small so
+     * that the credit total, and so the balance, of the largest fixture
+     * (10^7 entries in a single currency, about 3.8 * 10^8 cents) fits in
+     * the int returned by balanceCents and totalCreditsCents.
+     */
+    private static final int AMOUNT_CYCLE = 100;
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private LedgerFixtures() {
+    }
+
+    /**
+     * Returns {@code count} distinct valid currency codes.
+     *
+     * @param count
+     *            number of codes
+     * @return array of distinct 3-letter uppercase codes
+     * @requires 0 < count <= 26^3
+     */
+    static String[] currencyCodes(int count) {
+        String[] codes = new String[count];
+        for (int i = 0; i < count; i++) {
+            char first = (char) ('A' + i / (LETTERS * LETTERS));
+            char second = (char) ('A' + (i / LETTERS) % LETTERS);
+            char third = (char) ('A' + i % LETTERS);
+            codes[i] = new String(new char[] { first, second, third });
+        }
+        return codes;
+    }
+
+    /**
+     * Returns {@code count} distinct ids with the given prefix.
+     *
+     * @param prefix
+     *            id prefix
+     * @param count
+     *            number of ids
+     * @return array of ids prefix + 0 .. prefix + (count - 1)
+     */
+    static String[] ids(String prefix, int count) {
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = prefix + i;
+        }
+        return ids;
+    }
+
+    /**
+     * Returns a new empty ledger of the named kernel implementation.
+     *
+     * @param implementation
+     *            "1L", "2" or "3"
+     * @return new empty ledger
+     */
+    static WalletLedger newLedger(String implementation) {
+        switch (implementation) {
+            case "1L":
+                return new WalletLedger1L();
+            case "2":
+                return new WalletLedger2();
+            case "3":
+                return new WalletLedger3();
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown implementation: " + implementation);
+        }
+    }
+
+    /**
+     * Returns a ledger holding one entry per id, spread round-robin over the
+     * given currencies. Every fourth entry is a debit, so each currency with
+     * more than a handful of entries keeps a positive balance.
+     *
+     * @param implementation
+     *            kernel implementation, as for newLedger
+     * @param ids
+     *            entry ids
+     * @param currencies
+     *            currency codes
+     * @return populated ledger
+     */
+    static WalletLedger ledger(String implementation, String[] ids,
+            String[] currencies) {
+        WalletLedger ledger = newLedger(implementation);
+        fill(ledger, ids, currencies);
+        return ledger;
+    }
+
+    /**
+     * Adds one entry per id to {@code ledger}, as described in
+     * {@link #ledger(String, String[], String[])}.
+     *
+     * @param ledger
+     *            ledger to fill
+     * @param ids
+     *            entry ids, none already in ledger
+     * @param currencies
+     *            currency codes
+     * @updates ledger
+     */
+    static void fill(WalletLedger ledger, String[] ids, String[] currencies) {
+        for (int i = 0; i < ids.length; i++) {
+            EntryType type = i % DEBIT_STRIDE == DEBIT_STRIDE - 1
+                    ? EntryType.DEBIT
+                    : EntryType.CREDIT;
+            ledger.addEntry(ids[i], 1 + i % AMOUNT_CYCLE,
+                    currencies[i % currencies.length], type);
+        }
+    }
+}
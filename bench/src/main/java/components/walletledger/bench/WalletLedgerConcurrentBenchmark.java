@@ -0,0 +1,164 @@
+package components.walletledger.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import components.walletledger.WalletLedger;
+import components.walletledger.WalletLedger.WithdrawResult;
+
+/**
+ * Multi-threaded throughput of deposit and tryWithdraw on one shared ledger.
+ *
+ * Implementation "3" calls WalletLedger3 directly. Implementation "1L" wraps
+ * every call to a WalletLedger1L in one global lock, which is how callers
+ * share that implementation today. Run with JMH's {@code -t} option to set
+ * the thread count, for example {@code -t 1}, {@code -t 8} and {@code -t 32},
+ * and compare the scores.
+ *
+ * Each thread works in its own currency, chosen round-robin from
+ * {@code currencies}, so {@code currencies=1} puts every thread on the same
+ * currency.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+@State(Scope.Benchmark)
+public class WalletLedgerConcurrentBenchmark {
+
+    /**
+     * Amount used for every deposit and withdrawal.
+     */
+    private static final int AMOUNT = 100;
+
+    /**
+     * Funding credited to each currency before every iteration, large
+     * enough that withdrawals do not run dry within one iteration.
+     */
+    private static final int FUNDING = 2_000_000_000;
+
+    /**
+     * Kernel implementation under test.
+     */
+    @Param({ "1L", "3" })
+    private String implementation;
+
+    /**
+     * Number of distinct currencies the threads are spread over.
+     */
+    @Param({ "1", "32" })
+    private int currencies;
+
+    /**
+     * Ledger shared by all threads.
+     */
+    private WalletLedger ledger;
+
+    /**
+     * Whether calls are wrapped in the global lock.
+     */
+    private boolean globalLock;
+
+    /**
+     * Currency codes used by ledger.
+     */
+    private String[] codes;
+
+    /**
+     * Hands out currencies to threads.
+     */
+    private final AtomicInteger nextThread = new AtomicInteger();
+
+    /**
+     * Per-thread choice of currency.
+     */
+    @State(Scope.Thread)
+    public static class ThreadCurrency {
+
+        /**
+         * Currency used by this thread.
+         */
+        private String code;
+
+        /**
+         * Picks this thread's currency.
+         *
+         * @param shared
+         *            benchmark state
+         */
+        @Setup(Level.Trial)
+        public void setUp(WalletLedgerConcurrentBenchmark shared) {
+            this.code = shared.codes[shared.nextThread.getAndIncrement()
+                    % shared.codes.length];
+        }
+    }
+
+    /**
+     * Generates currency codes once per trial.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        this.codes = LedgerFixtures.currencyCodes(this.currencies);
+        this.globalLock = this.implementation.equals("1L");
+    }
+
+    /**
+     * Starts every iteration from a freshly funded ledger so that its size
+     * stays bounded.
+     */
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        this.ledger = LedgerFixtures.newLedger(this.implementation);
+        for (String code : this.codes) {
+            this.ledger.deposit(FUNDING, code);
+        }
+    }
+
+    /**
+     * Measures deposit.
+     *
+     * @param thread
+     *            per-thread state
+     */
+    @Benchmark
+    public void deposit(ThreadCurrency thread) {
+        if (this.globalLock) {
+            synchronized (this.ledger) {
+                this.ledger.deposit(AMOUNT, thread.code);
+            }
+        } else {
+            this.ledger.deposit(AMOUNT, thread.code);
+        }
+    }
+
+    /**
+     * Measures tryWithdraw.
+     *
+     * @param thread
+     *            per-thread state
+     * @return result of the withdrawal
+     */
+    @Benchmark
+    public WithdrawResult tryWithdraw(ThreadCurrency thread) {
+        if (this.globalLock) {
+            synchronized (this.ledger) {
+                return this.ledger.tryWithdraw(AMOUNT, thread.code);
+            }
+        }
+        return this.ledger.tryWithdraw(AMOUNT, thread.code);
+    }
+}
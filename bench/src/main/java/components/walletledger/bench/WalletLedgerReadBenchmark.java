@@ -0,0 +1,167 @@
+package components.walletledger.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import components.walletledger.WalletLedger;
+import components.walletledger.WalletLedgerKernel.LedgerEntry;
+
+/**
+ * Steady-state benchmarks for the read-only WalletLedger operations.
+ *
+ * The ledger is built once per trial and never changes, so every invocation
+ * sees the same size and currency mix.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+@State(Scope.Thread)
+public class WalletLedgerReadBenchmark {
+
+    /**
+     * Kernel implementation under test.
+     */
+    @Param({ "1L", "2" })
+    private String implementation;
+
+    /**
+     * Number of entries in the ledger.
+     */
+    @Param({ "10", "1000", "100000", "10000000" })
+    private int size;
+
+    /**
+     * Number of distinct currencies the entries are spread over.
+     */
+    @Param({ "1", "20", "150" })
+    private int currencies;
+
+    /**
+     * Ledger under test.
+     */
+    private WalletLedger ledger;
+
+    /**
+     * Independent ledger with the same entries as ledger.
+     */
+    private WalletLedger copy;
+
+    /**
+     * Ids present in ledger.
+     */
+    private String[] ids;
+
+    /**
+     * Currency codes used by ledger.
+     */
+    private String[] codes;
+
+    /**
+     * Cursor used to rotate through ids and codes.
+     */
+    private int cursor;
+
+    /**
+     * Builds the ledger and its copy.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.codes = LedgerFixtures.currencyCodes(this.currencies);
+        this.ids = LedgerFixtures.ids("T", this.size);
+        this.ledger = LedgerFixtures.ledger(this.implementation, this.ids,
+                this.codes);
+        this.copy = LedgerFixtures.ledger(this.implementation, this.ids,
+                this.codes);
+    }
+
+    /**
+     * Returns the next cursor position below {@code bound}.
+     *
+     * @param bound
+     *            exclusive upper bound
+     * @return next position
+     */
+    private int next(int bound) {
+        this.cursor++;
+        if (this.cursor >= bound) {
+            this.cursor = 0;
+        }
+        return this.cursor;
+    }
+
+    /**
+     * Measures balanceCents.
+     *
+     * @return balance of one currency
+     */
+    @Benchmark
+    public int balanceCents() {
+        String code = this.codes[this.next(this.codes.length)];
+        return this.ledger.balanceCents(code);
+    }
+
+    /**
+     * Measures balanceCentsLong, for comparison with balanceCents.
+     *
+     * @return balance of one currency
+     */
+    @Benchmark
+    public long balanceCentsLong() {
+        String code = this.codes[this.next(this.codes.length)];
+        return this.ledger.balanceCentsLong(code);
+    }
+
+    /**
+     * Measures findById on an existing id.
+     *
+     * @return found entry
+     */
+    @Benchmark
+    public LedgerEntry findById() {
+        return this.ledger.findById(this.ids[this.next(this.ids.length)]);
+    }
+
+    /**
+     * Measures equals against an equal ledger.
+     *
+     * @return true
+     */
+    @Benchmark
+    public boolean equalsSameContent() {
+        return this.ledger.equals(this.copy);
+    }
+
+    /**
+     * Measures hashCode.
+     *
+     * @return hash code of ledger
+     */
+    @Benchmark
+    public int hashCodeOfLedger() {
+        return this.ledger.hashCode();
+    }
+
+    /**
+     * Measures toString.
+     *
+     * @return text form of ledger
+     */
+    @Benchmark
+    public String toStringOfLedger() {
+        return this.ledger.toString();
+    }
+}
@@ -0,0 +1,181 @@
+package components.walletledger.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import components.walletledger.WalletLedger;
+import components.walletledger.WalletLedgerKernel.EntryType;
+import components.walletledger.WalletLedgerKernel.LedgerEntry;
+
+/**
+ * Benchmarks for the WalletLedger operations that change the ledger.
+ *
+ * Each iteration rebuilds a ledger of {@code size} entries and then runs a
+ * batch of {@link #BATCH} single operations against it, so the ledger never
+ * drifts far from the configured size and no inverse operation is mixed into
+ * the measurement. Results are reported per batch.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = WalletLedgerWriteBenchmark.BATCH)
+@Measurement(iterations = 10, batchSize = WalletLedgerWriteBenchmark.BATCH)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+@State(Scope.Thread)
+public class WalletLedgerWriteBenchmark {
+
+    /**
+     * Operations per measured batch.
+     */
+    static final int BATCH = 1000;
+
+    /**
+     * Amount used for every written entry.
+     */
+    private static final int AMOUNT = 100;
+
+    /**
+     * Kernel implementation under test.
+     */
+    @Param({ "1L", "2" })
+    private String implementation;
+
+    /**
+     * Number of entries in the ledger before each batch.
+     */
+    @Param({ "10", "1000", "100000", "10000000" })
+    private int size;
+
+    /**
+     * Number of distinct currencies the entries are spread over.
+     */
+    @Param({ "1", "20", "150" })
+    private int currencies;
+
+    /**
+     * Ledger under test.
+     */
+    private WalletLedger ledger;
+
+    /**
+     * Ids of the base entries.
+     */
+    private String[] baseIds;
+
+    /**
+     * Ids added by addEntry during a batch.
+     */
+    private String[] newIds;
+
+    /**
+     * Ids of the extra entries removed by removeEntry during a batch.
+     */
+    private String[] extraIds;
+
+    /**
+     * Currency codes used by ledger.
+     */
+    private String[] codes;
+
+    /**
+     * Position within the current batch.
+     */
+    private int cursor;
+
+    /**
+     * Generates ids and currency codes once per trial.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        this.codes = LedgerFixtures.currencyCodes(this.currencies);
+        this.baseIds = LedgerFixtures.ids("T", this.size);
+        this.newIds = LedgerFixtures.ids("N", BATCH);
+        this.extraIds = LedgerFixtures.ids("X", BATCH);
+    }
+
+    /**
+     * Rebuilds the ledger before each batch. Besides the base entries it
+     * holds {@link #BATCH} extra entries for the removal benchmarks and one
+     * funding credit per currency so that every withdrawal is covered.
+     */
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        this.ledger = LedgerFixtures.ledger(this.implementation,
+                this.baseIds, this.codes);
+        LedgerFixtures.fill(this.ledger, this.extraIds, this.codes);
+        for (String code : this.codes) {
+            this.ledger.deposit(BATCH * AMOUNT, code);
+        }
+        this.cursor = 0;
+    }
+
+    /**
+     * Returns the currency for the current batch position.
+     *
+     * @return currency code
+     */
+    private String currency() {
+        return this.codes[this.cursor % this.codes.length];
+    }
+
+    /**
+     * Measures addEntry with a new id.
+     */
+    @Benchmark
+    public void addEntry() {
+        this.ledger.addEntry(this.newIds[this.cursor], AMOUNT, this.currency(),
+                EntryType.CREDIT);
+        this.cursor++;
+    }
+
+    /**
+     * Measures removeEntry on an existing id.
+     *
+     * @return removed entry
+     */
+    @Benchmark
+    public LedgerEntry removeEntry() {
+        LedgerEntry entry = this.ledger.removeEntry(this.extraIds[this.cursor]);
+        this.cursor++;
+        return entry;
+    }
+
+    /**
+     * Measures removeAnyEntry.
+     *
+     * @return removed entry
+     */
+    @Benchmark
+    public LedgerEntry removeAnyEntry() {
+        return this.ledger.removeAnyEntry();
+    }
+
+    /**
+     * Measures deposit.
+     */
+    @Benchmark
+    public void deposit() {
+        this.ledger.deposit(AMOUNT, this.currency());
+        this.cursor++;
+    }
+
+    /**
+     * Measures withdraw with sufficient funds.
+     */
+    @Benchmark
+    public void withdraw() {
+        this.ledger.withdraw(AMOUNT, this.currency());
+        this.cursor++;
+    }
+}
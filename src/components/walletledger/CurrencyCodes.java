@@ -0,0 +1,113 @@
+package components.walletledger;
+
+/**
+ * Utility class for compact currency codes.
+ *
+ * A valid currency code is three uppercase letters A-Z. Each letter is packed
+ * into five bits, so every valid code has a distinct packed form in the range
+ * 0 .. 2^15 - 1 that can be stored in a short and compared as an int.
+ * Unpacking returns one shared String per code, so unpacked codes are
+ * interned as well.
+ */
+public final class CurrencyCodes {
+
+    /**
+     * Number of letters in a currency code.
+     */
+    private static final int LENGTH = 3;
+
+    /**
+     * Bits used to pack one letter.
+     */
+    private static final int BITS_PER_LETTER = 5;
+
+    /**
+     * Mask selecting one packed letter.
+     */
+    private static final int LETTER_MASK = (1 << BITS_PER_LETTER) - 1;
+
+    /**
+     * Number of distinct packed values.
+     */
+    public static final int PACKED_LIMIT = 1 << (LENGTH * BITS_PER_LETTER);
+
+    /**
+     * Shared text for each packed code, filled in on first use. Racing
+     * threads may each build the String, but any of them is a correct
+     * value, since Strings are immutable.
+     */
+    private static final String[] TEXT = new String[PACKED_LIMIT];
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private CurrencyCodes() {
+    }
+
+    /**
+     * Reports whether the given string is a valid 3-letter uppercase code.
+     *
+     * @param currency
+     *            candidate currency
+     * @return true iff currency is valid
+     * @ensures isValid = (currency is a 3-letter uppercase code)
+     */
+    public static boolean isValid(String currency) {
+        if (currency == null || currency.length() != LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < LENGTH; i++) {
+            char c = currency.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packs a currency code, five bits per letter.
+     *
+     * @param currency
+     *            currency code
+     * @return packed code
+     * @requires isValid(currency)
+     * @ensures 0 <= pack < PACKED_LIMIT and unpack(pack) = currency
+     */
+    public static int pack(String currency) {
+        assert isValid(currency) : "Violation of: isValid(currency)";
+
+        int packed = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            packed = (packed << BITS_PER_LETTER) | (currency.charAt(i) - 'A');
+        }
+        return packed;
+    }
+
+    /**
+     * Returns the shared text of a packed currency code.
+     *
+     * @param packed
+     *            packed code
+     * @return currency code
+     * @requires packed = pack(c) for some valid code c
+     * @ensures unpack = c
+     */
+    public static String unpack(int packed) {
+        assert packed >= 0 && packed < PACKED_LIMIT
+                : "Violation of: packed is a packed code";
+
+        String text = TEXT[packed];
+        if (text == null) {
+            char[] letters = new char[LENGTH];
+            int bits = packed;
+            for (int i = LENGTH - 1; i >= 0; i--) {
+                letters[i] = (char) ('A' + (bits & LETTER_MASK));
+                bits >>>= BITS_PER_LETTER;
+            }
+            text = new String(letters);
+            TEXT[packed] = text;
+        }
+        return text;
+    }
+}
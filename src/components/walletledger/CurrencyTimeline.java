@@ -0,0 +1,478 @@
+package components.walletledger;
+
+import java.util.Arrays;
+
+import components.walletledger.WalletLedgerKernel.EntryType;
+
+/**
+ * Per-currency prefix sums of signed amounts over entry times, so the balance
+ * as of any time is a binary search and a Fenwick tree query, and adding or
+ * removing an entry is O(log n) in any time order.
+ *
+ * Representation:
+ * An open-addressing hash table with linear probing, as in
+ * CurrencyTotalsTable. keys holds the packed code + 1 of each used bucket and
+ * 0 for an empty bucket, and series holds the Series of the same bucket. A
+ * Series keeps distinct creation times in increasing order in
+ * times[0 .. size - 1], and in tree[0 .. size - 1] a Fenwick tree over the
+ * signed amount recorded at each of those times. A time that is neither one
+ * of them nor after the last goes to a short unsorted pending list instead,
+ * and the list is merged into the slots when it fills up.
+ *
+ * Convention:
+ * - keys.length = series.length is a power of two and keys.length >= 2 * used
+ * - used is the number of non-zero buckets of keys, and each packed code
+ *   appears in at most one bucket, reachable from its home bucket without
+ *   crossing an empty bucket
+ * - for every series, times[0 .. size - 1] is strictly increasing, tree is
+ *   the Fenwick tree of values v[0 .. size - 1] (position i + 1 held at
+ *   index i), and 0 <= pendingSize < PENDING_LIMIT
+ * - for every series and time t, the v of the slot with time t plus the
+ *   pendingCents of the pending rows with time t is the CREDIT minus DEBIT
+ *   amount of the recorded entries of that currency created at t
+ *
+ * Sums are kept as longs. A ledger holds fewer than 2^31 entries of less than
+ * 2^31 cents each, so no sum can overflow.
+ */
+final class CurrencyTimeline {
+
+    /**
+     * Initial number of buckets.
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Initial number of slots in a series.
+     */
+    private static final int INITIAL_SLOTS = 8;
+
+    /**
+     * Number of out-of-order times held in a series before they are merged
+     * into its slots.
+     */
+    private static final int PENDING_LIMIT = 64;
+
+    /**
+     * Multiplier used to spread packed codes over the buckets.
+     */
+    private static final int HASH_MULTIPLIER = 0x9E3779B1;
+
+    /**
+     * Times and prefix sums of one currency.
+     */
+    private static final class Series {
+
+        /**
+         * Distinct times, increasing; while collecting, any times.
+         */
+        private long[] times = new long[INITIAL_SLOTS];
+
+        /**
+         * Fenwick tree over the amount at each time; while collecting, the
+         * amount of each row of times.
+         */
+        private long[] tree = new long[INITIAL_SLOTS];
+
+        /**
+         * Number of slots used.
+         */
+        private int size;
+
+        /**
+         * Times older than the last slot but not among the slots, or null
+         * until the first one.
+         */
+        private long[] pendingTimes;
+
+        /**
+         * Signed amount of each pending time.
+         */
+        private long[] pendingCents;
+
+        /**
+         * Number of pending times.
+         */
+        private int pendingSize;
+
+        /**
+         * Appends a row, unsorted, while collecting.
+         *
+         * @param time
+         *            creation time
+         * @param cents
+         *            signed amount
+         */
+        private void collect(long time, long cents) {
+            if (this.size == this.times.length) {
+                this.times = Arrays.copyOf(this.times, 2 * this.size);
+                this.tree = Arrays.copyOf(this.tree, 2 * this.size);
+            }
+            this.times[this.size] = time;
+            this.tree[this.size] = cents;
+            this.size++;
+        }
+
+        /**
+         * Turns the collected rows into sorted distinct times and the
+         * Fenwick tree over their amounts.
+         */
+        private void finishCollecting() {
+            long[] sorted = Arrays.copyOf(this.times,
+                    Math.max(INITIAL_SLOTS, this.size));
+            Arrays.sort(sorted, 0, this.size);
+            int distinct = 0;
+            for (int i = 0; i < this.size; i++) {
+                if (distinct == 0 || sorted[distinct - 1] != sorted[i]) {
+                    sorted[distinct] = sorted[i];
+                    distinct++;
+                }
+            }
+            long[] values = new long[sorted.length];
+            for (int i = 0; i < this.size; i++) {
+                values[Arrays.binarySearch(sorted, 0, distinct,
+                        this.times[i])] += this.tree[i];
+            }
+            this.times = sorted;
+            this.tree = values;
+            this.size = distinct;
+            this.compactAndBuild();
+        }
+
+        /**
+         * Drops the slots whose value is 0, which add nothing to any prefix
+         * sum, and turns the values of tree into a Fenwick tree in place.
+         */
+        private void compactAndBuild() {
+            int kept = 0;
+            for (int i = 0; i < this.size; i++) {
+                if (this.tree[i] != 0) {
+                    this.times[kept] = this.times[i];
+                    this.tree[kept] = this.tree[i];
+                    kept++;
+                }
+            }
+            this.size = kept;
+            for (int i = 1; i <= this.size; i++) {
+                int parent = i + (i & -i);
+                if (parent <= this.size) {
+                    this.tree[parent - 1] += this.tree[i - 1];
+                }
+            }
+        }
+
+        /**
+         * Returns the sum of the values of the first count slots.
+         *
+         * @param count
+         *            number of slots
+         * @return prefix sum
+         */
+        private long sumOfFirst(int count) {
+            long sum = 0;
+            for (int i = count; i > 0; i -= i & -i) {
+                sum += this.tree[i - 1];
+            }
+            return sum;
+        }
+
+        /**
+         * Records a signed amount at a time.
+         *
+         * @param time
+         *            creation time
+         * @param cents
+         *            signed amount
+         */
+        private void update(long time, long cents) {
+            if (this.size == 0 || time > this.times[this.size - 1]) {
+                if (this.size == this.times.length) {
+                    this.times = Arrays.copyOf(this.times, 2 * this.size);
+                    this.tree = Arrays.copyOf(this.tree, 2 * this.size);
+                }
+                int position = this.size + 1;
+                this.tree[this.size] = cents + this.sumOfFirst(this.size)
+                        - this.sumOfFirst(position - (position & -position));
+                this.times[this.size] = time;
+                this.size = position;
+                return;
+            }
+            int slot = Arrays.binarySearch(this.times, 0, this.size, time);
+            if (slot >= 0) {
+                for (int i = slot + 1; i <= this.size; i += i & -i) {
+                    this.tree[i - 1] += cents;
+                }
+                return;
+            }
+            if (this.pendingTimes == null) {
+                this.pendingTimes = new long[PENDING_LIMIT];
+                this.pendingCents = new long[PENDING_LIMIT];
+            }
+            this.pendingTimes[this.pendingSize] = time;
+            this.pendingCents[this.pendingSize] = cents;
+            this.pendingSize++;
+            if (this.pendingSize == PENDING_LIMIT) {
+                this.mergePending();
+            }
+        }
+
+        /**
+         * Merges the pending times into the slots.
+         */
+        private void mergePending() {
+            for (int i = this.size; i > 0; i--) {
+                int parent = i + (i & -i);
+                if (parent <= this.size) {
+                    this.tree[parent - 1] -= this.tree[i - 1];
+                }
+            }
+            for (int i = 1; i < this.pendingSize; i++) {
+                long time = this.pendingTimes[i];
+                long cents = this.pendingCents[i];
+                int j = i;
+                while (j > 0 && this.pendingTimes[j - 1] > time) {
+                    this.pendingTimes[j] = this.pendingTimes[j - 1];
+                    this.pendingCents[j] = this.pendingCents[j - 1];
+                    j--;
+                }
+                this.pendingTimes[j] = time;
+                this.pendingCents[j] = cents;
+            }
+
+            int capacity = Math.max(this.times.length,
+                    this.size + this.pendingSize);
+            long[] mergedTimes = new long[capacity];
+            long[] mergedValues = new long[capacity];
+            int merged = 0;
+            int slot = 0;
+            int pending = 0;
+            while (slot < this.size || pending < this.pendingSize) {
+                long time;
+                long cents;
+                if (pending == this.pendingSize || (slot < this.size
+                        && this.times[slot] <= this.pendingTimes[pending])) {
+                    time = this.times[slot];
+                    cents = this.tree[slot];
+                    slot++;
+                } else {
+                    time = this.pendingTimes[pending];
+                    cents = this.pendingCents[pending];
+                    pending++;
+                }
+                if (merged > 0 && mergedTimes[merged - 1] == time) {
+                    mergedValues[merged - 1] += cents;
+                } else {
+                    mergedTimes[merged] = time;
+                    mergedValues[merged] = cents;
+                    merged++;
+                }
+            }
+            this.times = mergedTimes;
+            this.tree = mergedValues;
+            this.size = merged;
+            this.pendingSize = 0;
+            this.compactAndBuild();
+        }
+
+        /**
+         * Returns the sum of the amounts recorded at or before instant.
+         *
+         * @param instant
+         *            time in milliseconds
+         * @return balance as of instant
+         */
+        private long balanceAsOf(long instant) {
+            int low = 0;
+            int high = this.size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.times[mid] <= instant) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            long balance = this.sumOfFirst(low);
+            for (int i = 0; i < this.pendingSize; i++) {
+                if (this.pendingTimes[i] <= instant) {
+                    balance += this.pendingCents[i];
+                }
+            }
+            return balance;
+        }
+    }
+
+    /**
+     * Packed code + 1 per bucket, 0 if empty.
+     */
+    private int[] keys;
+
+    /**
+     * Series per bucket.
+     */
+    private Series[] series;
+
+    /**
+     * Number of used buckets.
+     */
+    private int used;
+
+    /**
+     * Constructs an empty timeline.
+     */
+    CurrencyTimeline() {
+        this.keys = new int[INITIAL_CAPACITY];
+        this.series = new Series[INITIAL_CAPACITY];
+        this.used = 0;
+    }
+
+    /**
+     * Returns the timeline of the entries of ledger, sorting each currency's
+     * times once rather than inserting the entries one at a time.
+     *
+     * @param ledger
+     *            ledger to index
+     * @return timeline of the entries of ledger
+     */
+    static CurrencyTimeline of(WalletLedger ledger) {
+        CurrencyTimeline timeline = new CurrencyTimeline();
+        ledger.forEachEntry(entry -> timeline.seriesFor(entry.currencyCode())
+                .collect(entry.createdAtMillis(),
+                        signedCents(entry.type(), entry.amountCents())));
+        for (Series currencySeries : timeline.series) {
+            if (currencySeries != null) {
+                currencySeries.finishCollecting();
+            }
+        }
+        return timeline;
+    }
+
+    /**
+     * Returns the signed amount of an entry.
+     *
+     * @param type
+     *            entry type
+     * @param amountCents
+     *            amount in cents
+     * @return amountCents, negated for a DEBIT
+     */
+    private static long signedCents(EntryType type, int amountCents) {
+        if (type == EntryType.CREDIT) {
+            return amountCents;
+        }
+        return -(long) amountCents;
+    }
+
+    /**
+     * Returns the bucket holding code, or the empty bucket where it would go.
+     *
+     * @param keyArray
+     *            bucket keys to search
+     * @param code
+     *            packed currency code
+     * @return bucket for code
+     */
+    private static int bucketOf(int[] keyArray, int code) {
+        int mask = keyArray.length - 1;
+        int bucket = ((code * HASH_MULTIPLIER) >>> Short.SIZE) & mask;
+        while (keyArray[bucket] != 0 && keyArray[bucket] != code + 1) {
+            bucket = (bucket + 1) & mask;
+        }
+        return bucket;
+    }
+
+    /**
+     * Doubles the number of buckets.
+     */
+    private void grow() {
+        int capacity = 2 * this.keys.length;
+        int[] newKeys = new int[capacity];
+        Series[] newSeries = new Series[capacity];
+        for (int b = 0; b < this.keys.length; b++) {
+            if (this.keys[b] != 0) {
+                int target = bucketOf(newKeys, this.keys[b] - 1);
+                newKeys[target] = this.keys[b];
+                newSeries[target] = this.series[b];
+            }
+        }
+        this.keys = newKeys;
+        this.series = newSeries;
+    }
+
+    /**
+     * Returns the series of code, first creating it if it has none.
+     *
+     * @param code
+     *            packed currency code
+     * @return series of code
+     * @updates this
+     */
+    private Series seriesFor(int code) {
+        int bucket = bucketOf(this.keys, code);
+        if (this.keys[bucket] == 0) {
+            if (2 * (this.used + 1) > this.keys.length) {
+                this.grow();
+                bucket = bucketOf(this.keys, code);
+            }
+            this.keys[bucket] = code + 1;
+            this.series[bucket] = new Series();
+            this.used++;
+        }
+        return this.series[bucket];
+    }
+
+    /**
+     * Records one added entry.
+     *
+     * @param code
+     *            packed currency code
+     * @param type
+     *            entry type
+     * @param amountCents
+     *            amount in cents
+     * @param createdAtMillis
+     *            creation time
+     * @updates this
+     */
+    void add(int code, EntryType type, int amountCents, long createdAtMillis) {
+        this.seriesFor(code).update(createdAtMillis,
+                signedCents(type, amountCents));
+    }
+
+    /**
+     * Records one removed entry.
+     *
+     * @param code
+     *            packed currency code
+     * @param type
+     *            entry type
+     * @param amountCents
+     *            amount in cents
+     * @param createdAtMillis
+     *            creation time
+     * @updates this
+     * @requires an entry with these values was recorded by add
+     */
+    void remove(int code, EntryType type, int amountCents,
+            long createdAtMillis) {
+        this.seriesFor(code).update(createdAtMillis,
+                -signedCents(type, amountCents));
+    }
+
+    /**
+     * Returns the balance of a currency as of the given time.
+     *
+     * @param code
+     *            packed currency code
+     * @param instantMillis
+     *            time in milliseconds
+     * @return CREDIT minus DEBIT amounts of the entries at or before
+     *         instantMillis
+     */
+    long balanceAsOf(int code, long instantMillis) {
+        int bucket = bucketOf(this.keys, code);
+        if (this.keys[bucket] == 0) {
+            return 0;
+        }
+        return this.series[bucket].balanceAsOf(instantMillis);
+    }
+}
@@ -0,0 +1,285 @@
+package components.walletledger;
+
+import components.walletledger.WalletLedgerKernel.EntryType;
+
+/**
+ * Running entry counts and credit and debit sums per currency, keyed by
+ * packed currency code.
+ *
+ * Representation:
+ * An open-addressing hash table with linear probing. keys holds the packed
+ * code + 1 of each used bucket and 0 for an empty bucket; counts, credits and
+ * debits hold the totals of the same bucket. A currency keeps its bucket once
+ * used, with all totals 0 after its last entry is removed.
+ *
+ * Convention:
+ * - keys.length = counts.length = credits.length = debits.length is a power
+ *   of two and keys.length >= 2 * used
+ * - used is the number of non-zero buckets of keys, and each packed code
+ *   appears in at most one bucket, reachable from its home bucket without
+ *   crossing an empty bucket
+ * - counts[b] >= 0 for every bucket b
+ *
+ * Sums are kept as longs. A ledger holds fewer than 2^31 entries of less than
+ * 2^31 cents each, so no sum can overflow.
+ */
+final class CurrencyTotalsTable {
+
+    /**
+     * Initial number of buckets.
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Multiplier used to spread packed codes over the buckets.
+     */
+    private static final int HASH_MULTIPLIER = 0x9E3779B1;
+
+    /**
+     * Packed code + 1 per bucket, 0 if empty.
+     */
+    private int[] keys;
+
+    /**
+     * Entry count per bucket.
+     */
+    private int[] counts;
+
+    /**
+     * Sum of CREDIT amounts per bucket.
+     */
+    private long[] credits;
+
+    /**
+     * Sum of DEBIT amounts per bucket.
+     */
+    private long[] debits;
+
+    /**
+     * Number of used buckets.
+     */
+    private int used;
+
+    /**
+     * Constructs an empty table.
+     */
+    CurrencyTotalsTable() {
+        this.keys = new int[INITIAL_CAPACITY];
+        this.counts = new int[INITIAL_CAPACITY];
+        this.credits = new long[INITIAL_CAPACITY];
+        this.debits = new long[INITIAL_CAPACITY];
+        this.used = 0;
+    }
+
+    /**
+     * Returns the bucket holding code, or the empty bucket where it would go.
+     *
+     * @param keyArray
+     *            bucket keys to search
+     * @param code
+     *            packed currency code
+     * @return bucket for code
+     */
+    private static int bucketOf(int[] keyArray, int code) {
+        int mask = keyArray.length - 1;
+        int bucket = ((code * HASH_MULTIPLIER) >>> Short.SIZE) & mask;
+        while (keyArray[bucket] != 0 && keyArray[bucket] != code + 1) {
+            bucket = (bucket + 1) & mask;
+        }
+        return bucket;
+    }
+
+    /**
+     * Doubles the number of buckets.
+     */
+    private void grow() {
+        int capacity = 2 * this.keys.length;
+        int[] newKeys = new int[capacity];
+        int[] newCounts = new int[capacity];
+        long[] newCredits = new long[capacity];
+        long[] newDebits = new long[capacity];
+        for (int b = 0; b < this.keys.length; b++) {
+            if (this.keys[b] != 0) {
+                int target = bucketOf(newKeys, this.keys[b] - 1);
+                newKeys[target] = this.keys[b];
+                newCounts[target] = this.counts[b];
+                newCredits[target] = this.credits[b];
+                newDebits[target] = this.debits[b];
+            }
+        }
+        this.keys = newKeys;
+        this.counts = newCounts;
+        this.credits = newCredits;
+        this.debits = newDebits;
+    }
+
+    /**
+     * Returns the bucket holding code, first giving code a bucket if it has
+     * none.
+     *
+     * @param code
+     *            packed currency code
+     * @return bucket for code
+     * @updates this
+     */
+    private int claim(int code) {
+        int bucket = bucketOf(this.keys, code);
+        if (this.keys[bucket] == 0) {
+            if (2 * (this.used + 1) > this.keys.length) {
+                this.grow();
+                bucket = bucketOf(this.keys, code);
+            }
+            this.keys[bucket] = code + 1;
+            this.used++;
+        }
+        return bucket;
+    }
+
+    /**
+     * Records one added entry.
+     *
+     * @param code
+     *            packed currency code of the entry
+     * @param type
+     *            entry type
+     * @param amountCents
+     *            entry amount
+     * @updates this
+     */
+    void add(int code, EntryType type, int amountCents) {
+        int bucket = this.claim(code);
+        this.counts[bucket]++;
+        if (type == EntryType.CREDIT) {
+            this.credits[bucket] += amountCents;
+        } else {
+            this.debits[bucket] += amountCents;
+        }
+    }
+
+    /**
+     * Records one removed entry.
+     *
+     * @param code
+     *            packed currency code of the entry
+     * @param type
+     *            entry type
+     * @param amountCents
+     *            entry amount
+     * @updates this
+     * @requires the entry was previously recorded by add
+     */
+    void remove(int code, EntryType type, int amountCents) {
+        int bucket = bucketOf(this.keys, code);
+        assert this.keys[bucket] != 0 && this.counts[bucket] > 0
+                : "Violation of: the entry was recorded";
+
+        this.counts[bucket]--;
+        if (type == EntryType.CREDIT) {
+            this.credits[bucket] -= amountCents;
+        } else {
+            this.debits[bucket] -= amountCents;
+        }
+    }
+
+    /**
+     * Adds the totals of other to this, as if every entry recorded in other
+     * had also been recorded in this.
+     *
+     * @param other
+     *            table to add
+     * @updates this
+     * @requires other is not this
+     */
+    void addAll(CurrencyTotalsTable other) {
+        assert other != this : "Violation of: other is not this";
+
+        for (int b = 0; b < other.keys.length; b++) {
+            if (other.counts[b] > 0) {
+                this.addTotals(other.keys[b] - 1, other.counts[b],
+                        other.credits[b], other.debits[b]);
+            }
+        }
+    }
+
+    /**
+     * Records the totals of several entries in one currency at once.
+     *
+     * @param code
+     *            packed currency code of the entries
+     * @param count
+     *            number of entries
+     * @param creditSum
+     *            sum of their CREDIT amounts
+     * @param debitSum
+     *            sum of their DEBIT amounts
+     * @updates this
+     * @requires count >= 0 and creditSum >= 0 and debitSum >= 0
+     */
+    void addTotals(int code, int count, long creditSum, long debitSum) {
+        int bucket = this.claim(code);
+        this.counts[bucket] += count;
+        this.credits[bucket] += creditSum;
+        this.debits[bucket] += debitSum;
+    }
+
+    /**
+     * Returns the sum of CREDIT amounts in the given currency.
+     *
+     * @param code
+     *            packed currency code
+     * @return total credits in cents
+     */
+    long creditsOf(int code) {
+        int bucket = bucketOf(this.keys, code);
+        return this.credits[bucket];
+    }
+
+    /**
+     * Returns the sum of DEBIT amounts in the given currency.
+     *
+     * @param code
+     *            packed currency code
+     * @return total debits in cents
+     */
+    long debitsOf(int code) {
+        int bucket = bucketOf(this.keys, code);
+        return this.debits[bucket];
+    }
+
+    /**
+     * Returns the number of entries in the given currency.
+     *
+     * @param code
+     *            packed currency code
+     * @return entry count
+     */
+    int countOf(int code) {
+        int bucket = bucketOf(this.keys, code);
+        return this.counts[bucket];
+    }
+
+    /**
+     * Returns the packed codes of the currencies that currently have entries,
+     * in no particular order.
+     *
+     * @return packed codes with a non-zero entry count
+     */
+    int[] codes() {
+        int n = 0;
+        for (int count : this.counts) {
+            if (count > 0) {
+                n++;
+            }
+        }
+        int[] result = new int[n];
+        int next = 0;
+        for (int b = 0; b < this.keys.length; b++) {
+            if (this.counts[b] > 0) {
+                result[next] = this.keys[b] - 1;
+                next++;
+            }
+        }
+        return result;
+    }
+
+}
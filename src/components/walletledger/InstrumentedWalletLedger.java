@@ -0,0 +1,363 @@
+package components.walletledger;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import components.walletledger.WalletLedgerMetrics.Operation;
+
+/**
+ * WalletLedger decorator that times every call into a WalletLedgerMetrics
+ * and then forwards it unchanged to another ledger.
+ *
+ * The wrapped ledger keeps its own behaviour, thread safety and equality;
+ * this adds two System.nanoTime calls and a few atomic adds per call, or a
+ * single volatile read while the metrics are disabled. A ledger that does not
+ * need measuring should simply not be wrapped.
+ *
+ * clear, newInstance, transferFrom, isValidCurrency, entryCount,
+ * entrySequence, nextEntrySequence, setEntrySequence and contentHash are
+ * forwarded without being timed.
+ * forEachEntry and exportTo count the entries of the ledger as scanned.
+ * transferTo unwraps an instrumented destination, so only the source's
+ * metrics record a transfer.
+ *
+ * Correspondence:
+ * this = delegate
+ */
+public final class InstrumentedWalletLedger implements WalletLedger {
+
+    /**
+     * Ledger receiving every call.
+     */
+    private final WalletLedger delegate;
+
+    /**
+     * Recorder of the calls.
+     */
+    private final WalletLedgerMetrics metrics;
+
+    /**
+     * Constructs a decorator over delegate.
+     *
+     * @param delegate
+     *            ledger to forward calls to
+     * @param metrics
+     *            recorder of the calls
+     * @requires delegate is not null and metrics is not null
+     * @ensures this = delegate
+     */
+    public InstrumentedWalletLedger(WalletLedger delegate,
+            WalletLedgerMetrics metrics) {
+        assert delegate != null : "Violation of: delegate is not null";
+        assert metrics != null : "Violation of: metrics is not null";
+
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the ledger behind ledger, unwrapping it if it is instrumented.
+     *
+     * @param ledger
+     *            a ledger
+     * @return ledger itself, or the ledger it decorates
+     */
+    private static WalletLedger unwrap(WalletLedger ledger) {
+        if (ledger instanceof InstrumentedWalletLedger instrumented) {
+            return instrumented.delegate;
+        }
+        return ledger;
+    }
+
+    /**
+     * Returns the metrics this records into.
+     *
+     * @return recorder of the calls of this
+     */
+    public WalletLedgerMetrics metrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void clear() {
+        this.delegate.clear();
+    }
+
+    @Override
+    public WalletLedgerKernel newInstance() {
+        return new InstrumentedWalletLedger(
+                (WalletLedger) this.delegate.newInstance(), this.metrics);
+    }
+
+    @Override
+    public void transferFrom(WalletLedgerKernel source) {
+        assert source instanceof WalletLedger
+                : "Violation of: source is a WalletLedger";
+
+        this.delegate.transferFrom(unwrap((WalletLedger) source));
+    }
+
+    @Override
+    public boolean hasEntry(String id) {
+        long start = this.metrics.start();
+        boolean result = this.delegate.hasEntry(id);
+        this.metrics.record(Operation.HAS_ENTRY, start, 0);
+        return result;
+    }
+
+    @Override
+    public LedgerEntry entryOrNull(String id) {
+        long start = this.metrics.start();
+        LedgerEntry result = this.delegate.entryOrNull(id);
+        this.metrics.record(Operation.FIND_BY_ID, start, 0);
+        return result;
+    }
+
+    @Override
+    public boolean isValidCurrency(String currency) {
+        return this.delegate.isValidCurrency(currency);
+    }
+
+    @Override
+    public void addEntry(String id, int amountCents, String currency,
+            EntryType type) {
+        long start = this.metrics.start();
+        this.delegate.addEntry(id, amountCents, currency, type);
+        this.metrics.record(Operation.ADD_ENTRY, start, 0);
+    }
+
+    @Override
+    public void addEntryAt(String id, int amountCents, String currency,
+            EntryType type, long createdAtMillis) {
+        long start = this.metrics.start();
+        this.delegate.addEntryAt(id, amountCents, currency, type,
+                createdAtMillis);
+        this.metrics.record(Operation.ADD_ENTRY, start, 0);
+    }
+
+    @Override
+    public LedgerEntry removeEntry(String id) {
+        long start = this.metrics.start();
+        LedgerEntry result = this.delegate.removeEntry(id);
+        this.metrics.record(Operation.REMOVE_ENTRY, start, 0);
+        return result;
+    }
+
+    @Override
+    public LedgerEntry removeAnyEntry() {
+        long start = this.metrics.start();
+        LedgerEntry result = this.delegate.removeAnyEntry();
+        this.metrics.record(Operation.REMOVE_ENTRY, start, 0);
+        return result;
+    }
+
+    @Override
+    public int entryCount() {
+        return this.delegate.entryCount();
+    }
+
+    @Override
+    public long entrySequence() {
+        return this.delegate.entrySequence();
+    }
+
+    @Override
+    public long nextEntrySequence() {
+        return this.delegate.nextEntrySequence();
+    }
+
+    @Override
+    public void setEntrySequence(long sequence) {
+        this.delegate.setEntrySequence(sequence);
+    }
+
+    @Override
+    public int balanceCents(String currency) {
+        long start = this.metrics.start();
+        int result = this.delegate.balanceCents(currency);
+        this.metrics.record(Operation.BALANCE, start, 0);
+        return result;
+    }
+
+    @Override
+    public long balanceCentsLong(String currency) {
+        long start = this.metrics.start();
+        long result = this.delegate.balanceCentsLong(currency);
+        this.metrics.record(Operation.BALANCE, start, 0);
+        return result;
+    }
+
+    @Override
+    public boolean hasSufficientFunds(int debitCents, String currency) {
+        long start = this.metrics.start();
+        boolean result = this.delegate.hasSufficientFunds(debitCents,
+                currency);
+        this.metrics.record(Operation.BALANCE, start, 0);
+        return result;
+    }
+
+    @Override
+    public void deposit(int amountCents, String currency) {
+        long start = this.metrics.start();
+        this.delegate.deposit(amountCents, currency);
+        this.metrics.record(Operation.DEPOSIT, start, 0);
+    }
+
+    @Override
+    public void withdraw(int amountCents, String currency) {
+        long start = this.metrics.start();
+        this.delegate.withdraw(amountCents, currency);
+        this.metrics.record(Operation.WITHDRAW, start, 0);
+    }
+
+    @Override
+    public WithdrawResult tryWithdraw(int amountCents, String currency) {
+        long start = this.metrics.start();
+        WithdrawResult result = this.delegate.tryWithdraw(amountCents,
+                currency);
+        this.metrics.record(Operation.WITHDRAW, start, 0);
+        return result;
+    }
+
+    @Override
+    public WithdrawResult transferTo(WalletLedger destination,
+            int amountCents, String currency) {
+        long start = this.metrics.start();
+        WithdrawResult result = this.delegate.transferTo(unwrap(destination),
+                amountCents, currency);
+        this.metrics.record(Operation.TRANSFER, start, 0);
+        return result;
+    }
+
+    @Override
+    public int totalCreditsCents(String currency) {
+        long start = this.metrics.start();
+        int result = this.delegate.totalCreditsCents(currency);
+        this.metrics.record(Operation.TOTALS, start, 0);
+        return result;
+    }
+
+    @Override
+    public long totalCreditsCentsLong(String currency) {
+        long start = this.metrics.start();
+        long result = this.delegate.totalCreditsCentsLong(currency);
+        this.metrics.record(Operation.TOTALS, start, 0);
+        return result;
+    }
+
+    @Override
+    public int totalDebitsCents(String currency) {
+        long start = this.metrics.start();
+        int result = this.delegate.totalDebitsCents(currency);
+        this.metrics.record(Operation.TOTALS, start, 0);
+        return result;
+    }
+
+    @Override
+    public long totalDebitsCentsLong(String currency) {
+        long start = this.metrics.start();
+        long result = this.delegate.totalDebitsCentsLong(currency);
+        this.metrics.record(Operation.TOTALS, start, 0);
+        return result;
+    }
+
+    @Override
+    public LedgerTotals parallelTotals() {
+        long start = this.metrics.start();
+        LedgerTotals result = this.delegate.parallelTotals();
+        this.metrics.record(Operation.TOTALS, start,
+                this.delegate.entryCount());
+        return result;
+    }
+
+    @Override
+    public LedgerTotals balances() {
+        long start = this.metrics.start();
+        LedgerTotals result = this.delegate.balances();
+        this.metrics.record(Operation.BALANCE, start, 0);
+        return result;
+    }
+
+    @Override
+    public long balanceCentsAsOf(String currency, long instantMillis) {
+        long start = this.metrics.start();
+        long result = this.delegate.balanceCentsAsOf(currency,
+                instantMillis);
+        this.metrics.record(Operation.BALANCE_AS_OF, start, 0);
+        return result;
+    }
+
+    @Override
+    public long netFlowCents(String currency, long fromMillis,
+            long toMillis) {
+        long start = this.metrics.start();
+        long result = this.delegate.netFlowCents(currency, fromMillis,
+                toMillis);
+        this.metrics.record(Operation.BALANCE_AS_OF, start, 0);
+        return result;
+    }
+
+    @Override
+    public void addEntries(String[] ids, int[] amountsCents,
+            String[] currencies, EntryType[] types) {
+        long start = this.metrics.start();
+        this.delegate.addEntries(ids, amountsCents, currencies, types);
+        this.metrics.record(Operation.ADD_ENTRIES, start, 0);
+    }
+
+    @Override
+    public void addEntriesAt(String[] ids, int[] amountsCents,
+            String[] currencies, EntryType[] types, long[] createdAtMillis) {
+        long start = this.metrics.start();
+        this.delegate.addEntriesAt(ids, amountsCents, currencies, types,
+                createdAtMillis);
+        this.metrics.record(Operation.ADD_ENTRIES, start, 0);
+    }
+
+    @Override
+    public LedgerEntry findById(String id) {
+        long start = this.metrics.start();
+        LedgerEntry result = this.delegate.findById(id);
+        this.metrics.record(Operation.FIND_BY_ID, start, 0);
+        return result;
+    }
+
+    @Override
+    public long contentHash() {
+        return this.delegate.contentHash();
+    }
+
+    @Override
+    public void forEachEntry(Consumer<LedgerEntry> action) {
+        long start = this.metrics.start();
+        this.delegate.forEachEntry(action);
+        this.metrics.record(Operation.FOR_EACH_ENTRY, start,
+                this.delegate.entryCount());
+    }
+
+    @Override
+    public void exportTo(Appendable out) throws IOException {
+        long start = this.metrics.start();
+        this.delegate.exportTo(out);
+        this.metrics.record(Operation.EXPORT, start,
+                this.delegate.entryCount());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof InstrumentedWalletLedger instrumented) {
+            return this.delegate.equals(instrumented.delegate);
+        }
+        return this.delegate.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.delegate.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.delegate.toString();
+    }
+}
@@ -0,0 +1,167 @@
+package components.walletledger;
+
+import java.util.Arrays;
+
+/**
+ * Immutable entry counts and credit and debit sums of every currency of a
+ * ledger, keyed by packed currency code (see CurrencyCodes).
+ *
+ * Representation:
+ * Four parallel arrays with one row per currency, in increasing order of
+ * packed code, looked up by binary search.
+ *
+ * Convention:
+ * - codes.length = counts.length = credits.length = debits.length
+ * - codes is strictly increasing and holds packed currency codes
+ * - counts[i] > 0, credits[i] >= 0 and debits[i] >= 0 for every row i
+ *
+ * Correspondence:
+ * this = { (unpack(codes[i]), counts[i], credits[i], debits[i]) }
+ */
+public final class LedgerTotals {
+
+    /**
+     * Packed currency codes, increasing.
+     */
+    private final int[] codes;
+
+    /**
+     * Entry count per currency.
+     */
+    private final int[] counts;
+
+    /**
+     * Sum of CREDIT amounts per currency.
+     */
+    private final long[] credits;
+
+    /**
+     * Sum of DEBIT amounts per currency.
+     */
+    private final long[] debits;
+
+    /**
+     * Constructs the totals held by table.
+     *
+     * @param table
+     *            running totals to copy
+     * @ensures this holds the currencies of table with a non-zero count
+     */
+    LedgerTotals(CurrencyTotalsTable table) {
+        assert table != null : "Violation of: table is not null";
+
+        this.codes = table.codes();
+        Arrays.sort(this.codes);
+        this.counts = new int[this.codes.length];
+        this.credits = new long[this.codes.length];
+        this.debits = new long[this.codes.length];
+        for (int i = 0; i < this.codes.length; i++) {
+            this.counts[i] = table.countOf(this.codes[i]);
+            this.credits[i] = table.creditsOf(this.codes[i]);
+            this.debits[i] = table.debitsOf(this.codes[i]);
+        }
+    }
+
+    /**
+     * Returns the number of currencies with entries.
+     *
+     * @return number of currencies
+     */
+    public int currencyCount() {
+        return this.codes.length;
+    }
+
+    /**
+     * Returns the packed codes of the currencies with entries.
+     *
+     * @return new array of packed codes, in increasing order
+     */
+    public int[] currencyCodes() {
+        return this.codes.clone();
+    }
+
+    /**
+     * Returns the number of entries in a currency.
+     *
+     * @param currencyCode
+     *            packed currency code
+     * @return entry count, or 0 if the currency has no entries
+     */
+    public int entryCount(int currencyCode) {
+        int row = Arrays.binarySearch(this.codes, currencyCode);
+        return row < 0 ? 0 : this.counts[row];
+    }
+
+    /**
+     * Returns the sum of CREDIT amounts in a currency.
+     *
+     * @param currencyCode
+     *            packed currency code
+     * @return total credits in cents
+     */
+    public long creditsCents(int currencyCode) {
+        int row = Arrays.binarySearch(this.codes, currencyCode);
+        return row < 0 ? 0 : this.credits[row];
+    }
+
+    /**
+     * Returns the sum of DEBIT amounts in a currency.
+     *
+     * @param currencyCode
+     *            packed currency code
+     * @return total debits in cents
+     */
+    public long debitsCents(int currencyCode) {
+        int row = Arrays.binarySearch(this.codes, currencyCode);
+        return row < 0 ? 0 : this.debits[row];
+    }
+
+    /**
+     * Returns the balance of a currency.
+     *
+     * @param currencyCode
+     *            packed currency code
+     * @return creditsCents(currencyCode) - debitsCents(currencyCode)
+     */
+    public long netCents(int currencyCode) {
+        int row = Arrays.binarySearch(this.codes, currencyCode);
+        return row < 0 ? 0 : this.credits[row] - this.debits[row];
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LedgerTotals)) {
+            return false;
+        }
+        LedgerTotals other = (LedgerTotals) obj;
+        return Arrays.equals(this.codes, other.codes)
+                && Arrays.equals(this.counts, other.counts)
+                && Arrays.equals(this.credits, other.credits)
+                && Arrays.equals(this.debits, other.debits);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(this.codes);
+        result = 31 * result + Arrays.hashCode(this.credits);
+        return 31 * result + Arrays.hashCode(this.debits);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < this.codes.length; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(CurrencyCodes.unpack(this.codes[i])).append("=(")
+                    .append(this.counts[i]).append(" entries, +")
+                    .append(this.credits[i]).append(", -")
+                    .append(this.debits[i]).append(')');
+        }
+        return text.append('}').toString();
+    }
+}
@@ -0,0 +1,461 @@
+package components.walletledger;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash map with structural sharing, in the form of a hash array
+ * mapped trie (HAMT). put and remove return a new map that shares every
+ * untouched node with this one, so each costs O(log32 n) new nodes and old
+ * versions stay valid and unchanged.
+ *
+ * Representation:
+ * root is null for the empty map, or a node. A node is a Leaf holding one
+ * key, its spread hash and its value; a Collision holding two or more leaves
+ * with the same spread hash; or a Branch holding a 32-bit bitmap and one
+ * child per set bit, in bit order.
+ *
+ * Convention:
+ * - size is the number of leaves reachable from root
+ * - a node reached from root through Branch bits b0, b1, ..., bk holds only
+ *   keys whose spread hash has 5-bit digits b0, b1, ..., bk from the least
+ *   significant end
+ * - no key appears twice, and no key or value is null
+ * - a Branch has at least one child, and a Collision has at least two leaves
+ *
+ * Correspondence:
+ * The map is the set of (key, value) pairs held by the leaves.
+ *
+ * @param <K>
+ *            type of the keys
+ * @param <V>
+ *            type of the values
+ */
+final class PersistentHashMap<K, V> {
+
+    /**
+     * Hash bits consumed per trie level.
+     */
+    private static final int BITS = 5;
+
+    /**
+     * Mask selecting one trie digit.
+     */
+    private static final int DIGIT_MASK = (1 << BITS) - 1;
+
+    /**
+     * The empty map.
+     */
+    private static final PersistentHashMap<?, ?> EMPTY =
+            new PersistentHashMap<>(null, 0);
+
+    /**
+     * One key and its value.
+     *
+     * @param hash
+     *            spread hash of key
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     */
+    private record Leaf(int hash, Object key, Object value) {
+    }
+
+    /**
+     * Leaves whose keys share one spread hash.
+     *
+     * @param hash
+     *            spread hash of every key
+     * @param leaves
+     *            two or more leaves
+     */
+    private record Collision(int hash, Leaf[] leaves) {
+    }
+
+    /**
+     * Interior node.
+     *
+     * @param bitmap
+     *            bit d is set iff there is a child for digit d
+     * @param children
+     *            children in increasing digit order
+     */
+    private record Branch(int bitmap, Object[] children) {
+    }
+
+    /**
+     * Root node, or null if empty.
+     */
+    private final Object root;
+
+    /**
+     * Number of keys.
+     */
+    private final int size;
+
+    /**
+     * Constructs a map over the given root.
+     *
+     * @param root
+     *            root node, or null
+     * @param size
+     *            number of keys under root
+     */
+    private PersistentHashMap(Object root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns the empty map.
+     *
+     * @param <K>
+     *            type of the keys
+     * @param <V>
+     *            type of the values
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Returns the spread hash of key.
+     *
+     * @param key
+     *            key
+     * @return hash with the high bits folded into the low bits
+     */
+    private static int spread(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> Short.SIZE);
+    }
+
+    /**
+     * Returns the bit of the trie digit of hash at the given shift.
+     *
+     * @param hash
+     *            spread hash
+     * @param shift
+     *            number of low bits already consumed
+     * @return single-bit mask
+     */
+    private static int bitOf(int hash, int shift) {
+        return 1 << ((hash >>> shift) & DIGIT_MASK);
+    }
+
+    /**
+     * Returns the child position of bit in bitmap.
+     *
+     * @param bitmap
+     *            branch bitmap
+     * @param bit
+     *            single-bit mask
+     * @return number of set bits of bitmap below bit
+     */
+    private static int indexOf(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    /**
+     * Returns the spread hash shared by every key under a leaf or collision.
+     *
+     * @param node
+     *            Leaf or Collision
+     * @return its hash
+     */
+    private static int hashOf(Object node) {
+        if (node instanceof Leaf leaf) {
+            return leaf.hash();
+        }
+        return ((Collision) node).hash();
+    }
+
+    /**
+     * Returns a node holding two nodes with different hashes.
+     *
+     * @param first
+     *            Leaf or Collision
+     * @param second
+     *            Leaf or Collision whose hash differs from first's
+     * @param shift
+     *            number of low bits already consumed
+     * @return Branch holding both
+     */
+    private static Object merge(Object first, Object second, int shift) {
+        int firstBit = bitOf(hashOf(first), shift);
+        int secondBit = bitOf(hashOf(second), shift);
+        if (firstBit == secondBit) {
+            return new Branch(firstBit,
+                    new Object[] { merge(first, second, shift + BITS) });
+        }
+        Object[] children = Integer.compareUnsigned(firstBit, secondBit) < 0
+                ? new Object[] { first, second }
+                : new Object[] { second, first };
+        return new Branch(firstBit | secondBit, children);
+    }
+
+    /**
+     * Returns node with leaf inserted or replacing the leaf of the same key.
+     *
+     * @param node
+     *            node, or null
+     * @param shift
+     *            number of low bits already consumed
+     * @param leaf
+     *            new leaf
+     * @param added
+     *            set to true iff the key was not present
+     * @return new node
+     */
+    private static Object put(Object node, int shift, Leaf leaf,
+            boolean[] added) {
+        if (node == null) {
+            added[0] = true;
+            return leaf;
+        }
+        if (node instanceof Branch branch) {
+            int bit = bitOf(leaf.hash(), shift);
+            int index = indexOf(branch.bitmap(), bit);
+            Object[] children = branch.children();
+            if ((branch.bitmap() & bit) == 0) {
+                Object[] grown = new Object[children.length + 1];
+                System.arraycopy(children, 0, grown, 0, index);
+                grown[index] = leaf;
+                System.arraycopy(children, index, grown, index + 1,
+                        children.length - index);
+                added[0] = true;
+                return new Branch(branch.bitmap() | bit, grown);
+            }
+            Object[] copy = children.clone();
+            copy[index] = put(children[index], shift + BITS, leaf, added);
+            return new Branch(branch.bitmap(), copy);
+        }
+        if (hashOf(node) != leaf.hash()) {
+            added[0] = true;
+            return merge(node, leaf, shift);
+        }
+        if (node instanceof Leaf existing) {
+            if (existing.key().equals(leaf.key())) {
+                return leaf;
+            }
+            added[0] = true;
+            return new Collision(leaf.hash(), new Leaf[] { existing, leaf });
+        }
+        Leaf[] leaves = ((Collision) node).leaves();
+        for (int i = 0; i < leaves.length; i++) {
+            if (leaves[i].key().equals(leaf.key())) {
+                Leaf[] copy = leaves.clone();
+                copy[i] = leaf;
+                return new Collision(leaf.hash(), copy);
+            }
+        }
+        Leaf[] grown = new Leaf[leaves.length + 1];
+        System.arraycopy(leaves, 0, grown, 0, leaves.length);
+        grown[leaves.length] = leaf;
+        added[0] = true;
+        return new Collision(leaf.hash(), grown);
+    }
+
+    /**
+     * Returns node without the leaf of key.
+     *
+     * @param node
+     *            node, or null
+     * @param shift
+     *            number of low bits already consumed
+     * @param hash
+     *            spread hash of key
+     * @param key
+     *            key to remove
+     * @return new node, null if it became empty, or node itself if key was
+     *         not present
+     */
+    private static Object remove(Object node, int shift, int hash,
+            Object key) {
+        if (node instanceof Branch branch) {
+            int bit = bitOf(hash, shift);
+            if ((branch.bitmap() & bit) == 0) {
+                return node;
+            }
+            int index = indexOf(branch.bitmap(), bit);
+            Object[] children = branch.children();
+            Object child = remove(children[index], shift + BITS, hash, key);
+            if (child == children[index]) {
+                return node;
+            }
+            if (child != null) {
+                if (children.length == 1 && !(child instanceof Branch)) {
+                    return child;
+                }
+                Object[] copy = children.clone();
+                copy[index] = child;
+                return new Branch(branch.bitmap(), copy);
+            }
+            if (children.length == 1) {
+                return null;
+            }
+            Object sibling = children[1 - Math.min(index, 1)];
+            if (children.length == 2 && !(sibling instanceof Branch)) {
+                return sibling;
+            }
+            Object[] shrunk = new Object[children.length - 1];
+            System.arraycopy(children, 0, shrunk, 0, index);
+            System.arraycopy(children, index + 1, shrunk, index,
+                    shrunk.length - index);
+            return new Branch(branch.bitmap() & ~bit, shrunk);
+        }
+        if (node instanceof Leaf leaf) {
+            return leaf.key().equals(key) ? null : node;
+        }
+        if (node == null || hashOf(node) != hash) {
+            return node;
+        }
+        Leaf[] leaves = ((Collision) node).leaves();
+        for (int i = 0; i < leaves.length; i++) {
+            if (leaves[i].key().equals(key)) {
+                if (leaves.length == 2) {
+                    return leaves[1 - i];
+                }
+                Leaf[] shrunk = new Leaf[leaves.length - 1];
+                System.arraycopy(leaves, 0, shrunk, 0, i);
+                System.arraycopy(leaves, i + 1, shrunk, i, shrunk.length - i);
+                return new Collision(hash, shrunk);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Applies action to every leaf under node.
+     *
+     * @param node
+     *            node, or null
+     * @param action
+     *            action to apply
+     */
+    private static void forEachLeaf(Object node,
+            BiConsumer<Object, Object> action) {
+        if (node instanceof Branch branch) {
+            for (Object child : branch.children()) {
+                forEachLeaf(child, action);
+            }
+        } else if (node instanceof Leaf leaf) {
+            action.accept(leaf.key(), leaf.value());
+        } else if (node != null) {
+            for (Leaf leaf : ((Collision) node).leaves()) {
+                action.accept(leaf.key(), leaf.value());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of keys.
+     *
+     * @return size of this
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the value of key, or null if key is not present.
+     *
+     * @param key
+     *            key to look up
+     * @return value of key, or null
+     * @requires key is not null
+     */
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        int hash = spread(key);
+        Object node = this.root;
+        int shift = 0;
+        while (node instanceof Branch branch) {
+            int bit = bitOf(hash, shift);
+            if ((branch.bitmap() & bit) == 0) {
+                return null;
+            }
+            node = branch.children()[indexOf(branch.bitmap(), bit)];
+            shift += BITS;
+        }
+        if (node instanceof Leaf leaf) {
+            return leaf.key().equals(key) ? (V) leaf.value() : null;
+        }
+        if (node != null && ((Collision) node).hash() == hash) {
+            for (Leaf leaf : ((Collision) node).leaves()) {
+                if (leaf.key().equals(key)) {
+                    return (V) leaf.value();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a map with key mapped to value.
+     *
+     * @param key
+     *            key
+     * @param value
+     *            value
+     * @return this with key mapped to value
+     * @requires key is not null and value is not null
+     */
+    PersistentHashMap<K, V> put(K key, V value) {
+        boolean[] added = new boolean[1];
+        Object newRoot = put(this.root, 0, new Leaf(spread(key), key, value),
+                added);
+        return new PersistentHashMap<>(newRoot,
+                added[0] ? this.size + 1 : this.size);
+    }
+
+    /**
+     * Returns a map without key.
+     *
+     * @param key
+     *            key
+     * @return this without key, or this itself if key is not present
+     * @requires key is not null
+     */
+    PersistentHashMap<K, V> remove(Object key) {
+        Object newRoot = remove(this.root, 0, spread(key), key);
+        if (newRoot == this.root) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot, this.size - 1);
+    }
+
+    /**
+     * Returns the value of some key.
+     *
+     * @return a value of this
+     * @requires size() > 0
+     */
+    @SuppressWarnings("unchecked")
+    V anyValue() {
+        assert this.size > 0 : "Violation of: this is not empty";
+
+        Object node = this.root;
+        while (node instanceof Branch branch) {
+            node = branch.children()[0];
+        }
+        if (node instanceof Leaf leaf) {
+            return (V) leaf.value();
+        }
+        return (V) ((Collision) node).leaves()[0].value();
+    }
+
+    /**
+     * Applies action to every (key, value) pair.
+     *
+     * @param action
+     *            action to apply
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        forEachLeaf(this.root,
+                (key, value) -> action.accept((K) key, (V) value));
+    }
+}
@@ -0,0 +1,283 @@
+package components.walletledger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Ids collected in any order and read back in increasing order (by
+ * String.compareTo), holding at most runLength ids in memory at once.
+ *
+ * Representation:
+ * buffer[0 .. size - 1] holds the ids of the current run, unsorted. Each
+ * earlier run was sorted and spilled to its own temporary file, listed in
+ * runs, as an int count followed by every id as an int byte count and its
+ * UTF-8 bytes. forEachSorted merges the runs with a priority queue.
+ *
+ * Convention:
+ * - 0 <= size <= buffer.length <= runLength
+ * - every file of runs holds a sorted run of at most runLength ids
+ *
+ * Correspondence:
+ * this = the ids of every file of runs and of buffer[0 .. size - 1]
+ */
+final class SortedIdRuns implements Closeable {
+
+    /**
+     * Receives the ids read back by {@link #forEachSorted(IdSink)}.
+     */
+    interface IdSink {
+
+        /**
+         * Called once per id, in increasing order.
+         *
+         * @param id
+         *            next id
+         * @throws IOException
+         *             if the id cannot be consumed
+         */
+        void accept(String id) throws IOException;
+    }
+
+    /**
+     * One spilled run being merged, positioned at its smallest unread id.
+     */
+    private static final class Run implements Closeable {
+
+        /**
+         * Orders runs by their current id.
+         */
+        static final Comparator<Run> BY_HEAD = Comparator
+                .comparing(run -> run.head);
+
+        /**
+         * Reader of the run file.
+         */
+        private final DataInputStream in;
+
+        /**
+         * Ids not yet read.
+         */
+        private int remaining;
+
+        /**
+         * Current id, or null once the run is exhausted.
+         */
+        private String head;
+
+        /**
+         * Opens a run file and reads its first id.
+         *
+         * @param file
+         *            run file
+         * @throws IOException
+         *             if the file cannot be read
+         */
+        Run(Path file) throws IOException {
+            this.in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(file)));
+            this.remaining = this.in.readInt();
+            this.advance();
+        }
+
+        /**
+         * Moves head to the next id of the run.
+         *
+         * @throws IOException
+         *             if the file cannot be read
+         */
+        void advance() throws IOException {
+            if (this.remaining == 0) {
+                this.head = null;
+                return;
+            }
+            byte[] bytes = new byte[this.in.readInt()];
+            this.in.readFully(bytes);
+            this.head = new String(bytes, StandardCharsets.UTF_8);
+            this.remaining--;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+
+    /**
+     * Initial size of the id buffer.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Largest number of ids held in memory.
+     */
+    private final int runLength;
+
+    /**
+     * Files of the runs spilled so far.
+     */
+    private final List<Path> runs;
+
+    /**
+     * Ids of the current run.
+     */
+    private String[] buffer;
+
+    /**
+     * Number of ids in buffer.
+     */
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param runLength
+     *            largest number of ids to hold in memory
+     * @requires runLength > 0
+     * @ensures this is empty
+     */
+    SortedIdRuns(int runLength) {
+        assert runLength > 0 : "Violation of: runLength > 0";
+
+        this.runLength = runLength;
+        this.runs = new ArrayList<>();
+        this.buffer = new String[Math.min(runLength, INITIAL_CAPACITY)];
+        this.size = 0;
+    }
+
+    /**
+     * Adds an id, spilling the current run to a file if it is full.
+     *
+     * @param id
+     *            id to add
+     * @throws UncheckedIOException
+     *             if a full run cannot be spilled
+     * @updates this
+     * @requires id is not null
+     */
+    void add(String id) {
+        assert id != null : "Violation of: id is not null";
+
+        if (this.size == this.buffer.length) {
+            if (this.size == this.runLength) {
+                try {
+                    this.spill();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                this.buffer = Arrays.copyOf(this.buffer,
+                        Math.min(this.runLength, 2 * this.size));
+            }
+        }
+        this.buffer[this.size] = id;
+        this.size++;
+    }
+
+    /**
+     * Sorts the current run and writes it to a new temporary file.
+     *
+     * @throws IOException
+     *             if the file cannot be written
+     * @updates this
+     * @ensures size = 0
+     */
+    private void spill() throws IOException {
+        Arrays.sort(this.buffer, 0, this.size);
+        Path file = Files.createTempFile("wallet-ledger-ids", ".run");
+        this.runs.add(file);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(this.size);
+            for (int i = 0; i < this.size; i++) {
+                byte[] bytes = this.buffer[i].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                this.buffer[i] = null;
+            }
+        }
+        this.size = 0;
+    }
+
+    /**
+     * Passes every id of this to sink in increasing order.
+     *
+     * @param sink
+     *            receiver of the ids
+     * @throws IOException
+     *             if a run cannot be read, or sink throws it
+     * @updates this
+     * @requires sink is not null
+     * @ensures sink has received each id of #this once, in increasing order,
+     *          and this is empty
+     */
+    void forEachSorted(IdSink sink) throws IOException {
+        assert sink != null : "Violation of: sink is not null";
+
+        if (this.runs.isEmpty()) {
+            Arrays.sort(this.buffer, 0, this.size);
+            for (int i = 0; i < this.size; i++) {
+                sink.accept(this.buffer[i]);
+            }
+            this.size = 0;
+            return;
+        }
+
+        if (this.size > 0) {
+            this.spill();
+        }
+        PriorityQueue<Run> heads = new PriorityQueue<>(this.runs.size(),
+                Run.BY_HEAD);
+        try {
+            for (Path file : this.runs) {
+                Run run = new Run(file);
+                if (run.head == null) {
+                    run.close();
+                } else {
+                    heads.add(run);
+                }
+            }
+            while (!heads.isEmpty()) {
+                Run run = heads.poll();
+                sink.accept(run.head);
+                run.advance();
+                if (run.head == null) {
+                    run.close();
+                } else {
+                    heads.add(run);
+                }
+            }
+        } finally {
+            for (Run run : heads) {
+                run.close();
+            }
+            this.close();
+        }
+    }
+
+    /**
+     * Deletes the files of the spilled runs.
+     *
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path file : this.runs) {
+            Files.deleteIfExists(file);
+        }
+        this.runs.clear();
+    }
+}
@@ -0,0 +1,364 @@
+package components.walletledger;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Enhanced interface for WalletLedger.
+ *
+ * Adds secondary operations that can be implemented
+ * using only kernel and Standard methods.
+ */
+public interface WalletLedger
+        extends WalletLedgerKernel {
+
+    /**
+     * Outcome of a {@link #tryWithdraw(int, String)} call.
+     */
+    enum WithdrawResult {
+        DEBITED,
+        INSUFFICIENT_FUNDS
+    }
+
+    /**
+     * Returns current balance for the given currency.
+     *
+     * @param currency 3-letter uppercase currency code
+     * @return balance in cents
+     *
+     * @requires isValidCurrency(currency)
+     * @requires the balance fits in an int
+     * @ensures result equals total credits minus total debits
+     * @ensures this is unchanged
+     */
+    int balanceCents(String currency);
+
+    /**
+     * Returns current balance for the given currency as a long, which holds
+     * the balance of any ledger without overflow.
+     *
+     * @param currency 3-letter uppercase currency code
+     * @return balance in cents
+     *
+     * @requires isValidCurrency(currency)
+     * @ensures result equals total credits minus total debits
+     * @ensures this is unchanged
+     */
+    long balanceCentsLong(String currency);
+
+    /**
+     * Reports whether a debit can be covered.
+     *
+     * @param debitCents positive amount
+     * @param currency currency code
+     * @return true if balanceCents >= debitCents
+     *
+     * @requires debitCents > 0
+     * @requires isValidCurrency(currency)
+     * @ensures result equals (balanceCents >= debitCents)
+     * @ensures this is unchanged
+     */
+    boolean hasSufficientFunds(int debitCents,
+                               String currency);
+
+    /**
+     * Adds a credit entry.
+     *
+     * @param amountCents positive amount
+     * @param currency currency code
+     *
+     * @updates this
+     * @requires amountCents > 0
+     * @requires isValidCurrency(currency)
+     * @ensures this contains one additional CREDIT entry
+     */
+    void deposit(int amountCents, String currency);
+
+    /**
+     * Adds a debit entry.
+     *
+     * @param amountCents positive amount
+     * @param currency currency code
+     * @throws IllegalStateException if the funds do not cover the debit when
+     *             it is made; this is then unchanged apart from its sequence
+     *
+     * @updates this
+     * @requires amountCents > 0
+     * @requires isValidCurrency(currency)
+     * @requires hasSufficientFunds(amountCents, currency)
+     * @ensures this contains one additional DEBIT entry
+     */
+    void withdraw(int amountCents, String currency);
+
+    /**
+     * Adds a debit entry only if the current balance covers it.
+     *
+     * @param amountCents positive amount
+     * @param currency currency code
+     * @return DEBITED if a DEBIT entry was added, otherwise
+     *         INSUFFICIENT_FUNDS
+     *
+     * @updates this
+     * @requires amountCents > 0
+     * @requires isValidCurrency(currency)
+     * @ensures if #this.balanceCents(currency) >= amountCents then
+     *          this contains one additional DEBIT entry and
+     *          result = DEBITED
+     * @ensures if #this.balanceCents(currency) < amountCents then
+     *          this = #this and result = INSUFFICIENT_FUNDS
+     */
+    WithdrawResult tryWithdraw(int amountCents, String currency);
+
+    /**
+     * Moves funds from this to destination as a linked pair of entries: a
+     * DEBIT in this and a CREDIT in destination that share one transfer id.
+     *
+     * Both ledgers are locked, always in the same global order, while the
+     * funds are checked and the pair is added, so transfers between the same
+     * ledgers in opposite directions cannot deadlock. The transfer is atomic
+     * with respect to other transfers and to callers that synchronize on
+     * either ledger. Between two wallets of one WalletLedgerStore the locks
+     * are those of their shards, taken in shard order, since the store hands
+     * out a new view object for every call. If adding the CREDIT to
+     * destination throws, the DEBIT is removed from this again and the
+     * exception propagates, leaving both ledgers unchanged apart from their
+     * sequences.
+     *
+     * @param destination ledger receiving the funds
+     * @param amountCents positive amount
+     * @param currency currency code
+     * @return DEBITED if the entries were added, otherwise
+     *         INSUFFICIENT_FUNDS
+     *
+     * @updates this, destination
+     * @requires destination is not null and destination is not this
+     * @requires destination is not another view of the store wallet of this
+     * @requires amountCents > 0
+     * @requires isValidCurrency(currency)
+     * @ensures if #this.balanceCents(currency) >= amountCents then, for an id
+     *          in neither #this nor #destination, this contains one
+     *          additional DEBIT entry with that id, destination contains one
+     *          additional CREDIT entry with that id, and result = DEBITED
+     * @ensures if #this.balanceCents(currency) < amountCents then
+     *          this = #this and destination = #destination and
+     *          result = INSUFFICIENT_FUNDS
+     */
+    WithdrawResult transferTo(WalletLedger destination, int amountCents,
+            String currency);
+
+    /**
+     * Returns total credits for the given currency.
+     *
+     * @param currency currency code
+     * @return total credits in cents
+     *
+     * @requires isValidCurrency(currency)
+     * @requires the total fits in an int
+     * @ensures result equals sum of CREDIT entries
+     * @ensures this is unchanged
+     */
+    int totalCreditsCents(String currency);
+
+    /**
+     * Returns total credits for the given currency as a long, which holds
+     * the total of any ledger without overflow.
+     *
+     * @param currency currency code
+     * @return total credits in cents
+     *
+     * @requires isValidCurrency(currency)
+     * @ensures result equals sum of CREDIT entries
+     * @ensures this is unchanged
+     */
+    long totalCreditsCentsLong(String currency);
+
+    /**
+     * Returns total debits for the given currency.
+     *
+     * @param currency currency code
+     * @return total debits in cents
+     *
+     * @requires isValidCurrency(currency)
+     * @requires the total fits in an int
+     * @ensures result equals sum of DEBIT entries
+     * @ensures this is unchanged
+     */
+    int totalDebitsCents(String currency);
+
+    /**
+     * Returns total debits for the given currency as a long, which holds
+     * the total of any ledger without overflow.
+     *
+     * @param currency currency code
+     * @return total debits in cents
+     *
+     * @requires isValidCurrency(currency)
+     * @ensures result equals sum of DEBIT entries
+     * @ensures this is unchanged
+     */
+    long totalDebitsCentsLong(String currency);
+
+    /**
+     * Returns the entry count and the CREDIT and DEBIT sums of every
+     * currency, in one pass over the entries.
+     *
+     * The sums are computed from the entries themselves, not from any
+     * running totals the implementation keeps, so they can be used to check
+     * totalCreditsCentsLong and totalDebitsCentsLong. Implementations whose
+     * representation can be split scan large ledgers in parallel on the
+     * common ForkJoinPool; the calling thread must not change this until the
+     * call returns.
+     *
+     * @return totals of every currency with entries in this
+     *
+     * @ensures for every currency c, result.creditsCents(pack(c)) = sum of
+     *          CREDIT entries in c and result.debitsCents(pack(c)) = sum of
+     *          DEBIT entries in c
+     * @ensures this is unchanged
+     */
+    LedgerTotals parallelTotals();
+
+    /**
+     * Returns the entry count, credits, debits and balance of every currency
+     * at once, for showing a whole balance sheet.
+     *
+     * Implementations that keep running per-currency totals answer from them
+     * without visiting any entry; the others make the single pass of
+     * parallelTotals.
+     *
+     * @return totals of every currency with entries in this
+     *
+     * @ensures result = parallelTotals()
+     * @ensures this is unchanged
+     */
+    LedgerTotals balances();
+
+    /**
+     * Returns the balance for the given currency counting only the entries
+     * created at or before the given time.
+     *
+     * @param currency currency code
+     * @param instantMillis time in milliseconds since the epoch
+     * @return CREDIT minus DEBIT amounts of the entries in currency with
+     *         createdAtMillis <= instantMillis
+     *
+     * @requires isValidCurrency(currency)
+     * @ensures this is unchanged
+     */
+    long balanceCentsAsOf(String currency, long instantMillis);
+
+    /**
+     * Returns the net change of the balance for the given currency over a
+     * period, counting the entries created after fromMillis and at or before
+     * toMillis.
+     *
+     * @param currency currency code
+     * @param fromMillis start of the period, exclusive
+     * @param toMillis end of the period, inclusive
+     * @return balanceCentsAsOf(currency, toMillis) -
+     *         balanceCentsAsOf(currency, fromMillis)
+     *
+     * @requires isValidCurrency(currency)
+     * @requires fromMillis <= toMillis
+     * @ensures this is unchanged
+     */
+    long netFlowCents(String currency, long fromMillis, long toMillis);
+
+    /**
+     * Adds a batch of new ledger entries, one per row of the given arrays.
+     *
+     * @param ids unique entry ids
+     * @param amountsCents positive amounts in cents
+     * @param currencies 3-letter uppercase currency codes
+     * @param types credit or debit per row
+     *
+     * @updates this
+     * @requires the arrays are not null and have the same length
+     * @requires each row satisfies the preconditions of addEntry
+     * @requires the ids in the batch are distinct
+     * @ensures this contains #this plus one new entry per row, created at
+     *          the current time
+     */
+    void addEntries(String[] ids, int[] amountsCents, String[] currencies,
+            EntryType[] types);
+
+    /**
+     * Adds a batch of new ledger entries with the given creation times, one
+     * per row of the given arrays, for reloading entries from storage.
+     *
+     * @param ids unique entry ids
+     * @param amountsCents positive amounts in cents
+     * @param currencies 3-letter uppercase currency codes
+     * @param types credit or debit per row
+     * @param createdAtMillis creation time per row, in milliseconds since
+     *            the epoch
+     *
+     * @updates this
+     * @requires the arrays are not null and have the same length
+     * @requires each row satisfies the preconditions of addEntryAt
+     * @requires the ids in the batch are distinct
+     * @ensures this contains #this plus one new entry per row
+     */
+    void addEntriesAt(String[] ids, int[] amountsCents, String[] currencies,
+            EntryType[] types, long[] createdAtMillis);
+
+    /**
+     * Finds an entry by id.
+     *
+     * @param id entry id
+     * @return matching entry or null if none
+     *
+     * @requires id is not empty
+     * @ensures hasEntry(id) implies result.id() = id
+     * @ensures not hasEntry(id) implies result is null
+     * @ensures this is unchanged
+     */
+    LedgerEntry findById(String id);
+
+    /**
+     * Returns an order-independent hash of the entries of this: the sum,
+     * modulo 2^64, of WalletLedgerSecondary.entryHash over the entries.
+     * Ledgers with equal entries have equal content hashes, whatever their
+     * implementation, so a differing content hash proves inequality.
+     *
+     * @return content hash of this
+     *
+     * @ensures this is unchanged
+     */
+    long contentHash();
+
+    /**
+     * Applies the given action to every entry, without changing this.
+     *
+     * Implementations may pass a reused view rather than a separate object
+     * per entry, so an entry is only guaranteed to be valid while action
+     * runs. Use findById to obtain an entry that can be kept.
+     *
+     * @param action action to apply to each entry
+     *
+     * @requires action is not null
+     * @requires action does not access or modify this
+     * @ensures action has been applied exactly once to each entry in this
+     * @ensures this is unchanged
+     */
+    void forEachEntry(Consumer<LedgerEntry> action);
+
+    /**
+     * Writes every entry of this to out, one line per entry in increasing id
+     * order (by String.compareTo), as id|type|currency|amountCents followed
+     * by a newline. Only the ids are held in memory while the lines are
+     * written, so out can be a Writer over a file or channel; the ids of a
+     * very large ledger are sorted in bounded runs spilled to temporary
+     * files and merged. An entry removed by another thread before its line
+     * is written is left out.
+     *
+     * @param out destination of the lines
+     * @throws IOException if out throws it, or the runs of ids cannot be
+     *             spilled; the lines already written stay written
+     *
+     * @requires out is not null
+     * @ensures out has received the lines of every entry in this
+     * @ensures this is unchanged
+     */
+    void exportTo(Appendable out) throws IOException;
+}
@@ -0,0 +1,643 @@
+package components.walletledger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Kernel implementation of WalletLedger.
+ *
+ * Representation:
+ * This component is represented by a HashMap mapping entry ids to immutable
+ * LedgerEntry objects and a dense array slots holding the same entries in
+ * positions 0 .. |entries| - 1, each entry knowing its own slot. removeAnyEntry
+ * pops the last slot and removeEntry moves the last entry into the freed
+ * slot, so both are O(1) with a single map removal. These are kept together
+ * with a CurrencyTotalsTable of
+ * running per-currency totals so that credit and debit totals are O(1), and
+ * the running content hash of the entries so that contentHash and hashCode
+ * are O(1). The first balanceCentsAsOf builds a CurrencyTimeline of
+ * per-currency prefix sums over entry times, which every later add and
+ * removal updates in O(log n), in or out of time order; a ledger that is
+ * never asked for a past balance never builds one. Entries store their
+ * currency in packed form (see CurrencyCodes).
+ * An optional WalletLedgerJournal receives every mutation before it is
+ * applied, so a ledger constructed from the same journal later is rebuilt
+ * by replaying it, and a journal write that throws leaves this unchanged. The
+ * journal belongs to this object and is not moved by transferFrom. Drawing
+ * a sequence value is not journaled by itself: each added entry records the
+ * sequence with it, so replay restores the sequence as of the last add,
+ * setEntrySequence or clear. Values drawn after that minted no entry, so
+ * drawing them again after replay is harmless.
+ *
+ * Convention:
+ * - entries and slots are not null
+ * - slots[0 .. |entries| - 1] holds each value of entries exactly once,
+ *   slots[i].slot = i for each of them, and every later slot is null
+ * - every key is non null and not blank
+ * - every mapped entry is non null
+ * - each key equals the id stored in its mapped entry
+ * - every amount is positive
+ * - every currency is a valid 3 letter uppercase code
+ * - every type is CREDIT or DEBIT
+ * - totals is not null
+ * - for each packed currency c, totals holds the number of entries in c
+ *   and the sums of the CREDIT and DEBIT amounts in c
+ * - contentHash is the sum of entryHash over the entries
+ * - timeline is null, or holds the creation times and signed amounts of
+ *   exactly the entries in entries
+ * - nextSequence >= 1
+ *
+ * Correspondence:
+ * This represents a wallet ledger where each map entry corresponds
+ * to one transaction. Keys are unique ids and values are the
+ * transaction data; slots only orders them. nextSequence is the sequence of
+ * this.
+ */
+
+public final class WalletLedger1L extends WalletLedgerSecondary {
+
+    /**
+     * Load factor of the entry map, the HashMap default.
+     */
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    /**
+     * Initial length of slots.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Immutable ledger entry implementation. Only its position in slots,
+     * which is not part of its value, changes.
+     */
+    private static final class LedgerEntryRecord implements LedgerEntry {
+
+        /**
+         * Entry id.
+         */
+        private final String id;
+
+        /**
+         * Positive amount in cents.
+         */
+        private final int amountCents;
+
+        /**
+         * Packed 3-letter uppercase currency code.
+         */
+        private final short currencyCode;
+
+        /**
+         * Entry type.
+         */
+        private final EntryType type;
+
+        /**
+         * Creation time in milliseconds since the epoch.
+         */
+        private final long createdAtMillis;
+
+        /**
+         * Position of this entry in slots.
+         */
+        private int slot;
+
+        /**
+         * Constructs a ledger entry.
+         *
+         * @param id
+         *            the entry id
+         * @param amountCents
+         *            the amount in cents
+         * @param currencyCode
+         *            the packed currency code
+         * @param type
+         *            the entry type
+         * @param createdAtMillis
+         *            the creation time
+         * @requires id is not empty and amountCents > 0 and
+         *           currencyCode is a packed currency and type is not null
+         * @ensures this.id() = id and this.amountCents() = amountCents and
+         *          this.currencyCode() = currencyCode and this.type() = type
+         *          and this.createdAtMillis() = createdAtMillis
+         */
+        private LedgerEntryRecord(String id, int amountCents, int currencyCode,
+                EntryType type, long createdAtMillis) {
+            assert id != null && !id.isBlank() : "Violation of: id is not empty";
+            assert amountCents > 0 : "Violation of: amountCents > 0";
+            assert currencyCode >= 0
+                    && currencyCode < CurrencyCodes.PACKED_LIMIT
+                    : "Violation of: currencyCode is a packed currency";
+            assert type != null : "Violation of: type is not null";
+
+            this.id = id;
+            this.amountCents = amountCents;
+            this.currencyCode = (short) currencyCode;
+            this.type = type;
+            this.createdAtMillis = createdAtMillis;
+        }
+
+        @Override
+        public String id() {
+            return this.id;
+        }
+
+        @Override
+        public int amountCents() {
+            return this.amountCents;
+        }
+
+        @Override
+        public String currency() {
+            return CurrencyCodes.unpack(this.currencyCode);
+        }
+
+        @Override
+        public int currencyCode() {
+            return this.currencyCode;
+        }
+
+        @Override
+        public EntryType type() {
+            return this.type;
+        }
+
+        @Override
+        public long createdAtMillis() {
+            return this.createdAtMillis;
+        }
+    }
+
+    /**
+     * Entries by id.
+     */
+    private Map<String, LedgerEntryRecord> entries;
+
+    /**
+     * The entries, densely in positions 0 .. |entries| - 1.
+     */
+    private LedgerEntryRecord[] slots;
+
+    /**
+     * Per-currency totals maintained alongside entries.
+     */
+    private CurrencyTotalsTable totals;
+
+    /**
+     * Sum of entryHash over the entries.
+     */
+    private long contentHash;
+
+    /**
+     * Prefix sums per currency over entry times, or null until the first
+     * balanceCentsAsOf.
+     */
+    private CurrencyTimeline timeline;
+
+    /**
+     * Next value of the id sequence.
+     */
+    private long nextSequence;
+
+    /**
+     * Journal receiving every mutation, or null if this is not journaled.
+     */
+    private final WalletLedgerJournal journal;
+
+    /**
+     * Creates a new empty representation.
+     */
+    private void createNewRep() {
+        this.entries = new HashMap<>();
+        this.slots = new LedgerEntryRecord[INITIAL_CAPACITY];
+        this.totals = new CurrencyTotalsTable();
+        this.contentHash = 0;
+        this.timeline = null;
+        this.nextSequence = 1;
+    }
+
+    /**
+     * Folds one entry into the per-currency totals, the content hash and the
+     * timeline.
+     *
+     * @param entry
+     *            entry being added
+     * @updates this.totals, this.contentHash, this.timeline
+     */
+    private void recordAdded(LedgerEntry entry) {
+        this.totals.add(entry.currencyCode(), entry.type(),
+                entry.amountCents());
+        this.contentHash += entryHash(entry);
+        if (this.timeline != null) {
+            this.timeline.add(entry.currencyCode(), entry.type(),
+                    entry.amountCents(), entry.createdAtMillis());
+        }
+    }
+
+    /**
+     * Takes one entry back out of the per-currency totals, the content hash
+     * and the timeline.
+     *
+     * @param entry
+     *            entry being removed
+     * @updates this.totals, this.contentHash, this.timeline
+     * @requires entry was previously recorded by recordAdded
+     */
+    private void recordRemoved(LedgerEntry entry) {
+        this.totals.remove(entry.currencyCode(), entry.type(),
+                entry.amountCents());
+        this.contentHash -= entryHash(entry);
+        if (this.timeline != null) {
+            this.timeline.remove(entry.currencyCode(), entry.type(),
+                    entry.amountCents(), entry.createdAtMillis());
+        }
+    }
+
+    /**
+     * Checks whether id satisfies the kernel contract.
+     *
+     * @param id
+     *            candidate id
+     */
+    private static void assertValidId(String id) {
+        assert id != null && !id.isBlank() : "Violation of: id is not empty";
+    }
+
+    /**
+     * Checks whether amount satisfies the kernel contract.
+     *
+     * @param amountCents
+     *            amount in cents
+     */
+    private static void assertPositiveAmount(int amountCents) {
+        assert amountCents > 0 : "Violation of: amountCents > 0";
+    }
+
+    /**
+     * No-argument constructor.
+     *
+     * @ensures this is empty
+     */
+    public WalletLedger1L() {
+        this.journal = null;
+        this.createNewRep();
+    }
+
+    /**
+     * Constructor that rebuilds this from a journal and then records every
+     * later mutation in it. Adding an entry whose id is longer than
+     * WalletLedgerJournal.MAX_ID_BYTES in UTF-8 then throws
+     * IllegalArgumentException and leaves this unchanged.
+     *
+     * @param journal
+     *            journal to replay and append to
+     * @requires journal is open, has not been replayed, and is not used by
+     *           any other ledger
+     * @ensures this holds the entries and sequence recorded in journal
+     */
+    public WalletLedger1L(WalletLedgerJournal journal) {
+        assert journal != null : "Violation of: journal is not null";
+
+        this.createNewRep();
+        try {
+            journal.replay(new WalletLedgerJournal.Handler() {
+                @Override
+                public void added(String id, int amountCents,
+                        int currencyCode, EntryType type,
+                        long createdAtMillis, long nextSequence) {
+                    WalletLedger1L.this.putEntry(new LedgerEntryRecord(id,
+                            amountCents, currencyCode, type,
+                            createdAtMillis));
+                    WalletLedger1L.this.nextSequence = nextSequence;
+                }
+
+                @Override
+                public void removed(String id) {
+                    WalletLedger1L.this.recordRemoved(
+                            WalletLedger1L.this.takeEntry(id));
+                }
+
+                @Override
+                public void cleared() {
+                    WalletLedger1L.this.createNewRep();
+                }
+
+                @Override
+                public void sequenceSet(long nextSequence) {
+                    WalletLedger1L.this.nextSequence = nextSequence;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.journal = journal;
+    }
+
+    /**
+     * Stores an entry and records it in the totals, without journaling.
+     *
+     * @param entry
+     *            new entry
+     * @updates this.entries, this.slots, this.totals
+     * @requires entry.id() is not in this.entries
+     */
+    private void putEntry(LedgerEntryRecord entry) {
+        int count = this.entries.size();
+        if (count == this.slots.length) {
+            this.slots = Arrays.copyOf(this.slots, 2 * count);
+        }
+        entry.slot = count;
+        this.slots[count] = entry;
+        this.entries.put(entry.id(), entry);
+        this.recordAdded(entry);
+    }
+
+    /**
+     * Removes the entry with the given id from entries and slots, moving the
+     * last entry into its slot, without recording or journaling it.
+     *
+     * @param id
+     *            id of an entry of this
+     * @return the removed entry
+     * @updates this.entries, this.slots
+     */
+    private LedgerEntryRecord takeEntry(String id) {
+        LedgerEntryRecord entry = this.entries.remove(id);
+        int last = this.entries.size();
+        LedgerEntryRecord moved = this.slots[last];
+        this.slots[entry.slot] = moved;
+        moved.slot = entry.slot;
+        this.slots[last] = null;
+        return entry;
+    }
+
+    /**
+     * Journals an entry about to be added, if this is journaled.
+     *
+     * @param entry
+     *            entry being added
+     */
+    private void journalAdded(LedgerEntry entry) {
+        if (this.journal != null) {
+            this.journal.logAdd(entry.id(), entry.amountCents(),
+                    entry.currencyCode(), entry.type(),
+                    entry.createdAtMillis(), this.nextSequence);
+        }
+    }
+
+    /**
+     * Journals an entry about to be removed, if this is journaled.
+     *
+     * @param entry
+     *            entry being removed
+     */
+    private void journalRemoved(LedgerEntry entry) {
+        if (this.journal != null) {
+            this.journal.logRemove(entry.id());
+        }
+    }
+
+    /**
+     * Journals the value this is about to take from source as a clear
+     * followed by every entry and the sequence of source, if this is
+     * journaled.
+     *
+     * @param source
+     *            ledger whose entries and sequence this is about to take
+     */
+    private void journalReplacedBy(WalletLedger1L source) {
+        if (this.journal != null) {
+            this.journal.logClear();
+            for (int i = 0; i < source.entries.size(); i++) {
+                LedgerEntry entry = source.slots[i];
+                this.journal.logAdd(entry.id(), entry.amountCents(),
+                        entry.currencyCode(), entry.type(),
+                        entry.createdAtMillis(), source.nextSequence);
+            }
+            this.journal.logSequence(source.nextSequence);
+        }
+    }
+
+    @Override
+    public void clear() {
+        if (this.journal != null) {
+            this.journal.logClear();
+        }
+        this.createNewRep();
+    }
+
+    @Override
+    public WalletLedgerKernel newInstance() {
+        return new WalletLedger1L();
+    }
+
+    @Override
+    public void transferFrom(WalletLedgerKernel source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof WalletLedger1L
+                : "Violation of: source has dynamic type WalletLedger1L";
+
+        WalletLedger1L localSource = (WalletLedger1L) source;
+        this.journalReplacedBy(localSource);
+        this.entries = localSource.entries;
+        this.slots = localSource.slots;
+        this.totals = localSource.totals;
+        this.contentHash = localSource.contentHash;
+        this.timeline = localSource.timeline;
+        this.nextSequence = localSource.nextSequence;
+        localSource.clear();
+    }
+
+    @Override
+    public boolean hasEntry(String id) {
+        assertValidId(id);
+        return this.entries.containsKey(id);
+    }
+
+    @Override
+    public LedgerEntry entryOrNull(String id) {
+        assertValidId(id);
+        return this.entries.get(id);
+    }
+
+    @Override
+    public boolean isValidCurrency(String currency) {
+        return CurrencyCodes.isValid(currency);
+    }
+
+    @Override
+    public void addEntry(String id, int amountCents, String currency,
+            EntryType type) {
+        this.addEntryAt(id, amountCents, currency, type,
+                System.currentTimeMillis());
+    }
+
+    @Override
+    public void addEntryAt(String id, int amountCents, String currency,
+            EntryType type, long createdAtMillis) {
+        assertValidId(id);
+        assertPositiveAmount(amountCents);
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+        assert type != null : "Violation of: type is not null";
+        assert !this.hasEntry(id) : "Violation of: not hasEntry(id)";
+
+        LedgerEntryRecord entry = new LedgerEntryRecord(id, amountCents,
+                CurrencyCodes.pack(currency), type, createdAtMillis);
+        this.journalAdded(entry);
+        this.putEntry(entry);
+    }
+
+    @Override
+    public LedgerEntry removeEntry(String id) {
+        assertValidId(id);
+        assert this.hasEntry(id) : "Violation of: hasEntry(id)";
+
+        LedgerEntry entry = this.entries.get(id);
+        this.journalRemoved(entry);
+        this.takeEntry(id);
+        this.recordRemoved(entry);
+        return entry;
+    }
+
+    @Override
+    public LedgerEntry removeAnyEntry() {
+        assert this.entryCount() > 0 : "Violation of: this is not empty";
+
+        int last = this.entries.size() - 1;
+        LedgerEntryRecord entry = this.slots[last];
+        this.journalRemoved(entry);
+        this.entries.remove(entry.id());
+        this.slots[last] = null;
+        this.recordRemoved(entry);
+        return entry;
+    }
+
+    @Override
+    public int entryCount() {
+        return this.entries.size();
+    }
+
+    @Override
+    public long entrySequence() {
+        return this.nextSequence;
+    }
+
+    @Override
+    public long nextEntrySequence() {
+        long result = this.nextSequence;
+        this.nextSequence++;
+        return result;
+    }
+
+    @Override
+    public void setEntrySequence(long sequence) {
+        assert sequence >= 1 : "Violation of: sequence >= 1";
+
+        this.nextSequence = sequence;
+        if (this.journal != null) {
+            this.journal.logSequence(this.nextSequence);
+        }
+    }
+
+    /*
+     * Secondary methods overridden for efficiency ----------------------------
+     */
+
+    @Override
+    public void addEntriesAt(String[] ids, int[] amountsCents,
+            String[] currencies, EntryType[] types, long[] createdAtMillis) {
+        assert isValidBatch(this, ids, amountsCents, currencies, types,
+                createdAtMillis)
+                : "Violation of: batch satisfies addEntriesAt preconditions";
+
+        /*
+         * A batch larger than the current ledger would trigger several
+         * rehashes as the map doubles, so move to a map and slots sized for
+         * the final count up front; smaller batches cause at most one resize
+         * anyway.
+         */
+        if (ids.length > this.entries.size()) {
+            int expected = this.entries.size() + ids.length;
+            Map<String, LedgerEntryRecord> resized = new HashMap<>(
+                    (int) (expected / DEFAULT_LOAD_FACTOR) + 1);
+            resized.putAll(this.entries);
+            this.entries = resized;
+            if (expected > this.slots.length) {
+                this.slots = Arrays.copyOf(this.slots, expected);
+            }
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            LedgerEntryRecord entry = new LedgerEntryRecord(ids[i],
+                    amountsCents[i], CurrencyCodes.pack(currencies[i]),
+                    types[i], createdAtMillis[i]);
+            this.journalAdded(entry);
+            this.putEntry(entry);
+        }
+    }
+
+    @Override
+    public void forEachEntry(Consumer<LedgerEntry> action) {
+        assert action != null : "Violation of: action is not null";
+
+        for (int i = 0; i < this.entries.size(); i++) {
+            action.accept(this.slots[i]);
+        }
+    }
+
+    @Override
+    public long totalCreditsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        return this.totals.creditsOf(CurrencyCodes.pack(currency));
+    }
+
+    @Override
+    public long totalDebitsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        return this.totals.debitsOf(CurrencyCodes.pack(currency));
+    }
+
+    @Override
+    public LedgerTotals parallelTotals() {
+        LedgerEntryRecord[] slotArray = this.slots;
+        return totalsOfSlots(this.entries.size(), (table, slot) -> {
+            LedgerEntryRecord entry = slotArray[slot];
+            table.add(entry.currencyCode, entry.type, entry.amountCents);
+        });
+    }
+
+    @Override
+    public LedgerTotals balances() {
+        return new LedgerTotals(this.totals);
+    }
+
+    @Override
+    public long contentHash() {
+        return this.contentHash;
+    }
+
+    @Override
+    public long balanceCentsAsOf(String currency, long instantMillis) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        if (this.timeline == null) {
+            this.timeline = CurrencyTimeline.of(this);
+        }
+        return this.timeline.balanceAsOf(CurrencyCodes.pack(currency),
+                instantMillis);
+    }
+}
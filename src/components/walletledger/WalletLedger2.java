@@ -0,0 +1,831 @@
+package components.walletledger;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Kernel implementation of WalletLedger using parallel primitive arrays.
+ *
+ * Representation:
+ * Entries are stored densely in slots 0 .. size - 1 of parallel column
+ * arrays. An id of the form "E" followed by a positive decimal number with no
+ * leading zero (the form minted by deposit and withdraw) is stored only as a
+ * long in numericIds, with textIds null at that slot; any other id is kept as
+ * a String in textIds, with -1 in numericIds. Currency codes are stored as
+ * packed by CurrencyCodes in a short, the entry type is one bit of
+ * debitBits, and the creation time is a long in createdAt. index is an
+ * open-addressing hash table with linear probing that maps each id to its
+ * slot + 1, with 0 marking an empty bucket. totals holds running
+ * per-currency counts and sums, so balances and totals are O(1), and
+ * contentHash is kept up to date as entries come and go. timeline is built
+ * by the first balanceCentsAsOf and then kept up to date as well, so past
+ * balances are O(log n) without costing anything until they are asked for.
+ *
+ * Convention:
+ * - 0 <= size <= numericIds.length = textIds.length = amounts.length =
+ *   currencies.length = createdAt.length <= 64 * debitBits.length
+ * - for every slot s < size, textIds[s] is null iff the id of s is in
+ *   numeric form; numericIds[s] is then its number, and -1 otherwise
+ * - for every slot s < size, amounts[s] > 0 and currencies[s] packs a valid
+ *   3 letter uppercase code
+ * - for every slot s >= size, textIds[s] is null and bit s of debitBits is 0
+ * - the ids of slots 0 .. size - 1 are distinct
+ * - index.length is a power of two and index.length >= 2 * size
+ * - every slot s < size appears as s + 1 in exactly one bucket of index,
+ *   reachable from the home bucket of its id without crossing an empty
+ *   bucket, and every other bucket is 0
+ * - totals holds, for each currency, the count of the entries of slots
+ *   0 .. size - 1 in it and the sums of their CREDIT and DEBIT amounts
+ * - contentHash is the sum of entryHash over the entries
+ * - timeline is null, or holds the creation times and signed amounts of
+ *   the entries of slots 0 .. size - 1
+ * - nextSequence >= 1
+ *
+ * Correspondence:
+ * this.entries = { (idAt(s), amounts[s], unpack(currencies[s]),
+ * DEBIT if bit s of debitBits is set, otherwise CREDIT, createdAt[s]) :
+ * 0 <= s < size }
+ * and this.sequence = nextSequence.
+ */
+public final class WalletLedger2 extends WalletLedgerSecondary {
+
+    /**
+     * Initial number of slots in each column.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Longest id that can be in numeric form: "E" and at most 18 digits, so
+     * the number always fits in a long.
+     */
+    private static final int MAX_NUMERIC_ID_LENGTH = 19;
+
+    /**
+     * Multiplier used to spread hash bits (the 64-bit golden ratio).
+     */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Immutable snapshot of one entry, returned by the lookup and removal
+     * methods.
+     */
+    private static final class EntrySnapshot implements LedgerEntry {
+
+        /**
+         * Entry id.
+         */
+        private final String id;
+
+        /**
+         * Positive amount in cents.
+         */
+        private final int amountCents;
+
+        /**
+         * Packed 3-letter uppercase currency code.
+         */
+        private final int currencyCode;
+
+        /**
+         * Entry type.
+         */
+        private final EntryType type;
+
+        /**
+         * Creation time in milliseconds since the epoch.
+         */
+        private final long createdAtMillis;
+
+        /**
+         * Constructs a snapshot.
+         *
+         * @param id
+         *            the entry id
+         * @param amountCents
+         *            the amount in cents
+         * @param currencyCode
+         *            the packed currency code
+         * @param type
+         *            the entry type
+         * @param createdAtMillis
+         *            the creation time
+         * @ensures this.id() = id and this.amountCents() = amountCents and
+         *          this.currencyCode() = currencyCode and this.type() = type
+         *          and this.createdAtMillis() = createdAtMillis
+         */
+        private EntrySnapshot(String id, int amountCents, int currencyCode,
+                EntryType type, long createdAtMillis) {
+            this.id = id;
+            this.amountCents = amountCents;
+            this.currencyCode = currencyCode;
+            this.type = type;
+            this.createdAtMillis = createdAtMillis;
+        }
+
+        @Override
+        public String id() {
+            return this.id;
+        }
+
+        @Override
+        public int amountCents() {
+            return this.amountCents;
+        }
+
+        @Override
+        public String currency() {
+            return CurrencyCodes.unpack(this.currencyCode);
+        }
+
+        @Override
+        public int currencyCode() {
+            return this.currencyCode;
+        }
+
+        @Override
+        public EntryType type() {
+            return this.type;
+        }
+
+        @Override
+        public long createdAtMillis() {
+            return this.createdAtMillis;
+        }
+    }
+
+    /**
+     * Reusable view of the entry at one slot, used by forEachEntry so a
+     * traversal allocates a single object. A numeric id is only turned into
+     * a String when asked for, and then once per slot viewed.
+     */
+    private final class SlotCursor implements LedgerEntry {
+
+        /**
+         * Slot currently viewed.
+         */
+        private int slot;
+
+        /**
+         * Id of slot once asked for, otherwise null.
+         */
+        private String id;
+
+        /**
+         * Moves this to view another slot.
+         *
+         * @param viewed
+         *            occupied slot
+         * @updates this
+         * @ensures this views slot viewed
+         */
+        void moveTo(int viewed) {
+            this.slot = viewed;
+            this.id = WalletLedger2.this.textIds[viewed];
+        }
+
+        @Override
+        public String id() {
+            if (this.id == null) {
+                this.id = WalletLedger2.this.idAt(this.slot);
+            }
+            return this.id;
+        }
+
+        @Override
+        public int amountCents() {
+            return WalletLedger2.this.amounts[this.slot];
+        }
+
+        @Override
+        public String currency() {
+            return CurrencyCodes.unpack(this.currencyCode());
+        }
+
+        @Override
+        public int currencyCode() {
+            return WalletLedger2.this.currencies[this.slot];
+        }
+
+        @Override
+        public EntryType type() {
+            return WalletLedger2.this.typeAt(this.slot);
+        }
+
+        @Override
+        public long createdAtMillis() {
+            return WalletLedger2.this.createdAt[this.slot];
+        }
+    }
+
+    /**
+     * Ids that are not in numeric form, null where the id is numeric.
+     */
+    private String[] textIds;
+
+    /**
+     * Numbers of the ids that are in numeric form, -1 where the id is text.
+     */
+    private long[] numericIds;
+
+    /**
+     * Amounts in cents.
+     */
+    private int[] amounts;
+
+    /**
+     * Packed currency codes.
+     */
+    private short[] currencies;
+
+    /**
+     * One bit per slot, set for DEBIT entries.
+     */
+    private long[] debitBits;
+
+    /**
+     * Creation times in milliseconds since the epoch.
+     */
+    private long[] createdAt;
+
+    /**
+     * Open-addressing id index holding slot + 1, or 0 for empty.
+     */
+    private int[] index;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Running per-currency counts and sums.
+     */
+    private CurrencyTotalsTable totals;
+
+    /**
+     * Prefix sums per currency over entry times, or null until the first
+     * balanceCentsAsOf.
+     */
+    private CurrencyTimeline timeline;
+
+    /**
+     * Sum of entryHash over the entries.
+     */
+    private long contentHash;
+
+    /**
+     * Next value of the id sequence.
+     */
+    private long nextSequence;
+
+    /**
+     * Creates a new empty representation.
+     */
+    private void createNewRep() {
+        this.textIds = new String[INITIAL_CAPACITY];
+        this.numericIds = new long[INITIAL_CAPACITY];
+        this.amounts = new int[INITIAL_CAPACITY];
+        this.currencies = new short[INITIAL_CAPACITY];
+        this.debitBits = new long[1];
+        this.createdAt = new long[INITIAL_CAPACITY];
+        this.index = new int[2 * INITIAL_CAPACITY];
+        this.size = 0;
+        this.totals = new CurrencyTotalsTable();
+        this.timeline = null;
+        this.contentHash = 0;
+        this.nextSequence = 1;
+    }
+
+    /**
+     * Checks whether id satisfies the kernel contract.
+     *
+     * @param id
+     *            candidate id
+     */
+    private static void assertValidId(String id) {
+        assert id != null && !id.isBlank() : "Violation of: id is not empty";
+    }
+
+    /**
+     * Checks whether amount satisfies the kernel contract.
+     *
+     * @param amountCents
+     *            amount in cents
+     */
+    private static void assertPositiveAmount(int amountCents) {
+        assert amountCents > 0 : "Violation of: amountCents > 0";
+    }
+
+    /**
+     * Returns the number n if id is "E" followed by n written in decimal with
+     * no leading zero, or -1 if id is not in that numeric form.
+     *
+     * @param id
+     *            entry id
+     * @return number of id, or -1
+     * @ensures numericIdValue = -1 or numericIdValue > 0
+     */
+    private static long numericIdValue(String id) {
+        int length = id.length();
+        if (length < 2 || length > MAX_NUMERIC_ID_LENGTH
+                || id.charAt(0) != 'E' || id.charAt(1) == '0') {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 1; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns the hash of an id given in split form.
+     *
+     * @param numericId
+     *            number of the id, or -1 if the id is not numeric
+     * @param textId
+     *            the id, used only when numericId is -1
+     * @return hash of the id
+     */
+    private static int hashOf(long numericId, String textId) {
+        long h = numericId;
+        if (numericId < 0) {
+            h = textId.hashCode();
+        }
+        h *= HASH_MULTIPLIER;
+        return (int) (h ^ (h >>> Integer.SIZE));
+    }
+
+    /**
+     * Returns the hash of the id stored at slot.
+     *
+     * @param slot
+     *            occupied slot
+     * @return hash of the id at slot
+     */
+    private int hashAt(int slot) {
+        return hashOf(this.numericIds[slot], this.textIds[slot]);
+    }
+
+    /**
+     * Returns the id stored at slot.
+     *
+     * @param slot
+     *            occupied slot
+     * @return id at slot
+     */
+    private String idAt(int slot) {
+        String text = this.textIds[slot];
+        if (text == null) {
+            text = "E" + this.numericIds[slot];
+        }
+        return text;
+    }
+
+    /**
+     * Returns the type of the entry at slot.
+     *
+     * @param slot
+     *            occupied slot
+     * @return entry type at slot
+     */
+    private EntryType typeAt(int slot) {
+        long word = this.debitBits[slot >>> 6];
+        if ((word & (1L << slot)) != 0) {
+            return EntryType.DEBIT;
+        }
+        return EntryType.CREDIT;
+    }
+
+    /**
+     * Returns an immutable copy of the entry at slot.
+     *
+     * @param slot
+     *            occupied slot
+     * @return snapshot of the entry at slot
+     */
+    private LedgerEntry snapshotAt(int slot) {
+        return new EntrySnapshot(this.idAt(slot), this.amounts[slot],
+                this.currencies[slot], this.typeAt(slot),
+                this.createdAt[slot]);
+    }
+
+    /**
+     * Returns the bucket holding the given id, or the empty bucket where it
+     * would be inserted.
+     *
+     * @param numericId
+     *            number of the id, or -1 if the id is not numeric
+     * @param textId
+     *            the id
+     * @return bucket for the id
+     */
+    private int findBucket(long numericId, String textId) {
+        int mask = this.index.length - 1;
+        int bucket = hashOf(numericId, textId) & mask;
+        while (this.index[bucket] != 0) {
+            int slot = this.index[bucket] - 1;
+            if (numericId >= 0) {
+                if (this.textIds[slot] == null
+                        && this.numericIds[slot] == numericId) {
+                    return bucket;
+                }
+            } else if (textId.equals(this.textIds[slot])) {
+                return bucket;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        return bucket;
+    }
+
+    /**
+     * Returns the bucket that refers to the given occupied slot.
+     *
+     * @param slot
+     *            occupied slot
+     * @return bucket holding slot + 1
+     */
+    private int bucketOfSlot(int slot) {
+        int mask = this.index.length - 1;
+        int bucket = this.hashAt(slot) & mask;
+        while (this.index[bucket] != slot + 1) {
+            bucket = (bucket + 1) & mask;
+        }
+        return bucket;
+    }
+
+    /**
+     * Empties bucket and shifts later buckets of the same probe run back so
+     * every remaining id stays reachable from its home bucket.
+     *
+     * @param bucket
+     *            occupied bucket to empty
+     * @updates this.index
+     */
+    private void deleteBucket(int bucket) {
+        int mask = this.index.length - 1;
+        int hole = bucket;
+        int next = (hole + 1) & mask;
+        while (this.index[next] != 0) {
+            int home = this.hashAt(this.index[next] - 1) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                this.index[hole] = this.index[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.index[hole] = 0;
+    }
+
+    /**
+     * Makes room for count more entries, growing the columns and the index
+     * as needed.
+     *
+     * @param count
+     *            number of entries about to be added
+     * @updates this
+     * @requires count > 0
+     * @ensures the columns have room for size + count entries and
+     *          index.length >= 2 * (size + count)
+     */
+    private void ensureRoomFor(int count) {
+        int needed = this.size + count;
+        if (needed > this.amounts.length) {
+            int capacity = this.amounts.length;
+            while (capacity < needed) {
+                capacity *= 2;
+            }
+            this.textIds = Arrays.copyOf(this.textIds, capacity);
+            this.numericIds = Arrays.copyOf(this.numericIds, capacity);
+            this.amounts = Arrays.copyOf(this.amounts, capacity);
+            this.currencies = Arrays.copyOf(this.currencies, capacity);
+            this.debitBits = Arrays.copyOf(this.debitBits,
+                    (capacity + Long.SIZE - 1) / Long.SIZE);
+            this.createdAt = Arrays.copyOf(this.createdAt, capacity);
+        }
+        if (2 * needed > this.index.length) {
+            int buckets = this.index.length;
+            while (buckets < 2 * needed) {
+                buckets *= 2;
+            }
+            this.index = new int[buckets];
+            int mask = this.index.length - 1;
+            for (int slot = 0; slot < this.size; slot++) {
+                int bucket = this.hashAt(slot) & mask;
+                while (this.index[bucket] != 0) {
+                    bucket = (bucket + 1) & mask;
+                }
+                this.index[bucket] = slot + 1;
+            }
+        }
+    }
+
+    /**
+     * Appends one entry, assuming there is room for it.
+     *
+     * @param id
+     *            entry id
+     * @param amountCents
+     *            amount in cents
+     * @param currency
+     *            currency code
+     * @param type
+     *            entry type
+     * @param createdAtMillis
+     *            creation time
+     * @updates this
+     * @requires the addEntry preconditions hold and the columns and index
+     *           have room for one more entry
+     */
+    private void append(String id, int amountCents, String currency,
+            EntryType type, long createdAtMillis) {
+        long numericId = numericIdValue(id);
+        int slot = this.size;
+        int currencyCode = CurrencyCodes.pack(currency);
+        this.numericIds[slot] = numericId;
+        if (numericId < 0) {
+            this.textIds[slot] = id;
+        }
+        this.amounts[slot] = amountCents;
+        this.currencies[slot] = (short) currencyCode;
+        if (type == EntryType.DEBIT) {
+            this.debitBits[slot >>> 6] |= 1L << slot;
+        }
+        this.createdAt[slot] = createdAtMillis;
+        this.index[this.findBucket(numericId, id)] = slot + 1;
+        this.totals.add(currencyCode, type, amountCents);
+        if (this.timeline != null) {
+            this.timeline.add(currencyCode, type, amountCents,
+                    createdAtMillis);
+        }
+        this.contentHash += entryHash(id, amountCents, currencyCode, type);
+        this.size++;
+    }
+
+    /**
+     * Removes the entry at slot, referenced from bucket, by moving the last
+     * entry into its place.
+     *
+     * @param slot
+     *            occupied slot
+     * @param bucket
+     *            bucket holding slot + 1
+     * @updates this
+     */
+    private void removeSlot(int slot, int bucket) {
+        this.deleteBucket(bucket);
+
+        int last = this.size - 1;
+        if (slot != last) {
+            this.index[this.bucketOfSlot(last)] = slot + 1;
+            this.textIds[slot] = this.textIds[last];
+            this.numericIds[slot] = this.numericIds[last];
+            this.amounts[slot] = this.amounts[last];
+            this.currencies[slot] = this.currencies[last];
+            this.createdAt[slot] = this.createdAt[last];
+            if (this.typeAt(last) == EntryType.DEBIT) {
+                this.debitBits[slot >>> 6] |= 1L << slot;
+            } else {
+                this.debitBits[slot >>> 6] &= ~(1L << slot);
+            }
+        }
+        this.textIds[last] = null;
+        this.debitBits[last >>> 6] &= ~(1L << last);
+        this.size = last;
+    }
+
+    /**
+     * Takes a removed entry back out of the totals, the timeline and the
+     * content hash.
+     *
+     * @param entry
+     *            entry just removed
+     * @updates this.totals, this.timeline, this.contentHash
+     */
+    private void recordRemoved(LedgerEntry entry) {
+        this.totals.remove(entry.currencyCode(), entry.type(),
+                entry.amountCents());
+        if (this.timeline != null) {
+            this.timeline.remove(entry.currencyCode(), entry.type(),
+                    entry.amountCents(), entry.createdAtMillis());
+        }
+        this.contentHash -= entryHash(entry);
+    }
+
+    /**
+     * No-argument constructor.
+     *
+     * @ensures this is empty
+     */
+    public WalletLedger2() {
+        this.createNewRep();
+    }
+
+    @Override
+    public void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public WalletLedgerKernel newInstance() {
+        return new WalletLedger2();
+    }
+
+    @Override
+    public void transferFrom(WalletLedgerKernel source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof WalletLedger2
+                : "Violation of: source has dynamic type WalletLedger2";
+
+        WalletLedger2 localSource = (WalletLedger2) source;
+        this.textIds = localSource.textIds;
+        this.numericIds = localSource.numericIds;
+        this.amounts = localSource.amounts;
+        this.currencies = localSource.currencies;
+        this.debitBits = localSource.debitBits;
+        this.createdAt = localSource.createdAt;
+        this.index = localSource.index;
+        this.size = localSource.size;
+        this.totals = localSource.totals;
+        this.timeline = localSource.timeline;
+        this.contentHash = localSource.contentHash;
+        this.nextSequence = localSource.nextSequence;
+        localSource.createNewRep();
+    }
+
+    @Override
+    public boolean hasEntry(String id) {
+        assertValidId(id);
+
+        int bucket = this.findBucket(numericIdValue(id), id);
+        return this.index[bucket] != 0;
+    }
+
+    @Override
+    public LedgerEntry entryOrNull(String id) {
+        assertValidId(id);
+
+        int bucket = this.findBucket(numericIdValue(id), id);
+        if (this.index[bucket] == 0) {
+            return null;
+        }
+        return this.snapshotAt(this.index[bucket] - 1);
+    }
+
+    @Override
+    public boolean isValidCurrency(String currency) {
+        return CurrencyCodes.isValid(currency);
+    }
+
+    @Override
+    public void addEntry(String id, int amountCents, String currency,
+            EntryType type) {
+        this.addEntryAt(id, amountCents, currency, type,
+                System.currentTimeMillis());
+    }
+
+    @Override
+    public void addEntryAt(String id, int amountCents, String currency,
+            EntryType type, long createdAtMillis) {
+        assertValidId(id);
+        assertPositiveAmount(amountCents);
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+        assert type != null : "Violation of: type is not null";
+        assert !this.hasEntry(id) : "Violation of: not hasEntry(id)";
+
+        this.ensureRoomFor(1);
+        this.append(id, amountCents, currency, type, createdAtMillis);
+    }
+
+    @Override
+    public LedgerEntry removeEntry(String id) {
+        assertValidId(id);
+        assert this.hasEntry(id) : "Violation of: hasEntry(id)";
+
+        int bucket = this.findBucket(numericIdValue(id), id);
+        int slot = this.index[bucket] - 1;
+        LedgerEntry entry = this.snapshotAt(slot);
+        this.removeSlot(slot, bucket);
+        this.recordRemoved(entry);
+        return entry;
+    }
+
+    @Override
+    public LedgerEntry removeAnyEntry() {
+        assert this.entryCount() > 0 : "Violation of: this is not empty";
+
+        int slot = this.size - 1;
+        LedgerEntry entry = this.snapshotAt(slot);
+        this.removeSlot(slot, this.bucketOfSlot(slot));
+        this.recordRemoved(entry);
+        return entry;
+    }
+
+    @Override
+    public int entryCount() {
+        return this.size;
+    }
+
+    @Override
+    public long entrySequence() {
+        return this.nextSequence;
+    }
+
+    @Override
+    public long nextEntrySequence() {
+        long result = this.nextSequence;
+        this.nextSequence++;
+        return result;
+    }
+
+    @Override
+    public void setEntrySequence(long sequence) {
+        assert sequence >= 1 : "Violation of: sequence >= 1";
+
+        this.nextSequence = sequence;
+    }
+
+    /*
+     * Secondary methods overridden for efficiency ----------------------------
+     */
+
+    @Override
+    public void addEntriesAt(String[] ids, int[] amountsCents,
+            String[] currencies, EntryType[] types, long[] createdAtMillis) {
+        assert isValidBatch(this, ids, amountsCents, currencies, types,
+                createdAtMillis)
+                : "Violation of: batch satisfies addEntriesAt preconditions";
+
+        if (ids.length > 0) {
+            this.ensureRoomFor(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                this.append(ids[i], amountsCents[i], currencies[i], types[i],
+                        createdAtMillis[i]);
+            }
+        }
+    }
+
+    @Override
+    public LedgerTotals balances() {
+        return new LedgerTotals(this.totals);
+    }
+
+    @Override
+    public long contentHash() {
+        return this.contentHash;
+    }
+
+    @Override
+    public void forEachEntry(Consumer<LedgerEntry> action) {
+        assert action != null : "Violation of: action is not null";
+
+        SlotCursor cursor = new SlotCursor();
+        for (int slot = 0; slot < this.size; slot++) {
+            cursor.moveTo(slot);
+            action.accept(cursor);
+        }
+    }
+
+    @Override
+    public LedgerTotals parallelTotals() {
+        return totalsOfSlots(this.size, (table, slot) -> table.add(
+                this.currencies[slot], this.typeAt(slot), this.amounts[slot]));
+    }
+
+    @Override
+    public long totalCreditsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        return this.totals.creditsOf(CurrencyCodes.pack(currency));
+    }
+
+    @Override
+    public long totalDebitsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        return this.totals.debitsOf(CurrencyCodes.pack(currency));
+    }
+
+    @Override
+    public long balanceCentsAsOf(String currency, long instantMillis) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        if (this.timeline == null) {
+            this.timeline = CurrencyTimeline.of(this);
+        }
+        return this.timeline.balanceAsOf(CurrencyCodes.pack(currency),
+                instantMillis);
+    }
+}
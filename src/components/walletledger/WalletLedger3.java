@@ -0,0 +1,432 @@
+package components.walletledger;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe kernel implementation of WalletLedger.
+ *
+ * Representation:
+ * A ConcurrentHashMap from entry id to immutable entry, a ConcurrentHashMap
+ * from packed currency code to that currency's running totals, and an
+ * AtomicLong id sequence, plus a LongAdder holding the content hash. Each
+ * currency's totals are LongAdders for its entry count, credits and debits,
+ * so credits and debits in different currencies, and credits in the same
+ * currency, update without contending.
+ *
+ * A change that can only raise a balance (adding a CREDIT, removing a DEBIT)
+ * is applied without locking. A change that can lower a balance (adding a
+ * DEBIT, removing a CREDIT) holds the monitor of its currency's totals, as
+ * do tryWithdraw and addDebitIfCovered while they check funds and append
+ * their DEBIT. A withdrawal therefore sees every earlier balance-lowering
+ * change in full and at worst misses a concurrent credit, so it can never
+ * overdraw the currency.
+ *
+ * Kernel and enhanced methods may be called from any number of threads.
+ * clear, newInstance and transferFrom replace the whole representation and
+ * must not run concurrently with any other call on the same ledger.
+ *
+ * Convention:
+ * - entries, totals and nextSequence are not null
+ * - every key of entries is non null, not blank, and equals the id of its
+ *   mapped entry
+ * - every amount is positive, every currency code is packed, and every type
+ *   is CREDIT or DEBIT
+ * - once no update is in flight, for each packed currency c, the count,
+ *   credits and debits of totals.get(c) (or 0 if absent) are the number of
+ *   entries in c and the sums of their CREDIT and DEBIT amounts
+ * - once no update is in flight, contentHash.sum() is the sum of entryHash
+ *   over the entries
+ * - nextSequence.get() >= 1
+ *
+ * Correspondence:
+ * Each map entry corresponds to one transaction, keyed by its unique id.
+ * nextSequence.get() is the sequence of this.
+ */
+public final class WalletLedger3 extends WalletLedgerSecondary {
+
+    /**
+     * Immutable ledger entry.
+     *
+     * @param id
+     *            entry id
+     * @param amountCents
+     *            amount in cents
+     * @param currencyCode
+     *            packed currency code
+     * @param type
+     *            entry type
+     * @param createdAtMillis
+     *            creation time in milliseconds since the epoch
+     */
+    private record Entry(String id, int amountCents, int currencyCode,
+            EntryType type, long createdAtMillis) implements LedgerEntry {
+
+        @Override
+        public String currency() {
+            return CurrencyCodes.unpack(this.currencyCode);
+        }
+    }
+
+    /**
+     * Running totals of one currency. Its monitor guards every change that
+     * can lower the currency's balance.
+     */
+    private static final class CurrencyTotals {
+
+        /**
+         * Number of entries.
+         */
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Sum of CREDIT amounts.
+         */
+        private final LongAdder credits = new LongAdder();
+
+        /**
+         * Sum of DEBIT amounts.
+         */
+        private final LongAdder debits = new LongAdder();
+    }
+
+    /**
+     * Entries by id.
+     */
+    private ConcurrentHashMap<String, LedgerEntry> entries;
+
+    /**
+     * Totals by packed currency code.
+     */
+    private ConcurrentHashMap<Integer, CurrencyTotals> totals;
+
+    /**
+     * Sum of entryHash over the entries.
+     */
+    private LongAdder contentHash;
+
+    /**
+     * Next value of the id sequence.
+     */
+    private AtomicLong nextSequence;
+
+    /**
+     * Creates a new empty representation.
+     */
+    private void createNewRep() {
+        this.entries = new ConcurrentHashMap<>();
+        this.totals = new ConcurrentHashMap<>();
+        this.contentHash = new LongAdder();
+        this.nextSequence = new AtomicLong(1);
+    }
+
+    /**
+     * Checks whether id satisfies the kernel contract.
+     *
+     * @param id
+     *            candidate id
+     */
+    private static void assertValidId(String id) {
+        assert id != null && !id.isBlank() : "Violation of: id is not empty";
+    }
+
+    /**
+     * Checks whether amount satisfies the kernel contract.
+     *
+     * @param amountCents
+     *            amount in cents
+     */
+    private static void assertPositiveAmount(int amountCents) {
+        assert amountCents > 0 : "Violation of: amountCents > 0";
+    }
+
+    /**
+     * No-argument constructor.
+     *
+     * @ensures this is empty
+     */
+    public WalletLedger3() {
+        this.createNewRep();
+    }
+
+    /**
+     * Returns the totals of a currency, creating them if needed.
+     *
+     * @param code
+     *            packed currency code
+     * @return totals of the currency
+     */
+    private CurrencyTotals totalsOf(int code) {
+        return this.totals.computeIfAbsent(code, c -> new CurrencyTotals());
+    }
+
+    /**
+     * Adds entry to entries and to its currency totals, locking the currency
+     * if entry is a DEBIT.
+     *
+     * @param entry
+     *            new entry
+     * @updates this
+     * @requires entry.id() is not in this.entries
+     */
+    private void insert(LedgerEntry entry) {
+        CurrencyTotals currencyTotals = this.totalsOf(entry.currencyCode());
+        this.contentHash.add(entryHash(entry));
+        currencyTotals.count.increment();
+        if (entry.type() == EntryType.CREDIT) {
+            this.entries.put(entry.id(), entry);
+            currencyTotals.credits.add(entry.amountCents());
+        } else {
+            synchronized (currencyTotals) {
+                this.entries.put(entry.id(), entry);
+                currencyTotals.debits.add(entry.amountCents());
+            }
+        }
+    }
+
+    /**
+     * Removes the entry with the given id, if present, from entries and from
+     * its currency totals, locking the currency if the entry is a CREDIT.
+     *
+     * @param id
+     *            entry id
+     * @return removed entry, or null if another thread removed it first
+     * @updates this
+     */
+    private LedgerEntry detach(String id) {
+        LedgerEntry entry = this.entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        CurrencyTotals currencyTotals = this.totalsOf(entry.currencyCode());
+        if (entry.type() == EntryType.DEBIT) {
+            if (!this.entries.remove(id, entry)) {
+                return null;
+            }
+            currencyTotals.debits.add(-entry.amountCents());
+        } else {
+            synchronized (currencyTotals) {
+                if (!this.entries.remove(id, entry)) {
+                    return null;
+                }
+                currencyTotals.credits.add(-entry.amountCents());
+            }
+        }
+        currencyTotals.count.decrement();
+        this.contentHash.add(-entryHash(entry));
+        return entry;
+    }
+
+    @Override
+    public void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public WalletLedgerKernel newInstance() {
+        return new WalletLedger3();
+    }
+
+    @Override
+    public void transferFrom(WalletLedgerKernel source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof WalletLedger3
+                : "Violation of: source has dynamic type WalletLedger3";
+
+        WalletLedger3 localSource = (WalletLedger3) source;
+        this.entries = localSource.entries;
+        this.totals = localSource.totals;
+        this.contentHash = localSource.contentHash;
+        this.nextSequence = localSource.nextSequence;
+        localSource.createNewRep();
+    }
+
+    @Override
+    public boolean hasEntry(String id) {
+        assertValidId(id);
+        return this.entries.containsKey(id);
+    }
+
+    @Override
+    public LedgerEntry entryOrNull(String id) {
+        assertValidId(id);
+        return this.entries.get(id);
+    }
+
+    @Override
+    public boolean isValidCurrency(String currency) {
+        return CurrencyCodes.isValid(currency);
+    }
+
+    @Override
+    public void addEntry(String id, int amountCents, String currency,
+            EntryType type) {
+        this.addEntryAt(id, amountCents, currency, type,
+                System.currentTimeMillis());
+    }
+
+    @Override
+    public void addEntryAt(String id, int amountCents, String currency,
+            EntryType type, long createdAtMillis) {
+        assertValidId(id);
+        assertPositiveAmount(amountCents);
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+        assert type != null : "Violation of: type is not null";
+        assert !this.hasEntry(id) : "Violation of: not hasEntry(id)";
+
+        this.insert(new Entry(id, amountCents, CurrencyCodes.pack(currency),
+                type, createdAtMillis));
+    }
+
+    @Override
+    public LedgerEntry removeEntry(String id) {
+        assertValidId(id);
+        assert this.hasEntry(id) : "Violation of: hasEntry(id)";
+
+        LedgerEntry entry = this.detach(id);
+        assert entry != null : "Violation of: hasEntry(id)";
+        return entry;
+    }
+
+    @Override
+    public LedgerEntry removeAnyEntry() {
+        assert this.entryCount() > 0 : "Violation of: this is not empty";
+
+        LedgerEntry entry = null;
+        while (entry == null) {
+            Iterator<String> ids = this.entries.keySet().iterator();
+            assert ids.hasNext() : "Violation of: this is not empty";
+            entry = this.detach(ids.next());
+        }
+        return entry;
+    }
+
+    @Override
+    public int entryCount() {
+        return this.entries.size();
+    }
+
+    @Override
+    public long entrySequence() {
+        return this.nextSequence.get();
+    }
+
+    @Override
+    public long nextEntrySequence() {
+        return this.nextSequence.getAndIncrement();
+    }
+
+    @Override
+    public void setEntrySequence(long sequence) {
+        assert sequence >= 1 : "Violation of: sequence >= 1";
+
+        this.nextSequence.set(sequence);
+    }
+
+    /*
+     * Secondary methods overridden for efficiency ----------------------------
+     */
+
+    @Override
+    public WithdrawResult tryWithdraw(int amountCents, String currency) {
+        assertPositiveAmount(amountCents);
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        int code = CurrencyCodes.pack(currency);
+        CurrencyTotals currencyTotals = this.totalsOf(code);
+        synchronized (currencyTotals) {
+            long balance = currencyTotals.credits.sum()
+                    - currencyTotals.debits.sum();
+            if (balance < amountCents) {
+                return WithdrawResult.INSUFFICIENT_FUNDS;
+            }
+            this.insert(new Entry(this.freshEntryId(), amountCents, code,
+                    EntryType.DEBIT, System.currentTimeMillis()));
+        }
+        return WithdrawResult.DEBITED;
+    }
+
+    @Override
+    protected boolean addDebitIfCovered(String id, int amountCents,
+            String currency) {
+        int code = CurrencyCodes.pack(currency);
+        CurrencyTotals currencyTotals = this.totalsOf(code);
+        synchronized (currencyTotals) {
+            long balance = currencyTotals.credits.sum()
+                    - currencyTotals.debits.sum();
+            if (balance < amountCents) {
+                return false;
+            }
+            this.insert(new Entry(id, amountCents, code, EntryType.DEBIT,
+                    System.currentTimeMillis()));
+        }
+        return true;
+    }
+
+    @Override
+    public long contentHash() {
+        return this.contentHash.sum();
+    }
+
+    @Override
+    public void forEachEntry(Consumer<LedgerEntry> action) {
+        assert action != null : "Violation of: action is not null";
+
+        for (LedgerEntry entry : this.entries.values()) {
+            action.accept(entry);
+        }
+    }
+
+    @Override
+    public LedgerTotals parallelTotals() {
+        return totalsOfEntries(this.entries.values());
+    }
+
+    /**
+     * Reads the running totals of each currency, so the result is exact once
+     * no update is in flight; while updates run, each currency's figures are
+     * read one after another and may mix states.
+     */
+    @Override
+    public LedgerTotals balances() {
+        CurrencyTotalsTable table = new CurrencyTotalsTable();
+        this.totals.forEach((code, currencyTotals) -> {
+            long count = currencyTotals.count.sum();
+            if (count > 0) {
+                table.addTotals(code, (int) count,
+                        Math.max(0, currencyTotals.credits.sum()),
+                        Math.max(0, currencyTotals.debits.sum()));
+            }
+        });
+        return new LedgerTotals(table);
+    }
+
+    @Override
+    public long totalCreditsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        CurrencyTotals currencyTotals = this.totals
+                .get(CurrencyCodes.pack(currency));
+        return currencyTotals == null ? 0 : currencyTotals.credits.sum();
+    }
+
+    @Override
+    public long totalDebitsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        CurrencyTotals currencyTotals = this.totals
+                .get(CurrencyCodes.pack(currency));
+        return currencyTotals == null ? 0 : currencyTotals.debits.sum();
+    }
+}
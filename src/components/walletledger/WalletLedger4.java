@@ -0,0 +1,397 @@
+package components.walletledger;
+
+import java.util.function.Consumer;
+
+/**
+ * Single-writer, multi-reader kernel implementation of WalletLedger.
+ *
+ * Representation:
+ * The whole value of this is one immutable Version: a PersistentHashMap of
+ * entries by id, a PersistentHashMap of per-currency totals by packed code,
+ * the content hash, and the id sequence. Every change builds a new Version
+ * that shares all untouched trie nodes with the old one and publishes it
+ * with a single write to the volatile field current.
+ *
+ * One thread at a time may change this; any number of other threads may read
+ * it concurrently without locking. Each read method reads current once, so it
+ * answers from a single complete Version and never sees a half-applied
+ * change. addEntries and addEntriesAt publish their whole batch at once.
+ * Readers that need several answers from the same Version call snapshot().
+ *
+ * Convention:
+ * - current is not null, and neither are its entries and totals
+ * - every key of current.entries is non null, not blank, and equals the id
+ *   of its mapped entry
+ * - every amount is positive, every currency code is packed, and every type
+ *   is CREDIT or DEBIT
+ * - for each packed currency c, current.totals.get(c) is null or holds the
+ *   number of entries in c and the sums of their CREDIT and DEBIT amounts
+ * - current.contentHash is the sum of entryHash over current.entries
+ * - current.nextSequence >= 1
+ *
+ * Correspondence:
+ * Each entry of current.entries corresponds to one transaction, keyed by its
+ * unique id. current.nextSequence is the sequence of this.
+ */
+public final class WalletLedger4 extends WalletLedgerSecondary {
+
+    /**
+     * Immutable ledger entry.
+     *
+     * @param id
+     *            entry id
+     * @param amountCents
+     *            amount in cents
+     * @param currencyCode
+     *            packed currency code
+     * @param type
+     *            entry type
+     * @param createdAtMillis
+     *            creation time in milliseconds since the epoch
+     */
+    private record Entry(String id, int amountCents, int currencyCode,
+            EntryType type, long createdAtMillis) implements LedgerEntry {
+
+        @Override
+        public String currency() {
+            return CurrencyCodes.unpack(this.currencyCode);
+        }
+    }
+
+    /**
+     * Entry count and credit and debit sums of one currency.
+     *
+     * @param count
+     *            number of entries
+     * @param credits
+     *            sum of CREDIT amounts
+     * @param debits
+     *            sum of DEBIT amounts
+     */
+    private record Totals(int count, long credits, long debits) {
+    }
+
+    /**
+     * One immutable value of the ledger.
+     *
+     * @param entries
+     *            entries by id
+     * @param totals
+     *            totals by packed currency code
+     * @param contentHash
+     *            sum of entryHash over entries
+     * @param nextSequence
+     *            next value of the id sequence
+     */
+    private record Version(PersistentHashMap<String, LedgerEntry> entries,
+            PersistentHashMap<Integer, Totals> totals, long contentHash,
+            long nextSequence) {
+
+        /**
+         * The empty ledger.
+         */
+        private static final Version EMPTY = new Version(
+                PersistentHashMap.empty(), PersistentHashMap.empty(), 0, 1);
+
+        /**
+         * Returns this with entry added.
+         *
+         * @param entry
+         *            new entry
+         * @return new version
+         * @requires entry.id() is not in entries
+         */
+        private Version with(LedgerEntry entry) {
+            return new Version(this.entries.put(entry.id(), entry),
+                    this.adjusted(entry, entry.amountCents()),
+                    this.contentHash + entryHash(entry), this.nextSequence);
+        }
+
+        /**
+         * Returns this with entry removed.
+         *
+         * @param entry
+         *            entry of this
+         * @return new version
+         */
+        private Version without(LedgerEntry entry) {
+            return new Version(this.entries.remove(entry.id()),
+                    this.adjusted(entry, -entry.amountCents()),
+                    this.contentHash - entryHash(entry), this.nextSequence);
+        }
+
+        /**
+         * Returns totals with the amount of entry's type in entry's
+         * currency changed by delta.
+         *
+         * @param entry
+         *            entry being added or removed
+         * @param delta
+         *            signed change
+         * @return new totals
+         */
+        private PersistentHashMap<Integer, Totals> adjusted(
+                LedgerEntry entry, long delta) {
+            Totals old = this.totals.get(entry.currencyCode());
+            int count = old == null ? 0 : old.count();
+            long credits = old == null ? 0 : old.credits();
+            long debits = old == null ? 0 : old.debits();
+            if (entry.type() == EntryType.CREDIT) {
+                credits += delta;
+            } else {
+                debits += delta;
+            }
+            if (delta > 0) {
+                count++;
+            } else {
+                count--;
+            }
+            return this.totals.put(entry.currencyCode(),
+                    new Totals(count, credits, debits));
+        }
+
+        /**
+         * Returns the totals of currency, or null if it never had entries.
+         *
+         * @param currency
+         *            currency code
+         * @return totals, or null
+         */
+        private Totals totalsOf(String currency) {
+            return this.totals.get(CurrencyCodes.pack(currency));
+        }
+    }
+
+    /**
+     * Current value of this.
+     */
+    private volatile Version current;
+
+    /**
+     * Creates a new empty representation.
+     */
+    private void createNewRep() {
+        this.current = Version.EMPTY;
+    }
+
+    /**
+     * Checks whether id satisfies the kernel contract.
+     *
+     * @param id
+     *            candidate id
+     */
+    private static void assertValidId(String id) {
+        assert id != null && !id.isBlank() : "Violation of: id is not empty";
+    }
+
+    /**
+     * Checks whether amount satisfies the kernel contract.
+     *
+     * @param amountCents
+     *            amount in cents
+     */
+    private static void assertPositiveAmount(int amountCents) {
+        assert amountCents > 0 : "Violation of: amountCents > 0";
+    }
+
+    /**
+     * No-argument constructor.
+     *
+     * @ensures this is empty
+     */
+    public WalletLedger4() {
+        this.createNewRep();
+    }
+
+    /**
+     * Returns a new ledger holding the current value of this. It costs O(1)
+     * and shares all storage with this; later changes to either ledger do not
+     * affect the other.
+     *
+     * @return independent copy of this
+     * @ensures snapshot = this
+     */
+    public WalletLedger4 snapshot() {
+        WalletLedger4 copy = new WalletLedger4();
+        copy.current = this.current;
+        return copy;
+    }
+
+    @Override
+    public void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public WalletLedgerKernel newInstance() {
+        return new WalletLedger4();
+    }
+
+    @Override
+    public void transferFrom(WalletLedgerKernel source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof WalletLedger4
+                : "Violation of: source has dynamic type WalletLedger4";
+
+        WalletLedger4 localSource = (WalletLedger4) source;
+        this.current = localSource.current;
+        localSource.createNewRep();
+    }
+
+    @Override
+    public boolean hasEntry(String id) {
+        assertValidId(id);
+        return this.current.entries().get(id) != null;
+    }
+
+    @Override
+    public LedgerEntry entryOrNull(String id) {
+        assertValidId(id);
+        return this.current.entries().get(id);
+    }
+
+    @Override
+    public boolean isValidCurrency(String currency) {
+        return CurrencyCodes.isValid(currency);
+    }
+
+    @Override
+    public void addEntry(String id, int amountCents, String currency,
+            EntryType type) {
+        this.addEntryAt(id, amountCents, currency, type,
+                System.currentTimeMillis());
+    }
+
+    @Override
+    public void addEntryAt(String id, int amountCents, String currency,
+            EntryType type, long createdAtMillis) {
+        assertValidId(id);
+        assertPositiveAmount(amountCents);
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+        assert type != null : "Violation of: type is not null";
+        assert !this.hasEntry(id) : "Violation of: not hasEntry(id)";
+
+        this.current = this.current.with(new Entry(id, amountCents,
+                CurrencyCodes.pack(currency), type, createdAtMillis));
+    }
+
+    @Override
+    public LedgerEntry removeEntry(String id) {
+        assertValidId(id);
+        assert this.hasEntry(id) : "Violation of: hasEntry(id)";
+
+        Version version = this.current;
+        LedgerEntry entry = version.entries().get(id);
+        this.current = version.without(entry);
+        return entry;
+    }
+
+    @Override
+    public LedgerEntry removeAnyEntry() {
+        assert this.entryCount() > 0 : "Violation of: this is not empty";
+
+        Version version = this.current;
+        LedgerEntry entry = version.entries().anyValue();
+        this.current = version.without(entry);
+        return entry;
+    }
+
+    @Override
+    public int entryCount() {
+        return this.current.entries().size();
+    }
+
+    @Override
+    public long entrySequence() {
+        return this.current.nextSequence();
+    }
+
+    @Override
+    public long nextEntrySequence() {
+        Version version = this.current;
+        this.current = new Version(version.entries(), version.totals(),
+                version.contentHash(), version.nextSequence() + 1);
+        return version.nextSequence();
+    }
+
+    @Override
+    public void setEntrySequence(long sequence) {
+        assert sequence >= 1 : "Violation of: sequence >= 1";
+
+        Version version = this.current;
+        this.current = new Version(version.entries(), version.totals(),
+                version.contentHash(), sequence);
+    }
+
+    /*
+     * Secondary methods overridden for efficiency ----------------------------
+     */
+
+    @Override
+    public void addEntriesAt(String[] ids, int[] amountsCents,
+            String[] currencies, EntryType[] types, long[] createdAtMillis) {
+        assert isValidBatch(this, ids, amountsCents, currencies, types,
+                createdAtMillis)
+                : "Violation of: batch satisfies addEntriesAt preconditions";
+
+        Version version = this.current;
+        for (int i = 0; i < ids.length; i++) {
+            version = version.with(new Entry(ids[i], amountsCents[i],
+                    CurrencyCodes.pack(currencies[i]), types[i],
+                    createdAtMillis[i]));
+        }
+        this.current = version;
+    }
+
+    @Override
+    public long contentHash() {
+        return this.current.contentHash();
+    }
+
+    @Override
+    public void forEachEntry(Consumer<LedgerEntry> action) {
+        assert action != null : "Violation of: action is not null";
+
+        this.current.entries().forEach((id, entry) -> action.accept(entry));
+    }
+
+    @Override
+    public LedgerTotals balances() {
+        CurrencyTotalsTable table = new CurrencyTotalsTable();
+        this.current.totals().forEach((code, totals) -> table.addTotals(code,
+                totals.count(), totals.credits(), totals.debits()));
+        return new LedgerTotals(table);
+    }
+
+    @Override
+    public long balanceCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        Totals totals = this.current.totalsOf(currency);
+        return totals == null ? 0 : totals.credits() - totals.debits();
+    }
+
+    @Override
+    public long totalCreditsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        Totals totals = this.current.totalsOf(currency);
+        return totals == null ? 0 : totals.credits();
+    }
+
+    @Override
+    public long totalDebitsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        Totals totals = this.current.totalsOf(currency);
+        return totals == null ? 0 : totals.debits();
+    }
+}
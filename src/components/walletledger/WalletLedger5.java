@@ -0,0 +1,871 @@
+package components.walletledger;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.Consumer;
+
+/**
+ * Kernel implementation of WalletLedger that keeps its entries off the Java
+ * heap, in direct ByteBuffers.
+ *
+ * The heap holds only this object, its buffer objects and a running total
+ * per currency, however many entries there are, so a very large ledger adds
+ * no work for the garbage collector. The one exception is balanceCentsAsOf:
+ * the first call builds an on-heap CurrencyTimeline of 16 bytes per distinct
+ * entry time and currency, kept up to date from then on, so past balances
+ * are O(log n). Entries handed to forEachEntry are
+ * views of the buffers, one reused object per traversal; lookups and
+ * removals return ordinary immutable copies.
+ *
+ * A new or cleared ledger holds no off-heap storage; it is allocated on the
+ * first add and doubled as needed. {@link #close()} gives the storage back
+ * and leaves this empty, so this can be used in try-with-resources. On this
+ * JDK the memory of a direct buffer is freed when the garbage collector
+ * reclaims the small buffer object, so close drops every reference to the
+ * buffers rather than freeing them at once. Direct memory counts against
+ * -XX:MaxDirectMemorySize, not the heap limit.
+ *
+ * Representation:
+ * Entries are fixed-width records of RECORD_BYTES bytes, stored densely in
+ * slots 0 .. size - 1 of records: creation time, id offset and length, id
+ * hash, amount, packed currency and type (the EntryType ordinal). Id
+ * characters are stored back to back in ids as UTF-16 code units; the
+ * characters of removed ids stay there as garbage until the next time ids
+ * is grown, when the live ids are compacted into the new buffer. index is
+ * an open-addressing hash table with linear probing of ints holding slot +
+ * 1, or 0 for an empty bucket. totals keeps the count, credits and debits
+ * of each currency, and contentHash is kept up to date as entries come and
+ * go.
+ *
+ * Convention:
+ * - 0 <= size and size * RECORD_BYTES <= records.capacity()
+ * - for every slot s < size, the id of s occupies ID_LENGTH(s) chars at
+ *   byte ID_OFFSET(s) of ids, within 0 .. idEnd, and ID_HASH(s) is
+ *   hashOf(that id)
+ * - the ids of slots 0 .. size - 1 are distinct, and the id chars of
+ *   different slots do not overlap
+ * - idGarbage = idEnd - (sum of 2 * ID_LENGTH(s) for s < size)
+ * - the bucket count of index is a power of two, at least 2 * size
+ * - every slot s < size appears as s + 1 in exactly one bucket of index,
+ *   reachable from the home bucket of its id without crossing an empty
+ *   bucket, and every other bucket is 0
+ * - totals holds the count, credits and debits of each currency of slots
+ *   0 .. size - 1, and contentHash is the sum of entryHash over them
+ * - timeline is null, or holds the creation times and signed amounts of
+ *   the entries of slots 0 .. size - 1
+ * - nextSequence >= 1
+ *
+ * Correspondence:
+ * this.entries = { (idAt(s), AMOUNT(s), unpack(CURRENCY(s)),
+ * EntryType.values()[TYPE(s)], CREATED_AT(s)) : 0 <= s < size }
+ * and this.sequence = nextSequence.
+ */
+public final class WalletLedger5 extends WalletLedgerSecondary
+        implements AutoCloseable {
+
+    /**
+     * Offset of the creation time (long) in a record.
+     */
+    private static final int CREATED_AT = 0;
+
+    /**
+     * Offset of the byte offset of the id in ids (int) in a record.
+     */
+    private static final int ID_OFFSET = 8;
+
+    /**
+     * Offset of the id length in chars (int) in a record.
+     */
+    private static final int ID_LENGTH = 12;
+
+    /**
+     * Offset of the id hash (int) in a record.
+     */
+    private static final int ID_HASH = 16;
+
+    /**
+     * Offset of the amount in cents (int) in a record.
+     */
+    private static final int AMOUNT = 20;
+
+    /**
+     * Offset of the packed currency code (short) in a record.
+     */
+    private static final int CURRENCY = 24;
+
+    /**
+     * Offset of the EntryType ordinal (byte) in a record.
+     */
+    private static final int TYPE = 26;
+
+    /**
+     * Size of one record in bytes, rounded up to keep records aligned.
+     */
+    private static final int RECORD_BYTES = 32;
+
+    /**
+     * Number of records allocated by the first add.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Number of id bytes allocated by the first add.
+     */
+    private static final int INITIAL_ID_BYTES = 256;
+
+    /**
+     * Multiplier used to spread id hashes over the buckets.
+     */
+    private static final int HASH_MULTIPLIER = 0x9E3779B1;
+
+    /**
+     * Entry types by ordinal.
+     */
+    private static final EntryType[] TYPES = EntryType.values();
+
+    /**
+     * Storage of a ledger that holds none: no records, no id bytes and one
+     * empty bucket. Never written, since every add first grows past it.
+     */
+    private static final ByteBuffer NO_RECORDS = allocate(0);
+
+    /**
+     * Empty id storage, shared like NO_RECORDS.
+     */
+    private static final ByteBuffer NO_IDS = allocate(0);
+
+    /**
+     * Index of a single empty bucket, shared like NO_RECORDS.
+     */
+    private static final ByteBuffer NO_INDEX = allocate(Integer.BYTES);
+
+    /**
+     * Immutable copy of one entry, returned by the lookup and removal
+     * methods.
+     *
+     * @param id
+     *            entry id
+     * @param amountCents
+     *            amount in cents
+     * @param currencyCode
+     *            packed currency code
+     * @param type
+     *            entry type
+     * @param createdAtMillis
+     *            creation time
+     */
+    private record EntryCopy(String id, int amountCents, int currencyCode,
+            EntryType type, long createdAtMillis) implements LedgerEntry {
+
+        @Override
+        public String currency() {
+            return CurrencyCodes.unpack(this.currencyCode);
+        }
+    }
+
+    /**
+     * Reusable view of the record at one slot, used by forEachEntry so a
+     * traversal allocates a single object.
+     */
+    private final class SlotCursor implements LedgerEntry {
+
+        /**
+         * Slot currently viewed.
+         */
+        private int slot;
+
+        @Override
+        public String id() {
+            return WalletLedger5.this.idAt(this.slot);
+        }
+
+        @Override
+        public int amountCents() {
+            return WalletLedger5.this.records
+                    .getInt(this.slot * RECORD_BYTES + AMOUNT);
+        }
+
+        @Override
+        public String currency() {
+            return CurrencyCodes.unpack(this.currencyCode());
+        }
+
+        @Override
+        public int currencyCode() {
+            return WalletLedger5.this.records
+                    .getShort(this.slot * RECORD_BYTES + CURRENCY);
+        }
+
+        @Override
+        public EntryType type() {
+            return WalletLedger5.this.typeAt(this.slot);
+        }
+
+        @Override
+        public long createdAtMillis() {
+            return WalletLedger5.this.records
+                    .getLong(this.slot * RECORD_BYTES + CREATED_AT);
+        }
+    }
+
+    /**
+     * Entry records.
+     */
+    private ByteBuffer records;
+
+    /**
+     * Id characters.
+     */
+    private ByteBuffer ids;
+
+    /**
+     * Open-addressing id index holding slot + 1, or 0 for empty.
+     */
+    private ByteBuffer index;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Number of bytes of ids in use, live or garbage.
+     */
+    private int idEnd;
+
+    /**
+     * Number of bytes of ids left behind by removed entries.
+     */
+    private int idGarbage;
+
+    /**
+     * Count, credits and debits per currency.
+     */
+    private CurrencyTotalsTable totals;
+
+    /**
+     * Prefix sums per currency over entry times, or null until the first
+     * balanceCentsAsOf.
+     */
+    private CurrencyTimeline timeline;
+
+    /**
+     * Sum of entryHash over the entries.
+     */
+    private long contentHash;
+
+    /**
+     * Next value of the id sequence.
+     */
+    private long nextSequence;
+
+    /**
+     * Creates a new empty representation that holds no off-heap storage.
+     */
+    private void createNewRep() {
+        this.records = NO_RECORDS;
+        this.ids = NO_IDS;
+        this.index = NO_INDEX;
+        this.size = 0;
+        this.idEnd = 0;
+        this.idGarbage = 0;
+        this.totals = new CurrencyTotalsTable();
+        this.timeline = null;
+        this.contentHash = 0;
+        this.nextSequence = 1;
+    }
+
+    /**
+     * Returns a new direct buffer in native byte order.
+     *
+     * @param bytes
+     *            capacity in bytes
+     * @return zero-filled buffer of the given capacity
+     */
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Checks whether id satisfies the kernel contract.
+     *
+     * @param id
+     *            candidate id
+     */
+    private static void assertValidId(String id) {
+        assert id != null && !id.isBlank() : "Violation of: id is not empty";
+    }
+
+    /**
+     * Checks whether amount satisfies the kernel contract.
+     *
+     * @param amountCents
+     *            amount in cents
+     */
+    private static void assertPositiveAmount(int amountCents) {
+        assert amountCents > 0 : "Violation of: amountCents > 0";
+    }
+
+    /**
+     * Returns the hash of an id.
+     *
+     * @param id
+     *            entry id
+     * @return spread hash of id
+     */
+    private static int hashOf(String id) {
+        int h = id.hashCode() * HASH_MULTIPLIER;
+        return h ^ (h >>> Short.SIZE);
+    }
+
+    /**
+     * Returns the number of buckets of index.
+     *
+     * @return bucket count
+     */
+    private int bucketCount() {
+        return this.index.capacity() / Integer.BYTES;
+    }
+
+    /**
+     * Returns the content of a bucket of index.
+     *
+     * @param bucket
+     *            bucket number
+     * @return slot + 1, or 0 if the bucket is empty
+     */
+    private int bucketAt(int bucket) {
+        return this.index.getInt(bucket * Integer.BYTES);
+    }
+
+    /**
+     * Sets the content of a bucket of index.
+     *
+     * @param bucket
+     *            bucket number
+     * @param value
+     *            slot + 1, or 0 to empty the bucket
+     * @updates this.index
+     */
+    private void setBucket(int bucket, int value) {
+        this.index.putInt(bucket * Integer.BYTES, value);
+    }
+
+    /**
+     * Returns the hash of the id stored at slot.
+     *
+     * @param slot
+     *            occupied slot
+     * @return hash of the id at slot
+     */
+    private int hashAt(int slot) {
+        return this.records.getInt(slot * RECORD_BYTES + ID_HASH);
+    }
+
+    /**
+     * Reports whether the id stored at slot is id.
+     *
+     * @param slot
+     *            occupied slot
+     * @param id
+     *            candidate id
+     * @param hash
+     *            hashOf(id)
+     * @return true iff the id at slot equals id
+     */
+    private boolean idMatches(int slot, String id, int hash) {
+        int record = slot * RECORD_BYTES;
+        int length = id.length();
+        if (this.records.getInt(record + ID_HASH) != hash
+                || this.records.getInt(record + ID_LENGTH) != length) {
+            return false;
+        }
+        int offset = this.records.getInt(record + ID_OFFSET);
+        for (int i = 0; i < length; i++) {
+            if (this.ids.getChar(offset + i * Character.BYTES) != id
+                    .charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the id stored at slot.
+     *
+     * @param slot
+     *            occupied slot
+     * @return id at slot
+     */
+    private String idAt(int slot) {
+        int record = slot * RECORD_BYTES;
+        int offset = this.records.getInt(record + ID_OFFSET);
+        char[] chars = new char[this.records.getInt(record + ID_LENGTH)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = this.ids.getChar(offset + i * Character.BYTES);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the type of the entry at slot.
+     *
+     * @param slot
+     *            occupied slot
+     * @return entry type at slot
+     */
+    private EntryType typeAt(int slot) {
+        return TYPES[this.records.get(slot * RECORD_BYTES + TYPE)];
+    }
+
+    /**
+     * Returns an immutable copy of the entry at slot.
+     *
+     * @param slot
+     *            occupied slot
+     * @return copy of the entry at slot
+     */
+    private LedgerEntry copyAt(int slot) {
+        int record = slot * RECORD_BYTES;
+        return new EntryCopy(this.idAt(slot),
+                this.records.getInt(record + AMOUNT),
+                this.records.getShort(record + CURRENCY), this.typeAt(slot),
+                this.records.getLong(record + CREATED_AT));
+    }
+
+    /**
+     * Returns the bucket holding the given id, or the empty bucket where it
+     * would be inserted.
+     *
+     * @param id
+     *            entry id
+     * @param hash
+     *            hashOf(id)
+     * @return bucket for the id
+     */
+    private int findBucket(String id, int hash) {
+        int mask = this.bucketCount() - 1;
+        int bucket = hash & mask;
+        while (this.bucketAt(bucket) != 0
+                && !this.idMatches(this.bucketAt(bucket) - 1, id, hash)) {
+            bucket = (bucket + 1) & mask;
+        }
+        return bucket;
+    }
+
+    /**
+     * Returns the bucket that refers to the given occupied slot.
+     *
+     * @param slot
+     *            occupied slot
+     * @return bucket holding slot + 1
+     */
+    private int bucketOfSlot(int slot) {
+        int mask = this.bucketCount() - 1;
+        int bucket = this.hashAt(slot) & mask;
+        while (this.bucketAt(bucket) != slot + 1) {
+            bucket = (bucket + 1) & mask;
+        }
+        return bucket;
+    }
+
+    /**
+     * Empties bucket and shifts later buckets of the same probe run back so
+     * every remaining id stays reachable from its home bucket.
+     *
+     * @param bucket
+     *            occupied bucket to empty
+     * @updates this.index
+     */
+    private void deleteBucket(int bucket) {
+        int mask = this.bucketCount() - 1;
+        int hole = bucket;
+        int next = (hole + 1) & mask;
+        while (this.bucketAt(next) != 0) {
+            int home = this.hashAt(this.bucketAt(next) - 1) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                this.setBucket(hole, this.bucketAt(next));
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.setBucket(hole, 0);
+    }
+
+    /**
+     * Makes room for count more entries whose ids take idBytes bytes,
+     * growing records, ids and index as needed. Growing ids also drops the
+     * characters of removed ids.
+     *
+     * @param count
+     *            number of entries about to be added
+     * @param idBytes
+     *            total size of their ids in bytes
+     * @updates this
+     * @requires count > 0 and idBytes > 0
+     * @ensures records, ids and index have room for count more entries with
+     *          idBytes more id bytes
+     */
+    private void ensureRoomFor(int count, int idBytes) {
+        int needed = Math.addExact(this.size, count);
+        int recordBytes = Math.multiplyExact(needed, RECORD_BYTES);
+        if (recordBytes > this.records.capacity()) {
+            int capacity = Math.max(this.records.capacity(),
+                    INITIAL_CAPACITY * RECORD_BYTES);
+            while (capacity < recordBytes) {
+                capacity = Math.multiplyExact(capacity, 2);
+            }
+            ByteBuffer grown = allocate(capacity);
+            grown.put(0, this.records, 0, this.size * RECORD_BYTES);
+            this.records = grown;
+        }
+        if (Math.addExact(this.idEnd, idBytes) > this.ids.capacity()) {
+            int live = this.idEnd - this.idGarbage;
+            int wanted = Math.multiplyExact(Math.addExact(live, idBytes), 2);
+            int capacity = Math.max(this.ids.capacity(), INITIAL_ID_BYTES);
+            while (capacity < wanted) {
+                capacity = Math.multiplyExact(capacity, 2);
+            }
+            ByteBuffer grown = allocate(capacity);
+            int end = 0;
+            for (int slot = 0; slot < this.size; slot++) {
+                int record = slot * RECORD_BYTES;
+                int offset = this.records.getInt(record + ID_OFFSET);
+                int bytes = this.records.getInt(record + ID_LENGTH)
+                        * Character.BYTES;
+                grown.put(end, this.ids, offset, bytes);
+                this.records.putInt(record + ID_OFFSET, end);
+                end += bytes;
+            }
+            this.ids = grown;
+            this.idEnd = end;
+            this.idGarbage = 0;
+        }
+        if (2 * needed > this.bucketCount()) {
+            int buckets = Math.max(this.bucketCount(), 2 * INITIAL_CAPACITY);
+            while (buckets < 2 * needed) {
+                buckets = Math.multiplyExact(buckets, 2);
+            }
+            this.index = allocate(Math.multiplyExact(buckets,
+                    Integer.BYTES));
+            int mask = buckets - 1;
+            for (int slot = 0; slot < this.size; slot++) {
+                int bucket = this.hashAt(slot) & mask;
+                while (this.bucketAt(bucket) != 0) {
+                    bucket = (bucket + 1) & mask;
+                }
+                this.setBucket(bucket, slot + 1);
+            }
+        }
+    }
+
+    /**
+     * Appends one entry, assuming there is room for it.
+     *
+     * @param id
+     *            entry id
+     * @param amountCents
+     *            amount in cents
+     * @param currencyCode
+     *            packed currency code
+     * @param type
+     *            entry type
+     * @param createdAtMillis
+     *            creation time
+     * @updates this
+     * @requires the addEntry preconditions hold and records, ids and index
+     *           have room for one more entry with this id
+     */
+    private void append(String id, int amountCents, int currencyCode,
+            EntryType type, long createdAtMillis) {
+        int slot = this.size;
+        int record = slot * RECORD_BYTES;
+        int hash = hashOf(id);
+        for (int i = 0; i < id.length(); i++) {
+            this.ids.putChar(this.idEnd + i * Character.BYTES, id.charAt(i));
+        }
+        this.records.putLong(record + CREATED_AT, createdAtMillis);
+        this.records.putInt(record + ID_OFFSET, this.idEnd);
+        this.records.putInt(record + ID_LENGTH, id.length());
+        this.records.putInt(record + ID_HASH, hash);
+        this.records.putInt(record + AMOUNT, amountCents);
+        this.records.putShort(record + CURRENCY, (short) currencyCode);
+        this.records.put(record + TYPE, (byte) type.ordinal());
+        this.idEnd += id.length() * Character.BYTES;
+        this.setBucket(this.findBucket(id, hash), slot + 1);
+        this.totals.add(currencyCode, type, amountCents);
+        if (this.timeline != null) {
+            this.timeline.add(currencyCode, type, amountCents,
+                    createdAtMillis);
+        }
+        this.contentHash += entryHash(id, amountCents, currencyCode, type);
+        this.size++;
+    }
+
+    /**
+     * Removes the entry at slot, referenced from bucket, by moving the last
+     * record into its place, and returns a copy of it.
+     *
+     * @param slot
+     *            occupied slot
+     * @param bucket
+     *            bucket holding slot + 1
+     * @return copy of the removed entry
+     * @updates this
+     */
+    private LedgerEntry removeSlot(int slot, int bucket) {
+        LedgerEntry entry = this.copyAt(slot);
+        this.deleteBucket(bucket);
+
+        int last = this.size - 1;
+        if (slot != last) {
+            this.setBucket(this.bucketOfSlot(last), slot + 1);
+            int to = slot * RECORD_BYTES;
+            int from = last * RECORD_BYTES;
+            this.records.putLong(to, this.records.getLong(from));
+            this.records.putLong(to + Long.BYTES,
+                    this.records.getLong(from + Long.BYTES));
+            this.records.putLong(to + 2 * Long.BYTES,
+                    this.records.getLong(from + 2 * Long.BYTES));
+            this.records.putLong(to + 3 * Long.BYTES,
+                    this.records.getLong(from + 3 * Long.BYTES));
+        }
+        this.size = last;
+        this.idGarbage += entry.id().length() * Character.BYTES;
+        this.totals.remove(entry.currencyCode(), entry.type(),
+                entry.amountCents());
+        if (this.timeline != null) {
+            this.timeline.remove(entry.currencyCode(), entry.type(),
+                    entry.amountCents(), entry.createdAtMillis());
+        }
+        this.contentHash -= entryHash(entry);
+        return entry;
+    }
+
+    /**
+     * No-argument constructor.
+     *
+     * @ensures this is empty
+     */
+    public WalletLedger5() {
+        this.createNewRep();
+    }
+
+    /**
+     * Gives back all off-heap storage of this, leaving this empty. This
+     * stays usable and allocates new storage when an entry is next added.
+     *
+     * @updates this
+     * @ensures this is empty and holds no off-heap storage
+     */
+    @Override
+    public void close() {
+        this.createNewRep();
+    }
+
+    @Override
+    public void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public WalletLedgerKernel newInstance() {
+        return new WalletLedger5();
+    }
+
+    @Override
+    public void transferFrom(WalletLedgerKernel source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof WalletLedger5
+                : "Violation of: source has dynamic type WalletLedger5";
+
+        WalletLedger5 localSource = (WalletLedger5) source;
+        this.records = localSource.records;
+        this.ids = localSource.ids;
+        this.index = localSource.index;
+        this.size = localSource.size;
+        this.idEnd = localSource.idEnd;
+        this.idGarbage = localSource.idGarbage;
+        this.totals = localSource.totals;
+        this.timeline = localSource.timeline;
+        this.contentHash = localSource.contentHash;
+        this.nextSequence = localSource.nextSequence;
+        localSource.createNewRep();
+    }
+
+    @Override
+    public boolean hasEntry(String id) {
+        assertValidId(id);
+
+        return this.bucketAt(this.findBucket(id, hashOf(id))) != 0;
+    }
+
+    @Override
+    public LedgerEntry entryOrNull(String id) {
+        assertValidId(id);
+
+        int slot = this.bucketAt(this.findBucket(id, hashOf(id))) - 1;
+        if (slot < 0) {
+            return null;
+        }
+        return this.copyAt(slot);
+    }
+
+    @Override
+    public boolean isValidCurrency(String currency) {
+        return CurrencyCodes.isValid(currency);
+    }
+
+    @Override
+    public void addEntry(String id, int amountCents, String currency,
+            EntryType type) {
+        this.addEntryAt(id, amountCents, currency, type,
+                System.currentTimeMillis());
+    }
+
+    @Override
+    public void addEntryAt(String id, int amountCents, String currency,
+            EntryType type, long createdAtMillis) {
+        assertValidId(id);
+        assertPositiveAmount(amountCents);
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+        assert type != null : "Violation of: type is not null";
+        assert !this.hasEntry(id) : "Violation of: not hasEntry(id)";
+
+        this.ensureRoomFor(1, id.length() * Character.BYTES);
+        this.append(id, amountCents, CurrencyCodes.pack(currency), type,
+                createdAtMillis);
+    }
+
+    @Override
+    public LedgerEntry removeEntry(String id) {
+        assertValidId(id);
+        assert this.hasEntry(id) : "Violation of: hasEntry(id)";
+
+        int bucket = this.findBucket(id, hashOf(id));
+        return this.removeSlot(this.bucketAt(bucket) - 1, bucket);
+    }
+
+    @Override
+    public LedgerEntry removeAnyEntry() {
+        assert this.entryCount() > 0 : "Violation of: this is not empty";
+
+        int slot = this.size - 1;
+        return this.removeSlot(slot, this.bucketOfSlot(slot));
+    }
+
+    @Override
+    public int entryCount() {
+        return this.size;
+    }
+
+    @Override
+    public long entrySequence() {
+        return this.nextSequence;
+    }
+
+    @Override
+    public long nextEntrySequence() {
+        long result = this.nextSequence;
+        this.nextSequence++;
+        return result;
+    }
+
+    @Override
+    public void setEntrySequence(long sequence) {
+        assert sequence >= 1 : "Violation of: sequence >= 1";
+
+        this.nextSequence = sequence;
+    }
+
+    /*
+     * Secondary methods overridden for efficiency ----------------------------
+     */
+
+    @Override
+    public void addEntriesAt(String[] ids, int[] amountsCents,
+            String[] currencies, EntryType[] types, long[] createdAtMillis) {
+        assert isValidBatch(this, ids, amountsCents, currencies, types,
+                createdAtMillis)
+                : "Violation of: batch satisfies addEntriesAt preconditions";
+
+        if (ids.length > 0) {
+            int idBytes = 0;
+            for (String id : ids) {
+                idBytes = Math.addExact(idBytes,
+                        id.length() * Character.BYTES);
+            }
+            this.ensureRoomFor(ids.length, idBytes);
+            for (int i = 0; i < ids.length; i++) {
+                this.append(ids[i], amountsCents[i],
+                        CurrencyCodes.pack(currencies[i]), types[i],
+                        createdAtMillis[i]);
+            }
+        }
+    }
+
+    @Override
+    public long contentHash() {
+        return this.contentHash;
+    }
+
+    @Override
+    public void forEachEntry(Consumer<LedgerEntry> action) {
+        assert action != null : "Violation of: action is not null";
+
+        SlotCursor cursor = new SlotCursor();
+        for (int slot = 0; slot < this.size; slot++) {
+            cursor.slot = slot;
+            action.accept(cursor);
+        }
+    }
+
+    @Override
+    public LedgerTotals parallelTotals() {
+        ByteBuffer recordBuffer = this.records;
+        return totalsOfSlots(this.size, (table, slot) -> {
+            int record = slot * RECORD_BYTES;
+            table.add(recordBuffer.getShort(record + CURRENCY),
+                    TYPES[recordBuffer.get(record + TYPE)],
+                    recordBuffer.getInt(record + AMOUNT));
+        });
+    }
+
+    @Override
+    public LedgerTotals balances() {
+        return new LedgerTotals(this.totals);
+    }
+
+    @Override
+    public long totalCreditsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        return this.totals.creditsOf(CurrencyCodes.pack(currency));
+    }
+
+    @Override
+    public long totalDebitsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        return this.totals.debitsOf(CurrencyCodes.pack(currency));
+    }
+
+    @Override
+    public long balanceCentsAsOf(String currency, long instantMillis) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        if (this.timeline == null) {
+            this.timeline = CurrencyTimeline.of(this);
+        }
+        return this.timeline.balanceAsOf(CurrencyCodes.pack(currency),
+                instantMillis);
+    }
+}
@@ -0,0 +1,672 @@
+package components.walletledger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import components.walletledger.WalletLedgerKernel.EntryType;
+
+/**
+ * Append-only write-ahead log of ledger mutations.
+ *
+ * Each mutation is one frame: the payload length as an int, the payload, and
+ * the CRC32 of the payload as an int. A payload starts with a one-byte tag:
+ * ADD (id, amount, packed currency, type, creation time, value of the id
+ * sequence), REMOVE (id), CLEAR, or SEQUENCE (new value of the id sequence).
+ * Ids are written as a short byte count followed by UTF-8 bytes. Since every
+ * ADD carries the sequence, drawing a sequence value for a new id costs no
+ * frame of its own.
+ *
+ * When to force frames to disk is set by a {@link SyncPolicy}. Replay stops
+ * at the first short or corrupt frame, which is what a crash in the middle of
+ * a write leaves behind, and truncates the file there so new frames follow
+ * the last complete one.
+ *
+ * The log methods are safe to call from one writer thread while the group
+ * commit thread flushes in the background. The group commit thread swaps the
+ * buffered frames for an empty buffer under the lock and writes and forces
+ * them outside it, so logging is not held up by the force. Frames are
+ * written at file offsets reserved under the lock, so they land in log order
+ * whichever thread writes them.
+ */
+public final class WalletLedgerJournal implements Closeable {
+
+    /**
+     * When appended frames are forced to stable storage.
+     */
+    public enum SyncPolicy {
+        /**
+         * Every frame is written and forced before the log call returns.
+         */
+        EVERY_OPERATION,
+
+        /**
+         * Frames are buffered and a background thread writes and forces them
+         * together every group commit interval, or sooner when sync is
+         * called or the buffer fills.
+         */
+        GROUP_COMMIT,
+
+        /**
+         * Every frame is written to the file before the log call returns,
+         * and the operating system decides when to force it.
+         */
+        OS_MANAGED
+    }
+
+    /**
+     * Receives the mutations read back by {@link #replay(Handler)}.
+     */
+    public interface Handler {
+
+        /**
+         * Called for an ADD frame.
+         *
+         * @param id
+         *            entry id
+         * @param amountCents
+         *            amount in cents
+         * @param currencyCode
+         *            packed currency code
+         * @param type
+         *            entry type
+         * @param createdAtMillis
+         *            creation time in milliseconds since the epoch
+         * @param nextSequence
+         *            value of the id sequence once the entry was added
+         */
+        void added(String id, int amountCents, int currencyCode,
+                EntryType type, long createdAtMillis, long nextSequence);
+
+        /**
+         * Called for a REMOVE frame.
+         *
+         * @param id
+         *            entry id
+         */
+        void removed(String id);
+
+        /**
+         * Called for a CLEAR frame.
+         */
+        void cleared();
+
+        /**
+         * Called for a SEQUENCE frame.
+         *
+         * @param nextSequence
+         *            new value of the id sequence
+         */
+        void sequenceSet(long nextSequence);
+    }
+
+    /**
+     * Tag of an ADD frame.
+     */
+    private static final byte ADD = 1;
+
+    /**
+     * Tag of a REMOVE frame.
+     */
+    private static final byte REMOVE = 2;
+
+    /**
+     * Tag of a CLEAR frame.
+     */
+    private static final byte CLEAR = 3;
+
+    /**
+     * Tag of a SEQUENCE frame.
+     */
+    private static final byte SEQUENCE = 4;
+
+    /**
+     * Bytes of framing around each payload: length and checksum.
+     */
+    private static final int FRAME_OVERHEAD = 2 * Integer.BYTES;
+
+    /**
+     * Largest number of UTF-8 bytes in a journaled id.
+     */
+    public static final int MAX_ID_BYTES = Short.MAX_VALUE;
+
+    /**
+     * Largest payload, an ADD frame: tag, id length, id bytes, amount,
+     * currency, type, creation time, sequence.
+     */
+    private static final int MAX_PAYLOAD = 1 + Short.BYTES + MAX_ID_BYTES
+            + Integer.BYTES + Short.BYTES + 1 + 2 * Long.BYTES;
+
+    /**
+     * Size of the in-memory frame buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * File the frames are appended to.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Sync policy of this journal.
+     */
+    private final SyncPolicy policy;
+
+    /**
+     * Frames not yet written to the channel.
+     */
+    private ByteBuffer pending;
+
+    /**
+     * Empty buffer swapped with pending by the group commit thread, which
+     * owns it while flushing is true.
+     */
+    private ByteBuffer spare;
+
+    /**
+     * File offset at which the next written frames go.
+     */
+    private long end;
+
+    /**
+     * Whether the group commit thread is writing or forcing a swapped-out
+     * buffer outside the lock.
+     */
+    private boolean flushing;
+
+    /**
+     * Checksum calculator, reused for every frame.
+     */
+    private final CRC32 crc;
+
+    /**
+     * Background flusher, present only for GROUP_COMMIT.
+     */
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Whether bytes have been written to the channel since the last force.
+     */
+    private boolean unforced;
+
+    /**
+     * Failure of the last group commit, reported by the next log call.
+     */
+    private IOException groupCommitFailure;
+
+    /**
+     * Whether the journal has been replayed.
+     */
+    private boolean replayed;
+
+    /**
+     * Opens (or creates) a journal file.
+     *
+     * @param file
+     *            journal file
+     * @param policy
+     *            sync policy
+     * @param groupCommitMillis
+     *            interval between group commits, used only by GROUP_COMMIT
+     * @throws IOException
+     *             if the file cannot be opened
+     * @requires file is not null and policy is not null
+     * @requires policy /= GROUP_COMMIT or groupCommitMillis > 0
+     */
+    public WalletLedgerJournal(Path file, SyncPolicy policy,
+            long groupCommitMillis) throws IOException {
+        assert file != null : "Violation of: file is not null";
+        assert policy != null : "Violation of: policy is not null";
+        assert policy != SyncPolicy.GROUP_COMMIT || groupCommitMillis > 0
+                : "Violation of: groupCommitMillis > 0";
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.policy = policy;
+        this.pending = ByteBuffer.allocate(BUFFER_SIZE);
+        this.spare = ByteBuffer.allocate(BUFFER_SIZE);
+        this.crc = new CRC32();
+        this.end = 0;
+        this.unforced = false;
+        this.flushing = false;
+        this.replayed = false;
+
+        if (policy == SyncPolicy.GROUP_COMMIT) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "wallet-ledger-journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.flusher.scheduleWithFixedDelay(this::groupCommit,
+                    groupCommitMillis, groupCommitMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    /**
+     * Reads every complete frame from the start of the file and passes it to
+     * handler, then truncates any incomplete tail.
+     *
+     * @param handler
+     *            receiver of the replayed mutations
+     * @throws IOException
+     *             if the file cannot be read
+     * @requires replay has not been called before on this journal and no
+     *           frames have been logged yet
+     */
+    public synchronized void replay(Handler handler) throws IOException {
+        assert handler != null : "Violation of: handler is not null";
+        assert !this.replayed : "Violation of: replay has not been called";
+
+        this.replayed = true;
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        ByteBuffer frame = ByteBuffer.allocate(MAX_PAYLOAD + Integer.BYTES);
+        long position = 0;
+        long size = this.channel.size();
+
+        while (position + FRAME_OVERHEAD <= size) {
+            header.clear();
+            while (header.hasRemaining()) {
+                this.channel.read(header, position + header.position());
+            }
+            int length = header.getInt(0);
+            if (length <= 0 || length > MAX_PAYLOAD
+                    || position + FRAME_OVERHEAD + length > size) {
+                break;
+            }
+
+            frame.clear().limit(length + Integer.BYTES);
+            while (frame.hasRemaining()) {
+                this.channel.read(frame, position + Integer.BYTES
+                        + frame.position());
+            }
+            this.crc.reset();
+            this.crc.update(frame.array(), 0, length);
+            if ((int) this.crc.getValue() != frame.getInt(length)) {
+                break;
+            }
+
+            frame.flip().limit(length);
+            dispatch(frame, handler);
+            position += FRAME_OVERHEAD + length;
+        }
+
+        if (position < size) {
+            this.channel.truncate(position);
+        }
+        this.end = position;
+    }
+
+    /**
+     * Decodes one payload and passes it to handler.
+     *
+     * @param payload
+     *            payload bytes, positioned at the tag
+     * @param handler
+     *            receiver of the mutation
+     */
+    private static void dispatch(ByteBuffer payload, Handler handler) {
+        byte tag = payload.get();
+        switch (tag) {
+            case ADD:
+                String id = readId(payload);
+                int amountCents = payload.getInt();
+                int currencyCode = payload.getShort();
+                EntryType type = EntryType.values()[payload.get()];
+                long createdAtMillis = payload.getLong();
+                long nextSequence = payload.getLong();
+                handler.added(id, amountCents, currencyCode, type,
+                        createdAtMillis, nextSequence);
+                break;
+            case REMOVE:
+                handler.removed(readId(payload));
+                break;
+            case CLEAR:
+                handler.cleared();
+                break;
+            case SEQUENCE:
+                handler.sequenceSet(payload.getLong());
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal tag: " + tag);
+        }
+    }
+
+    /**
+     * Reads an id written by putId.
+     *
+     * @param payload
+     *            payload positioned at the id
+     * @return the id
+     */
+    private static String readId(ByteBuffer payload) {
+        int length = Short.toUnsignedInt(payload.getShort());
+        String id = new String(payload.array(), payload.position(), length,
+                StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return id;
+    }
+
+    /**
+     * Makes room in pending for a frame of the given payload length, writing
+     * out buffered frames if needed, and starts the frame.
+     *
+     * @param payloadLength
+     *            payload length
+     * @return offset of the payload within pending
+     * @throws IOException
+     *             if buffered frames cannot be written
+     */
+    private int beginFrame(int payloadLength) throws IOException {
+        assert this.replayed : "Violation of: journal has been replayed";
+
+        if (this.groupCommitFailure != null) {
+            throw new IOException("Group commit failed",
+                    this.groupCommitFailure);
+        }
+        if (this.pending.remaining() < FRAME_OVERHEAD + payloadLength) {
+            this.writePending();
+        }
+        this.pending.putInt(payloadLength);
+        return this.pending.position();
+    }
+
+    /**
+     * Finishes the frame started at payloadStart and applies the sync policy.
+     *
+     * @param payloadStart
+     *            offset of the payload within pending
+     * @throws IOException
+     *             if the frame cannot be written
+     */
+    private void endFrame(int payloadStart) throws IOException {
+        this.crc.reset();
+        this.crc.update(this.pending.array(), payloadStart,
+                this.pending.position() - payloadStart);
+        this.pending.putInt((int) this.crc.getValue());
+
+        if (this.policy == SyncPolicy.EVERY_OPERATION) {
+            this.writePending();
+            this.force();
+        } else if (this.policy == SyncPolicy.OS_MANAGED) {
+            this.writePending();
+        }
+    }
+
+    /**
+     * Writes every byte of buffer to the channel starting at position.
+     *
+     * @param buffer
+     *            bytes to write, from 0 to its position
+     * @param position
+     *            file offset of the first byte
+     * @throws IOException
+     *             if the write fails
+     * @updates buffer
+     * @ensures buffer is empty
+     */
+    private void writeAt(ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer, position + buffer.position());
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes buffered frames to the channel.
+     *
+     * @throws IOException
+     *             if the write fails
+     */
+    private void writePending() throws IOException {
+        int length = this.pending.position();
+        if (length == 0) {
+            return;
+        }
+        this.writeAt(this.pending, this.end);
+        this.end += length;
+        this.unforced = true;
+    }
+
+    /**
+     * Forces written frames to stable storage if any are unforced.
+     *
+     * @throws IOException
+     *             if the force fails
+     */
+    private void force() throws IOException {
+        if (this.unforced) {
+            this.channel.force(false);
+            this.unforced = false;
+        }
+    }
+
+    /**
+     * Waits until the group commit thread is not flushing.
+     *
+     * @throws InterruptedIOException
+     *             if interrupted while waiting
+     * @requires the caller holds the lock of this
+     */
+    private void awaitFlush() throws InterruptedIOException {
+        while (this.flushing) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted waiting for group commit");
+            }
+        }
+    }
+
+    /**
+     * Body of the group commit thread. The buffered frames are swapped out
+     * and given a file offset under the lock; writing and forcing them
+     * happens outside it.
+     */
+    private void groupCommit() {
+        ByteBuffer batch;
+        long position;
+        synchronized (this) {
+            if (!this.channel.isOpen() || this.groupCommitFailure != null
+                    || (this.pending.position() == 0 && !this.unforced)) {
+                return;
+            }
+            batch = this.pending;
+            this.pending = this.spare;
+            this.spare = batch;
+            position = this.end;
+            this.end += batch.position();
+            this.unforced = false;
+            this.flushing = true;
+        }
+
+        IOException failure = null;
+        try {
+            this.writeAt(batch, position);
+            this.channel.force(false);
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        synchronized (this) {
+            if (failure != null) {
+                this.groupCommitFailure = failure;
+            }
+            this.flushing = false;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 id into pending.
+     *
+     * @param bytes
+     *            UTF-8 bytes of the id
+     */
+    private void putId(byte[] bytes) {
+        this.pending.putShort((short) bytes.length);
+        this.pending.put(bytes);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of an id.
+     *
+     * @param id
+     *            entry id
+     * @return UTF-8 bytes
+     * @throws IllegalArgumentException
+     *             if the id is longer than MAX_ID_BYTES in UTF-8
+     */
+    private static byte[] idBytes(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException("Id of " + bytes.length
+                    + " UTF-8 bytes is longer than " + MAX_ID_BYTES);
+        }
+        return bytes;
+    }
+
+    /**
+     * Logs an added entry.
+     *
+     * @param id
+     *            entry id
+     * @param amountCents
+     *            amount in cents
+     * @param currencyCode
+     *            packed currency code
+     * @param type
+     *            entry type
+     * @param createdAtMillis
+     *            creation time in milliseconds since the epoch
+     * @param nextSequence
+     *            value of the id sequence once the entry was added
+     * @throws IllegalArgumentException
+     *             if the id is longer than MAX_ID_BYTES in UTF-8; nothing is
+     *             logged
+     */
+    public synchronized void logAdd(String id, int amountCents,
+            int currencyCode, EntryType type, long createdAtMillis,
+            long nextSequence) {
+        byte[] bytes = idBytes(id);
+        try {
+            int start = this.beginFrame(1 + Short.BYTES + bytes.length
+                    + Integer.BYTES + Short.BYTES + 1 + 2 * Long.BYTES);
+            this.pending.put(ADD);
+            this.putId(bytes);
+            this.pending.putInt(amountCents);
+            this.pending.putShort((short) currencyCode);
+            this.pending.put((byte) type.ordinal());
+            this.pending.putLong(createdAtMillis);
+            this.pending.putLong(nextSequence);
+            this.endFrame(start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Logs a removed entry.
+     *
+     * @param id
+     *            entry id
+     */
+    public synchronized void logRemove(String id) {
+        byte[] bytes = idBytes(id);
+        try {
+            int start = this.beginFrame(1 + Short.BYTES + bytes.length);
+            this.pending.put(REMOVE);
+            this.putId(bytes);
+            this.endFrame(start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Logs that the ledger was cleared.
+     */
+    public synchronized void logClear() {
+        try {
+            int start = this.beginFrame(1);
+            this.pending.put(CLEAR);
+            this.endFrame(start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Logs a new value of the id sequence that was not reached by drawing
+     * values for new entries, which logAdd already records.
+     *
+     * @param nextSequence
+     *            new value of the sequence
+     */
+    public synchronized void logSequence(long nextSequence) {
+        try {
+            int start = this.beginFrame(1 + Long.BYTES);
+            this.pending.put(SEQUENCE);
+            this.pending.putLong(nextSequence);
+            this.endFrame(start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes and forces every frame logged so far, whatever the policy.
+     *
+     * @throws IOException
+     *             if the frames cannot be made durable
+     */
+    public synchronized void sync() throws IOException {
+        this.awaitFlush();
+        this.writePending();
+        this.force();
+    }
+
+    /**
+     * Stops the group commit thread, waiting for a commit in progress to
+     * finish, then syncs and closes the journal.
+     *
+     * @throws IOException
+     *             if the final sync or the close fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.flusher != null) {
+            this.flusher.shutdown();
+            try {
+                this.flusher.awaitTermination(Long.MAX_VALUE,
+                        TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (this.channel.isOpen()) {
+                try {
+                    this.sync();
+                } finally {
+                    this.channel.close();
+                }
+            }
+        }
+    }
+}
@@ -1,10 +1,19 @@
+package components.walletledger;
+
 import components.standard.Standard;
 
 /**
  * Kernel interface for WalletLedger.
  *
  * The kernel provides the minimal operations required to model a
- * wallet ledger as a collection of credit and debit entries.
+ * wallet ledger as a collection of credit and debit entries, together with
+ * a monotonic sequence used to mint fresh entry ids. A new or cleared ledger
+ * has no entries and sequence 1, and transferFrom carries the sequence along
+ * with the entries.
+ *
+ * Every entry carries the time it was created, in milliseconds since the
+ * epoch. The time is descriptive only: two ledgers are equal when their
+ * entries agree on id, amount, currency and type, whatever their times.
  */
 public interface WalletLedgerKernel
         extends Standard<WalletLedgerKernel> {
@@ -46,6 +55,17 @@ public interface WalletLedgerKernel
          */
         String currency();
 
+        /**
+         * Returns the packed form of the currency code, for comparing
+         * currencies as ints.
+         *
+         * @return packed currency code
+         * @ensures result = CurrencyCodes.pack(currency())
+         */
+        default int currencyCode() {
+            return CurrencyCodes.pack(this.currency());
+        }
+
         /**
          * Returns whether this entry is a credit or debit.
          *
@@ -53,6 +73,13 @@ public interface WalletLedgerKernel
          * @ensures type is CREDIT or DEBIT
          */
         EntryType type();
+
+        /**
+         * Returns the time this entry was created.
+         *
+         * @return creation time in milliseconds since the epoch
+         */
+        long createdAtMillis();
     }
 
     /**
@@ -68,6 +95,19 @@ public interface WalletLedgerKernel
      */
     boolean hasEntry(String id);
 
+    /**
+     * Returns the entry with the given id, or null if there is none.
+     *
+     * @param id candidate entry id
+     * @return matching entry or null if none
+     *
+     * @requires id is not empty
+     * @ensures hasEntry(id) implies result.id() = id
+     * @ensures not hasEntry(id) implies result is null
+     * @ensures this is unchanged
+     */
+    LedgerEntry entryOrNull(String id);
+
     /**
      * Reports whether the given currency code is valid for this component.
      *
@@ -93,11 +133,32 @@ public interface WalletLedgerKernel
      * @requires isValidCurrency(currency)
      * @requires type is not null
      * @requires not hasEntry(id)
-     * @ensures this contains a new entry with given fields
+     * @ensures this contains a new entry with given fields, created at the
+     *          current time
      */
     void addEntry(String id, int amountCents,
                   String currency, EntryType type);
 
+    /**
+     * Adds a new ledger entry with the given creation time.
+     *
+     * @param id unique entry id
+     * @param amountCents positive amount in cents
+     * @param currency 3-letter uppercase currency code
+     * @param type credit or debit
+     * @param createdAtMillis creation time in milliseconds since the epoch
+     *
+     * @updates this
+     * @requires id is not empty
+     * @requires amountCents > 0
+     * @requires isValidCurrency(currency)
+     * @requires type is not null
+     * @requires not hasEntry(id)
+     * @ensures this contains a new entry with given fields
+     */
+    void addEntryAt(String id, int amountCents, String currency,
+            EntryType type, long createdAtMillis);
+
     /**
      * Removes and returns the entry with the given id.
      *
@@ -129,4 +190,40 @@ public interface WalletLedgerKernel
      * @ensures result >= 0
      */
     int entryCount();
+
+    /**
+     * Reports the next value of this ledger's id sequence without advancing
+     * it.
+     *
+     * @return next sequence value
+     *
+     * @ensures result = this.sequence
+     */
+    long entrySequence();
+
+    /**
+     * Returns the next value of this ledger's id sequence and advances it.
+     *
+     * @return next sequence value
+     *
+     * @updates this.sequence
+     * @ensures result = #this.sequence
+     * @ensures this.sequence = #this.sequence + 1
+     * @ensures the entries of this are unchanged
+     */
+    long nextEntrySequence();
+
+    /**
+     * Sets this ledger's id sequence, for putting a sequence back after the
+     * entries of this have been moved through another ledger or restored
+     * from storage.
+     *
+     * @param sequence new sequence value
+     *
+     * @updates this.sequence
+     * @requires sequence >= 1
+     * @ensures this.sequence = sequence
+     * @ensures the entries of this are unchanged
+     */
+    void setEntrySequence(long sequence);
 }
@@ -0,0 +1,412 @@
+package components.walletledger;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Per-operation latency histograms, call counts and entries-scanned counts
+ * for ledgers wrapped in InstrumentedWalletLedger.
+ *
+ * Recording is lock-free and allocates nothing: each call adds to one
+ * bucket of an AtomicLongArray and to a few striped counters. Latencies are
+ * kept in log-linear buckets, as in HdrHistogram, so any percentile is
+ * reported within 1/16 (about 6%) of the true value. Latencies above about
+ * 18 minutes are counted as 2^40 - 1 nanoseconds.
+ *
+ * One WalletLedgerMetrics may be shared by any number of ledgers and
+ * threads. Reads through {@link #stats(Operation)}, {@link #snapshot()} or
+ * JMX are not atomic with concurrent recording, so a busy operation's
+ * figures may differ by a few calls from one another.
+ */
+public final class WalletLedgerMetrics implements WalletLedgerMetricsMXBean {
+
+    /**
+     * Operations that are timed. Several WalletLedger methods may share one
+     * operation, as listed on each constant.
+     */
+    public enum Operation {
+        /** hasEntry. */
+        HAS_ENTRY,
+        /** entryOrNull and findById. */
+        FIND_BY_ID,
+        /** addEntry and addEntryAt. */
+        ADD_ENTRY,
+        /** addEntries and addEntriesAt. */
+        ADD_ENTRIES,
+        /** removeEntry and removeAnyEntry. */
+        REMOVE_ENTRY,
+        /** deposit. */
+        DEPOSIT,
+        /** withdraw and tryWithdraw. */
+        WITHDRAW,
+        /** transferTo. */
+        TRANSFER,
+        /**
+         * balanceCents, balanceCentsLong, hasSufficientFunds and balances.
+         */
+        BALANCE,
+        /**
+         * totalCreditsCents, totalDebitsCents, their long forms and
+         * parallelTotals.
+         */
+        TOTALS,
+        /** balanceCentsAsOf and netFlowCents. */
+        BALANCE_AS_OF,
+        /** forEachEntry. */
+        FOR_EACH_ENTRY,
+        /** exportTo. */
+        EXPORT
+    }
+
+    /**
+     * Figures for one operation at one moment.
+     *
+     * @param count
+     *            number of calls
+     * @param totalNanos
+     *            sum of call latencies
+     * @param maxNanos
+     *            largest call latency
+     * @param p50Nanos
+     *            median latency
+     * @param p90Nanos
+     *            90th percentile latency
+     * @param p99Nanos
+     *            99th percentile latency
+     * @param p999Nanos
+     *            99.9th percentile latency
+     * @param entriesScanned
+     *            entries visited by the calls
+     */
+    public record OperationStats(long count, long totalNanos, long maxNanos,
+            long p50Nanos, long p90Nanos, long p99Nanos, long p999Nanos,
+            long entriesScanned) {
+
+        /**
+         * Returns the mean latency.
+         *
+         * @return totalNanos / count, or 0 if there were no calls
+         */
+        public long meanNanos() {
+            return this.count == 0 ? 0 : this.totalNanos / this.count;
+        }
+    }
+
+    /**
+     * Bits of precision below the leading bit of a latency.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Largest latency told apart from larger ones.
+     */
+    private static final long MAX_TRACKED_NANOS = (1L << 40) - 1;
+
+    /**
+     * Number of latency buckets.
+     */
+    private static final int BUCKET_COUNT = bucketOf(MAX_TRACKED_NANOS) + 1;
+
+    /**
+     * Value returned by start when recording is off.
+     */
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    /**
+     * Latency histogram and counters of one operation.
+     *
+     * Convention:
+     * - buckets[b] is the number of recorded latencies in bucket b
+     */
+    private static final class OperationRecorder {
+
+        /**
+         * Call count per latency bucket.
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(
+                BUCKET_COUNT);
+
+        /**
+         * Sum of latencies.
+         */
+        private final LongAdder totalNanos = new LongAdder();
+
+        /**
+         * Largest latency.
+         */
+        private final LongAccumulator maxNanos = new LongAccumulator(
+                Math::max, 0);
+
+        /**
+         * Entries visited.
+         */
+        private final LongAdder entriesScanned = new LongAdder();
+
+        /**
+         * Records one call.
+         *
+         * @param nanos
+         *            latency of the call
+         * @param scanned
+         *            entries visited by the call
+         */
+        private void record(long nanos, long scanned) {
+            long clamped = Math.min(Math.max(nanos, 0), MAX_TRACKED_NANOS);
+            this.buckets.incrementAndGet(bucketOf(clamped));
+            this.totalNanos.add(clamped);
+            this.maxNanos.accumulate(clamped);
+            if (scanned != 0) {
+                this.entriesScanned.add(scanned);
+            }
+        }
+
+        /**
+         * Returns the current figures.
+         *
+         * @return figures of this operation
+         */
+        private OperationStats stats() {
+            long[] counts = new long[BUCKET_COUNT];
+            long count = 0;
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                counts[b] = this.buckets.get(b);
+                count += counts[b];
+            }
+            long max = this.maxNanos.get();
+            return new OperationStats(count, this.totalNanos.sum(), max,
+                    percentile(counts, count, 0.5, max),
+                    percentile(counts, count, 0.9, max),
+                    percentile(counts, count, 0.99, max),
+                    percentile(counts, count, 0.999, max),
+                    this.entriesScanned.sum());
+        }
+
+        /**
+         * Discards everything recorded.
+         */
+        private void reset() {
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                this.buckets.set(b, 0);
+            }
+            this.totalNanos.reset();
+            this.maxNanos.reset();
+            this.entriesScanned.reset();
+        }
+    }
+
+    /**
+     * Recorder of each operation, by ordinal.
+     */
+    private final OperationRecorder[] recorders;
+
+    /**
+     * Whether operations are recorded.
+     */
+    private volatile boolean enabled = true;
+
+    /**
+     * No-argument constructor.
+     *
+     * @ensures this records operations and has recorded none
+     */
+    public WalletLedgerMetrics() {
+        Operation[] operations = Operation.values();
+        this.recorders = new OperationRecorder[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            this.recorders[i] = new OperationRecorder();
+        }
+    }
+
+    /**
+     * Returns the latency bucket of a value.
+     *
+     * @param nanos
+     *            latency, 0 .. MAX_TRACKED_NANOS
+     * @return bucket index
+     */
+    private static int bucketOf(long nanos) {
+        if (nanos < 2 * SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos)
+                - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS
+                + (int) ((nanos >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Returns the largest value that falls in a bucket.
+     *
+     * @param bucket
+     *            bucket index
+     * @return upper bound of bucket
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    /**
+     * Returns a percentile of a histogram.
+     *
+     * @param counts
+     *            count per bucket
+     * @param total
+     *            sum of counts
+     * @param fraction
+     *            percentile as a fraction, 0 < fraction <= 1
+     * @param max
+     *            largest recorded value
+     * @return upper bound of the bucket holding the percentile, at most max
+     */
+    private static long percentile(long[] counts, long total,
+            double fraction, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        int bucket = 0;
+        while (seen + counts[bucket] < rank) {
+            seen += counts[bucket];
+            bucket++;
+        }
+        return Math.min(upperBoundOf(bucket), max);
+    }
+
+    /**
+     * Returns the start time of a call to be recorded, or a marker telling
+     * {@link #record} to do nothing if recording is off.
+     *
+     * @return start token for record
+     */
+    long start() {
+        if (!this.enabled) {
+            return NOT_STARTED;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records one call that began at start.
+     *
+     * @param operation
+     *            operation called
+     * @param start
+     *            value returned by {@link #start()} before the call
+     * @param scanned
+     *            entries visited by the call
+     */
+    void record(Operation operation, long start, long scanned) {
+        if (start != NOT_STARTED) {
+            this.recorders[operation.ordinal()]
+                    .record(System.nanoTime() - start, scanned);
+        }
+    }
+
+    /**
+     * Returns the figures of one operation.
+     *
+     * @param operation
+     *            operation
+     * @return its current figures
+     * @requires operation is not null
+     */
+    public OperationStats stats(Operation operation) {
+        assert operation != null : "Violation of: operation is not null";
+
+        return this.recorders[operation.ordinal()].stats();
+    }
+
+    /**
+     * Returns the figures of every operation.
+     *
+     * @return figures by operation
+     */
+    public Map<Operation, OperationStats> snapshot() {
+        Map<Operation, OperationStats> result = new EnumMap<>(
+                Operation.class);
+        for (Operation operation : Operation.values()) {
+            result.put(operation, this.stats(operation));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Returns one figure of every operation, keyed by operation name.
+     *
+     * @param figure
+     *            figure to report
+     * @return figure by operation name
+     */
+    private Map<String, Long> figure(ToLongFunction<OperationStats> figure) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            result.put(operation.name(),
+                    figure.applyAsLong(this.stats(operation)));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        return this.figure(OperationStats::count);
+    }
+
+    @Override
+    public Map<String, Long> getMeanNanos() {
+        return this.figure(OperationStats::meanNanos);
+    }
+
+    @Override
+    public Map<String, Long> getP50Nanos() {
+        return this.figure(OperationStats::p50Nanos);
+    }
+
+    @Override
+    public Map<String, Long> getP99Nanos() {
+        return this.figure(OperationStats::p99Nanos);
+    }
+
+    @Override
+    public Map<String, Long> getMaxNanos() {
+        return this.figure(OperationStats::maxNanos);
+    }
+
+    @Override
+    public Map<String, Long> getEntriesScanned() {
+        return this.figure(OperationStats::entriesScanned);
+    }
+
+    @Override
+    public void reset() {
+        for (OperationRecorder recorder : this.recorders) {
+            recorder.reset();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package components.walletledger;
+
+import java.util.Map;
+
+/**
+ * JMX view of a WalletLedgerMetrics. Register a WalletLedgerMetrics with
+ * the platform MBean server to publish it, for example:
+ *
+ * <pre>
+ * ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+ *         new ObjectName("components.walletledger:type=Metrics"));
+ * </pre>
+ *
+ * Every map is keyed by operation name and holds every operation.
+ */
+public interface WalletLedgerMetricsMXBean {
+
+    /**
+     * Returns whether operations are being recorded.
+     *
+     * @return true iff recording is on
+     */
+    boolean isEnabled();
+
+    /**
+     * Turns recording on or off.
+     *
+     * @param enabled
+     *            true to record operations
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Returns the number of calls of each operation.
+     *
+     * @return call counts
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * Returns the mean latency of each operation.
+     *
+     * @return mean latencies in nanoseconds
+     */
+    Map<String, Long> getMeanNanos();
+
+    /**
+     * Returns the median latency of each operation.
+     *
+     * @return 50th percentile latencies in nanoseconds
+     */
+    Map<String, Long> getP50Nanos();
+
+    /**
+     * Returns the 99th percentile latency of each operation.
+     *
+     * @return 99th percentile latencies in nanoseconds
+     */
+    Map<String, Long> getP99Nanos();
+
+    /**
+     * Returns the largest latency of each operation.
+     *
+     * @return maximum latencies in nanoseconds
+     */
+    Map<String, Long> getMaxNanos();
+
+    /**
+     * Returns the number of entries visited by each operation.
+     *
+     * @return entries scanned
+     */
+    Map<String, Long> getEntriesScanned();
+
+    /**
+     * Discards everything recorded so far.
+     */
+    void reset();
+}
@@ -0,0 +1,747 @@
+package components.walletledger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Secondary implementation of {@link WalletLedger}.
+ *
+ * Implements all enhanced-interface methods using only kernel and Standard
+ * methods.
+ */
+public abstract class WalletLedgerSecondary implements WalletLedger {
+
+    /**
+     * Lock taken first by transfers between two ledgers whose identity hash
+     * codes are equal, so that they still lock in a single order.
+     */
+    private static final Object TRANSFER_TIE_LOCK = new Object();
+
+    /**
+     * Largest number of entries shown by toString.
+     */
+    private static final int TO_STRING_LIMIT = 100;
+
+    /**
+     * Largest number of ids exportTo holds in memory; larger ledgers are
+     * sorted in runs of this many ids, spilled to temporary files, and
+     * merged.
+     */
+    private static final int EXPORT_RUN = 1 << 18;
+
+    /**
+     * Smallest number of entries that totalsOfSlots and totalsOfEntries split
+     * across the common ForkJoinPool; below it, forking costs more than the
+     * scan.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    /**
+     * Multiplier spreading the currency and type of an entry over 64 bits
+     * (the 64-bit golden ratio).
+     */
+    private static final long ENTRY_HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * First multiplier of the MurmurHash3 64-bit finalizer.
+     */
+    private static final long FMIX_FIRST = 0xFF51AFD7ED558CCDL;
+
+    /**
+     * Second multiplier of the MurmurHash3 64-bit finalizer.
+     */
+    private static final long FMIX_SECOND = 0xC4CEB9FE1A85EC53L;
+
+    /**
+     * Returns the 64-bit hash of one entry used by contentHash.
+     *
+     * @param id
+     *            entry id
+     * @param amountCents
+     *            amount in cents
+     * @param currencyCode
+     *            packed currency code
+     * @param type
+     *            entry type
+     * @return hash of the entry's id, amount, currency and type
+     */
+    protected static long entryHash(String id, int amountCents,
+            int currencyCode, EntryType type) {
+        long h = ((long) id.hashCode() << Integer.SIZE)
+                ^ Integer.toUnsignedLong(amountCents);
+        h ^= (((long) currencyCode << 1) | type.ordinal())
+                * ENTRY_HASH_MULTIPLIER;
+        h = (h ^ (h >>> 33)) * FMIX_FIRST;
+        h = (h ^ (h >>> 33)) * FMIX_SECOND;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Returns the 64-bit hash of one entry used by contentHash.
+     *
+     * @param entry
+     *            ledger entry
+     * @return hash of the entry's id, amount, currency and type
+     */
+    protected static long entryHash(LedgerEntry entry) {
+        return entryHash(entry.id(), entry.amountCents(),
+                entry.currencyCode(), entry.type());
+    }
+
+    /**
+     * Returns the totals of the entries in slots 0 .. size - 1 of a dense
+     * representation, scanning the slots in parallel when there are at least
+     * PARALLEL_THRESHOLD of them. The slot range is split by the spliterator
+     * of IntStream.range, each worker fills its own CurrencyTotalsTable, and
+     * the tables are added together as the workers join.
+     *
+     * @param size
+     *            number of occupied slots
+     * @param accumulator
+     *            records the entry of one slot into a table
+     * @return totals of the entries in the slots
+     * @requires size >= 0 and accumulator only reads the representation
+     */
+    static LedgerTotals totalsOfSlots(int size,
+            ObjIntConsumer<CurrencyTotalsTable> accumulator) {
+        IntStream slots = IntStream.range(0, size);
+        if (size >= PARALLEL_THRESHOLD) {
+            slots = slots.parallel();
+        }
+        return new LedgerTotals(slots.collect(CurrencyTotalsTable::new,
+                accumulator, CurrencyTotalsTable::addAll));
+    }
+
+    /**
+     * Returns the totals of a collection of entries, scanning it in parallel
+     * when it has at least PARALLEL_THRESHOLD entries and its spliterator
+     * can split.
+     *
+     * @param entries
+     *            entries to total
+     * @return totals of entries
+     * @requires entries is not null
+     */
+    static LedgerTotals totalsOfEntries(
+            Collection<? extends LedgerEntry> entries) {
+        Stream<? extends LedgerEntry> stream = entries.stream();
+        if (entries.size() >= PARALLEL_THRESHOLD) {
+            stream = stream.parallel();
+        }
+        return new LedgerTotals(stream.collect(CurrencyTotalsTable::new,
+                (table, entry) -> table.add(entry.currencyCode(),
+                        entry.type(), entry.amountCents()),
+                CurrencyTotalsTable::addAll));
+    }
+
+    /**
+     * Checks whether the id satisfies the client contract.
+     *
+     * @param id
+     *            entry id
+     */
+    private static void assertValidId(String id) {
+        assert id != null && !id.isBlank() : "Violation of: id is not empty";
+    }
+
+    /**
+     * Checks whether the amount satisfies the client contract.
+     *
+     * @param amountCents
+     *            amount in cents
+     */
+    private static void assertPositiveAmount(int amountCents) {
+        assert amountCents > 0 : "Violation of: amountCents > 0";
+    }
+
+    /**
+     * Reports whether a batch satisfies the preconditions of addEntries for
+     * the given ledger.
+     *
+     * @param ledger ledger the batch is added to
+     * @param ids unique entry ids
+     * @param amountsCents positive amounts in cents
+     * @param currencies currency codes
+     * @param types credit or debit per row
+     * @return true iff the batch may be added to ledger
+     */
+    protected static boolean isValidBatch(WalletLedgerKernel ledger,
+            String[] ids, int[] amountsCents, String[] currencies,
+            EntryType[] types) {
+        if (ids == null || amountsCents == null || currencies == null
+                || types == null || amountsCents.length != ids.length
+                || currencies.length != ids.length
+                || types.length != ids.length) {
+            return false;
+        }
+
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == null || ids[i].isBlank() || amountsCents[i] <= 0
+                    || !ledger.isValidCurrency(currencies[i])
+                    || types[i] == null || ledger.hasEntry(ids[i])
+                    || !seen.add(ids[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reports whether a batch satisfies the preconditions of addEntriesAt
+     * for the given ledger.
+     *
+     * @param ledger ledger the batch is added to
+     * @param ids unique entry ids
+     * @param amountsCents positive amounts in cents
+     * @param currencies currency codes
+     * @param types credit or debit per row
+     * @param createdAtMillis creation time per row
+     * @return true iff the batch may be added to ledger
+     */
+    protected static boolean isValidBatch(WalletLedgerKernel ledger,
+            String[] ids, int[] amountsCents, String[] currencies,
+            EntryType[] types, long[] createdAtMillis) {
+        return ids != null && createdAtMillis != null
+                && createdAtMillis.length == ids.length
+                && isValidBatch(ledger, ids, amountsCents, currencies, types);
+    }
+
+    /**
+     * Reports whether two entries have the same observable state.
+     *
+     * @param first first entry
+     * @param second second entry
+     * @return true iff the entries match field-for-field
+     */
+    private static boolean sameEntry(LedgerEntry first, LedgerEntry second) {
+        return first != null && second != null && first.id().equals(second.id())
+                && first.amountCents() == second.amountCents()
+                && first.currencyCode() == second.currencyCode()
+                && first.type() == second.type();
+    }
+
+    /**
+     * Appends the deterministic text form of one entry to text.
+     *
+     * @param text
+     *            text being built
+     * @param entry
+     *            ledger entry
+     * @updates text
+     */
+    private static void appendEntryText(StringBuilder text, LedgerEntry entry) {
+        text.append(entry.id()).append('|').append(entry.type()).append('|')
+                .append(entry.currency()).append('|')
+                .append(entry.amountCents());
+    }
+
+    /**
+     * Text form of one entry, kept with its id so that toString can order
+     * its lines by id after the pass over the entries that built them.
+     *
+     * @param id
+     *            entry id
+     * @param text
+     *            text form of the entry, see appendEntryText
+     */
+    private record EntryText(String id, String text) {
+
+        /**
+         * Orders entry texts by increasing id.
+         */
+        static final Comparator<EntryText> BY_ID = Comparator
+                .comparing(EntryText::id);
+
+        /**
+         * Returns the text form of entry.
+         *
+         * @param entry
+         *            ledger entry, possibly a reused view
+         * @return text of entry, independent of entry
+         */
+        static EntryText of(LedgerEntry entry) {
+            StringBuilder text = new StringBuilder();
+            appendEntryText(text, entry);
+            return new EntryText(entry.id(), text.toString());
+        }
+    }
+
+    /**
+     * Returns a fresh id not currently used in this ledger.
+     *
+     * <p>Ids are minted from the kernel sequence, so the loop only repeats
+     * when a client has added an entry using the same "E" + number form.
+     *
+     * @return unused entry id
+     * @updates this.sequence
+     * @ensures result is not empty and not already in this
+     */
+    protected final String freshEntryId() {
+        String id = "E" + this.nextEntrySequence();
+
+        while (this.hasEntry(id)) {
+            id = "E" + this.nextEntrySequence();
+        }
+
+        return id;
+    }
+
+    @Override
+    public final int balanceCents(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        return Math.toIntExact(this.balanceCentsLong(currency));
+    }
+
+    @Override
+    public long balanceCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        return this.totalCreditsCentsLong(currency)
+                - this.totalDebitsCentsLong(currency);
+    }
+
+    @Override
+    public final boolean hasSufficientFunds(int debitCents,
+            String currency) {
+
+        assertPositiveAmount(debitCents);
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        return this.balanceCentsLong(currency) >= debitCents;
+    }
+
+    @Override
+    public final void deposit(int amountCents, String currency) {
+        assertPositiveAmount(amountCents);
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        this.addEntry(this.freshEntryId(), amountCents, currency,
+                EntryType.CREDIT);
+    }
+
+    @Override
+    public final void withdraw(int amountCents, String currency) {
+        assertPositiveAmount(amountCents);
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        assert this.hasSufficientFunds(amountCents, currency)
+                : "Violation of: hasSufficientFunds(amountCents, currency)";
+
+        /*
+         * The debit itself goes through the atomic check-and-debit, so the
+         * outcome does not depend on whether assertions are enabled: a
+         * withdrawal that is not covered when it is made always throws
+         */
+        if (this.tryWithdraw(amountCents, currency)
+                != WithdrawResult.DEBITED) {
+            throw new IllegalStateException("Insufficient funds to withdraw "
+                    + amountCents + " " + currency);
+        }
+    }
+
+    @Override
+    public WithdrawResult tryWithdraw(int amountCents,
+            String currency) {
+        assertPositiveAmount(amountCents);
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        if (this.balanceCentsLong(currency) < amountCents) {
+            return WithdrawResult.INSUFFICIENT_FUNDS;
+        }
+
+        this.addEntry(this.freshEntryId(), amountCents, currency,
+                EntryType.DEBIT);
+        return WithdrawResult.DEBITED;
+    }
+
+    /**
+     * Adds a DEBIT entry with the given id only if the current balance covers
+     * it. The check and the add are one atomic step with respect to any
+     * other change to this that could lower the balance.
+     *
+     * @param id new entry id
+     * @param amountCents positive amount
+     * @param currency currency code
+     * @return true iff the entry was added
+     * @updates this
+     * @requires id is not empty and not hasEntry(id)
+     * @requires amountCents > 0 and isValidCurrency(currency)
+     * @ensures if #this.balanceCents(currency) >= amountCents then this
+     *          contains #this plus the DEBIT entry and result = true, else
+     *          this = #this and result = false
+     */
+    protected boolean addDebitIfCovered(String id, int amountCents,
+            String currency) {
+        if (this.balanceCentsLong(currency) < amountCents) {
+            return false;
+        }
+
+        this.addEntry(id, amountCents, currency, EntryType.DEBIT);
+        return true;
+    }
+
+    /**
+     * Completes transferTo once both ledgers are locked. A subclass that
+     * locks something other than the ledger objects overrides transferTo
+     * and calls this once it holds its locks.
+     *
+     * @param destination ledger receiving the funds
+     * @param amountCents positive amount
+     * @param currency currency code
+     * @return DEBITED if the entries were added, otherwise
+     *         INSUFFICIENT_FUNDS
+     * @updates this, destination
+     * @ensures if adding the CREDIT to destination throws, the DEBIT is
+     *          removed from this before the exception propagates
+     */
+    protected final WithdrawResult transferLocked(WalletLedger destination,
+            int amountCents, String currency) {
+        String id = "T" + this.nextEntrySequence();
+
+        while (this.hasEntry(id) || destination.hasEntry(id)) {
+            id = "T" + this.nextEntrySequence();
+        }
+
+        if (!this.addDebitIfCovered(id, amountCents, currency)) {
+            return WithdrawResult.INSUFFICIENT_FUNDS;
+        }
+
+        try {
+            destination.addEntry(id, amountCents, currency,
+                    EntryType.CREDIT);
+        } catch (RuntimeException | Error e) {
+            this.removeEntry(id);
+            throw e;
+        }
+        return WithdrawResult.DEBITED;
+    }
+
+    @Override
+    public WithdrawResult transferTo(WalletLedger destination,
+            int amountCents, String currency) {
+        assert destination != null : "Violation of: destination is not null";
+        assert destination != this : "Violation of: destination is not this";
+        assertPositiveAmount(amountCents);
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        int thisHash = System.identityHashCode(this);
+        int destinationHash = System.identityHashCode(destination);
+        Object first = this;
+        Object second = destination;
+
+        if (thisHash > destinationHash) {
+            first = destination;
+            second = this;
+        } else if (thisHash == destinationHash) {
+            synchronized (TRANSFER_TIE_LOCK) {
+                synchronized (first) {
+                    synchronized (second) {
+                        return this.transferLocked(destination, amountCents,
+                                currency);
+                    }
+                }
+            }
+        }
+
+        synchronized (first) {
+            synchronized (second) {
+                return this.transferLocked(destination, amountCents,
+                        currency);
+            }
+        }
+    }
+
+    @Override
+    public void addEntries(String[] ids, int[] amountsCents,
+            String[] currencies, EntryType[] types) {
+        assert isValidBatch(this, ids, amountsCents, currencies, types)
+                : "Violation of: batch satisfies the addEntries preconditions";
+
+        long[] createdAtMillis = new long[ids.length];
+        Arrays.fill(createdAtMillis, System.currentTimeMillis());
+        this.addEntriesAt(ids, amountsCents, currencies, types,
+                createdAtMillis);
+    }
+
+    @Override
+    public void addEntriesAt(String[] ids, int[] amountsCents,
+            String[] currencies, EntryType[] types, long[] createdAtMillis) {
+        assert isValidBatch(this, ids, amountsCents, currencies, types,
+                createdAtMillis)
+                : "Violation of: batch satisfies addEntriesAt preconditions";
+
+        for (int i = 0; i < ids.length; i++) {
+            this.addEntryAt(ids[i], amountsCents[i], currencies[i], types[i],
+                    createdAtMillis[i]);
+        }
+    }
+
+    @Override
+    public void forEachEntry(Consumer<LedgerEntry> action) {
+        assert action != null : "Violation of: action is not null";
+
+        long sequence = this.entrySequence();
+        WalletLedgerKernel temp = this.newInstance();
+        LedgerEntry[] drained = new LedgerEntry[this.entryCount()];
+
+        for (int i = 0; i < drained.length; i++) {
+            LedgerEntry entry = this.removeAnyEntry();
+
+            temp.addEntryAt(entry.id(), entry.amountCents(),
+                    entry.currency(), entry.type(), entry.createdAtMillis());
+            drained[i] = entry;
+        }
+
+        /*
+         * temp now holds exactly the entries of #this, so swap it back in
+         * whole rather than moving each entry a second time, and only then
+         * run action, so this is whole again even if action throws
+         */
+        this.transferFrom(temp);
+        this.setEntrySequence(sequence);
+
+        for (LedgerEntry entry : drained) {
+            action.accept(entry);
+        }
+    }
+
+    @Override
+    public final int totalCreditsCents(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        return Math.toIntExact(this.totalCreditsCentsLong(currency));
+    }
+
+    @Override
+    public long totalCreditsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        int code = CurrencyCodes.pack(currency);
+        long[] total = new long[1];
+
+        this.forEachEntry(entry -> {
+            if (entry.type() == EntryType.CREDIT
+                    && entry.currencyCode() == code) {
+                total[0] += entry.amountCents();
+            }
+        });
+
+        return total[0];
+    }
+
+    @Override
+    public final int totalDebitsCents(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        return Math.toIntExact(this.totalDebitsCentsLong(currency));
+    }
+
+    @Override
+    public long totalDebitsCentsLong(String currency) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        int code = CurrencyCodes.pack(currency);
+        long[] total = new long[1];
+
+        this.forEachEntry(entry -> {
+            if (entry.type() == EntryType.DEBIT
+                    && entry.currencyCode() == code) {
+                total[0] += entry.amountCents();
+            }
+        });
+
+        return total[0];
+    }
+
+    @Override
+    public LedgerTotals parallelTotals() {
+        CurrencyTotalsTable table = new CurrencyTotalsTable();
+
+        this.forEachEntry(entry -> table.add(entry.currencyCode(),
+                entry.type(), entry.amountCents()));
+
+        return new LedgerTotals(table);
+    }
+
+    @Override
+    public LedgerTotals balances() {
+        return this.parallelTotals();
+    }
+
+    @Override
+    public long balanceCentsAsOf(String currency, long instantMillis) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+
+        int code = CurrencyCodes.pack(currency);
+        long[] balance = new long[1];
+
+        this.forEachEntry(entry -> {
+            if (entry.currencyCode() == code
+                    && entry.createdAtMillis() <= instantMillis) {
+                if (entry.type() == EntryType.CREDIT) {
+                    balance[0] += entry.amountCents();
+                } else {
+                    balance[0] -= entry.amountCents();
+                }
+            }
+        });
+
+        return balance[0];
+    }
+
+    @Override
+    public final long netFlowCents(String currency, long fromMillis,
+            long toMillis) {
+        assert currency != null : "Violation of: currency is not null";
+        assert this.isValidCurrency(currency)
+                : "Violation of: isValidCurrency(currency)";
+        assert fromMillis <= toMillis : "Violation of: fromMillis <= toMillis";
+
+        return this.balanceCentsAsOf(currency, toMillis)
+                - this.balanceCentsAsOf(currency, fromMillis);
+    }
+
+    @Override
+    public long contentHash() {
+        long[] hash = new long[1];
+
+        this.forEachEntry(entry -> hash[0] += entryHash(entry));
+
+        return hash[0];
+    }
+
+    @Override
+    public final LedgerEntry findById(String id) {
+        assertValidId(id);
+
+        return this.entryOrNull(id);
+    }
+
+    @Override
+    public final void exportTo(Appendable out) throws IOException {
+        assert out != null : "Violation of: out is not null";
+
+        StringBuilder line = new StringBuilder();
+        try (SortedIdRuns ids = new SortedIdRuns(EXPORT_RUN)) {
+            this.forEachEntry(entry -> ids.add(entry.id()));
+            ids.forEachSorted(id -> {
+                LedgerEntry entry = this.entryOrNull(id);
+                if (entry != null) {
+                    line.setLength(0);
+                    appendEntryText(line, entry);
+                    out.append(line.append('\n'));
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the entries with the TO_STRING_LIMIT smallest ids, in id
+     * order, followed by the number of entries left out. Only those entries
+     * are held while the text is built, so a large ledger is safe to log,
+     * and the text comes from a single pass, so it is consistent even while
+     * another thread changes a concurrent implementation.
+     */
+    @Override
+    public final String toString() {
+        PriorityQueue<EntryText> smallest = new PriorityQueue<>(
+                EntryText.BY_ID.reversed());
+        int[] count = new int[1];
+
+        this.forEachEntry(entry -> {
+            count[0]++;
+            if (smallest.size() < TO_STRING_LIMIT) {
+                smallest.add(EntryText.of(entry));
+            } else if (entry.id().compareTo(smallest.peek().id()) < 0) {
+                smallest.poll();
+                smallest.add(EntryText.of(entry));
+            }
+        });
+        EntryText[] kept = smallest.toArray(new EntryText[0]);
+        Arrays.sort(kept, EntryText.BY_ID);
+
+        StringBuilder text = new StringBuilder("WalletLedger[");
+        for (int i = 0; i < kept.length; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(kept[i].text());
+        }
+        int omitted = count[0] - kept.length;
+        if (omitted > 0) {
+            text.append(", ... (").append(omitted).append(" more)");
+        }
+        return text.append(']').toString();
+    }
+
+    @Override
+    public final boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof WalletLedger)) {
+            return false;
+        }
+
+        WalletLedger other = (WalletLedger) obj;
+
+        if (this.entryCount() != other.entryCount()
+                || this.contentHash() != other.contentHash()) {
+            return false;
+        }
+
+        boolean[] same = {true};
+
+        this.forEachEntry(entry -> {
+            if (same[0]) {
+                same[0] = sameEntry(entry, other.findById(entry.id()));
+            }
+        });
+
+        return same[0];
+    }
+
+    @Override
+    public final int hashCode() {
+        return Long.hashCode(this.contentHash());
+    }
+}
@@ -0,0 +1,778 @@
+package components.walletledger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import components.walletledger.WalletLedgerKernel.EntryType;
+import components.walletledger.WalletLedgerKernel.LedgerEntry;
+
+/**
+ * Read-only, memory-mapped snapshot of a ledger.
+ *
+ * File layout (all values little-endian):
+ * <ol>
+ * <li>header of {@link #HEADER_BYTES} bytes: magic, version, entry count,
+ * currency count, next sequence, index bucket count, id byte count</li>
+ * <li>currency table: for each currency in increasing packed order, the
+ * packed code, entry count, total credits and total debits</li>
+ * <li>entry columns: creation times (long), amounts (int), packed currencies
+ * (short), types (byte, the EntryType ordinal), and id end offsets (int) into
+ * the id bytes</li>
+ * <li>id index: open-addressing table with linear probing over the id bytes
+ * hash, holding entry number + 1, or 0 for an empty bucket</li>
+ * <li>id bytes: every id in UTF-8, back to back</li>
+ * </ol>
+ *
+ * {@link #open(Path)} maps each section and reads only the header, so
+ * balances are available straight away from the currency table; entries are
+ * read from the mapping when asked for. {@link #restoreInto(WalletLedger)}
+ * hydrates a regular ledger when it needs to be changed.
+ */
+public final class WalletLedgerSnapshot {
+
+    /**
+     * File magic, "WLS1".
+     */
+    private static final int MAGIC = 0x574C5331;
+
+    /**
+     * File format version.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Size of the header in bytes.
+     */
+    private static final int HEADER_BYTES = 64;
+
+    /**
+     * Size of one currency table row in bytes.
+     */
+    private static final int CURRENCY_ROW_BYTES = 2 * Integer.BYTES
+            + 2 * Long.BYTES;
+
+    /**
+     * Size of the write buffer.
+     */
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    /**
+     * Rows per addEntriesAt batch in restoreInto, which bounds the row
+     * arrays held at once.
+     */
+    private static final int RESTORE_BATCH = 1 << 16;
+
+    /**
+     * FNV-1a offset basis.
+     */
+    private static final int FNV_OFFSET = 0x811C9DC5;
+
+    /**
+     * FNV-1a prime.
+     */
+    private static final int FNV_PRIME = 0x01000193;
+
+    /**
+     * View of one snapshot entry, reused by forEachEntry.
+     */
+    private final class EntryCursor implements LedgerEntry {
+
+        /**
+         * Entry number currently viewed.
+         */
+        private int entry;
+
+        @Override
+        public String id() {
+            return WalletLedgerSnapshot.this.idAt(this.entry);
+        }
+
+        @Override
+        public int amountCents() {
+            return WalletLedgerSnapshot.this.amounts.getInt(
+                    this.entry * Integer.BYTES);
+        }
+
+        @Override
+        public String currency() {
+            return CurrencyCodes.unpack(this.currencyCode());
+        }
+
+        @Override
+        public int currencyCode() {
+            return WalletLedgerSnapshot.this.currencies.getShort(
+                    this.entry * Short.BYTES);
+        }
+
+        @Override
+        public EntryType type() {
+            return EntryType.values()[WalletLedgerSnapshot.this.types
+                    .get(this.entry)];
+        }
+
+        @Override
+        public long createdAtMillis() {
+            return WalletLedgerSnapshot.this.createdAt.getLong(
+                    this.entry * Long.BYTES);
+        }
+    }
+
+    /**
+     * Column arrays filled by write, one row per entry visited, grown as
+     * rows arrive so the row count need not be known up front.
+     */
+    private static final class Columns {
+
+        /**
+         * Number of rows filled.
+         */
+        private int count;
+
+        /**
+         * Creation time of each row.
+         */
+        private long[] createdAt;
+
+        /**
+         * Amount of each row.
+         */
+        private int[] amounts;
+
+        /**
+         * Packed currency of each row.
+         */
+        private short[] currencies;
+
+        /**
+         * EntryType ordinal of each row.
+         */
+        private byte[] types;
+
+        /**
+         * End offset in idText of the id of each row.
+         */
+        private int[] idEnds;
+
+        /**
+         * UTF-8 ids of the rows, back to back.
+         */
+        private ByteBuffer idText;
+
+        /**
+         * Per-currency totals of the rows.
+         */
+        private final CurrencyTotalsTable totals;
+
+        /**
+         * Constructor.
+         *
+         * @param expected
+         *            expected number of rows
+         */
+        Columns(int expected) {
+            int capacity = Math.max(16, expected);
+            this.createdAt = new long[capacity];
+            this.amounts = new int[capacity];
+            this.currencies = new short[capacity];
+            this.types = new byte[capacity];
+            this.idEnds = new int[capacity];
+            this.idText = ByteBuffer.allocate(8 * capacity);
+            this.totals = new CurrencyTotalsTable();
+        }
+
+        /**
+         * Appends a row for entry, growing the columns if they are full.
+         *
+         * @param entry
+         *            entry to append
+         */
+        void add(LedgerEntry entry) {
+            int i = this.count;
+            if (i == this.createdAt.length) {
+                int capacity = 2 * i;
+                this.createdAt = Arrays.copyOf(this.createdAt, capacity);
+                this.amounts = Arrays.copyOf(this.amounts, capacity);
+                this.currencies = Arrays.copyOf(this.currencies, capacity);
+                this.types = Arrays.copyOf(this.types, capacity);
+                this.idEnds = Arrays.copyOf(this.idEnds, capacity);
+            }
+            byte[] id = entry.id().getBytes(StandardCharsets.UTF_8);
+            if (this.idText.remaining() < id.length) {
+                ByteBuffer grown = ByteBuffer.allocate(
+                        Math.max(2 * this.idText.capacity(),
+                                this.idText.position() + id.length));
+                this.idText.flip();
+                grown.put(this.idText);
+                this.idText = grown;
+            }
+            this.idText.put(id);
+            this.idEnds[i] = this.idText.position();
+            this.createdAt[i] = entry.createdAtMillis();
+            this.amounts[i] = entry.amountCents();
+            this.currencies[i] = (short) entry.currencyCode();
+            this.types[i] = (byte) entry.type().ordinal();
+            this.totals.add(entry.currencyCode(), entry.type(),
+                    entry.amountCents());
+            this.count = i + 1;
+        }
+    }
+
+    /**
+     * Immutable copy of one snapshot entry.
+     *
+     * @param id
+     *            entry id
+     * @param amountCents
+     *            amount in cents
+     * @param currencyCode
+     *            packed currency code
+     * @param type
+     *            entry type
+     * @param createdAtMillis
+     *            creation time
+     */
+    private record EntryCopy(String id, int amountCents, int currencyCode,
+            EntryType type, long createdAtMillis) implements LedgerEntry {
+
+        @Override
+        public String currency() {
+            return CurrencyCodes.unpack(this.currencyCode);
+        }
+    }
+
+    /**
+     * Number of entries.
+     */
+    private final int entryCount;
+
+    /**
+     * Number of currency table rows.
+     */
+    private final int currencyCount;
+
+    /**
+     * Id sequence of the snapshotted ledger.
+     */
+    private final long nextSequence;
+
+    /**
+     * Currency table section.
+     */
+    private final ByteBuffer currencyTable;
+
+    /**
+     * Creation time column.
+     */
+    private final ByteBuffer createdAt;
+
+    /**
+     * Amount column.
+     */
+    private final ByteBuffer amounts;
+
+    /**
+     * Packed currency column.
+     */
+    private final ByteBuffer currencies;
+
+    /**
+     * Type column.
+     */
+    private final ByteBuffer types;
+
+    /**
+     * Id end offset column.
+     */
+    private final ByteBuffer idEnds;
+
+    /**
+     * Id index section.
+     */
+    private final ByteBuffer index;
+
+    /**
+     * Number of buckets in the id index.
+     */
+    private final int indexBuckets;
+
+    /**
+     * Id bytes section.
+     */
+    private final ByteBuffer idBytes;
+
+    /**
+     * Constructs a snapshot over mapped sections.
+     *
+     * @param header
+     *            header section
+     * @param channel
+     *            open snapshot file
+     * @throws IOException
+     *             if the sections cannot be mapped
+     */
+    private WalletLedgerSnapshot(ByteBuffer header, FileChannel channel)
+            throws IOException {
+        this.entryCount = header.getInt(2 * Integer.BYTES);
+        this.currencyCount = header.getInt(3 * Integer.BYTES);
+        this.nextSequence = header.getLong(4 * Integer.BYTES);
+        this.indexBuckets = header.getInt(6 * Integer.BYTES);
+        long idByteCount = header.getLong(8 * Integer.BYTES);
+
+        long offset = HEADER_BYTES;
+        this.currencyTable = map(channel, offset,
+                (long) this.currencyCount * CURRENCY_ROW_BYTES);
+        offset += this.currencyTable.capacity();
+        this.createdAt = map(channel, offset,
+                (long) this.entryCount * Long.BYTES);
+        offset += this.createdAt.capacity();
+        this.amounts = map(channel, offset,
+                (long) this.entryCount * Integer.BYTES);
+        offset += this.amounts.capacity();
+        this.currencies = map(channel, offset,
+                (long) this.entryCount * Short.BYTES);
+        offset += this.currencies.capacity();
+        this.types = map(channel, offset, this.entryCount);
+        offset += this.types.capacity();
+        this.idEnds = map(channel, offset,
+                (long) this.entryCount * Integer.BYTES);
+        offset += this.idEnds.capacity();
+        this.index = map(channel, offset,
+                (long) this.indexBuckets * Integer.BYTES);
+        offset += this.index.capacity();
+        this.idBytes = map(channel, offset, idByteCount);
+        offset += this.idBytes.capacity();
+
+        if (offset != channel.size()) {
+            throw new IOException("Snapshot file size does not match header");
+        }
+    }
+
+    /**
+     * Maps one read-only section of the file.
+     *
+     * @param channel
+     *            open snapshot file
+     * @param offset
+     *            section offset
+     * @param length
+     *            section length
+     * @return little-endian view of the section
+     * @throws IOException
+     *             if the section cannot be mapped
+     */
+    private static ByteBuffer map(FileChannel channel, long offset,
+            long length) throws IOException {
+        if (offset + length > channel.size()) {
+            throw new IOException("Snapshot file is truncated");
+        }
+        MappedByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY,
+                offset, length);
+        return section.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the index hash of UTF-8 id bytes.
+     *
+     * @param bytes
+     *            buffer holding the bytes
+     * @param start
+     *            first byte
+     * @param end
+     *            one past the last byte
+     * @return hash of the bytes
+     */
+    private static int hashOf(ByteBuffer bytes, int start, int end) {
+        int h = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            h = (h ^ (bytes.get(i) & 0xFF)) * FNV_PRIME;
+        }
+        return h ^ (h >>> Short.SIZE);
+    }
+
+    /**
+     * Writes a snapshot of ledger to file, replacing any existing file.
+     *
+     * The snapshot is written to a temporary file in the same directory and
+     * then moved over file atomically, so a reader or a crash sees either
+     * the old snapshot or the complete new one, never a partial file.
+     * The entries are copied in a single forEachEntry pass, so the entry
+     * count written is the number of entries that pass visited. A
+     * WalletLedger4 is copied from its snapshot(), which no later change
+     * can affect.
+     *
+     * @param ledger
+     *            ledger to snapshot
+     * @param file
+     *            snapshot file
+     * @throws IOException
+     *             if the file cannot be written; file is then unchanged
+     * @requires ledger is not null and file is not null
+     * @ensures open(file) describes the entries and sequence of ledger
+     */
+    public static void write(WalletLedger ledger, Path file)
+            throws IOException {
+        assert ledger != null : "Violation of: ledger is not null";
+        assert file != null : "Violation of: file is not null";
+
+        WalletLedger source = ledger;
+        if (ledger instanceof WalletLedger4) {
+            source = ((WalletLedger4) ledger).snapshot();
+        }
+        Columns columns = new Columns(source.entryCount());
+        source.forEachEntry(columns::add);
+        int n = columns.count;
+        long[] createdColumn = columns.createdAt;
+        int[] amountColumn = columns.amounts;
+        short[] currencyColumn = columns.currencies;
+        byte[] typeColumn = columns.types;
+        int[] idEndColumn = columns.idEnds;
+        ByteBuffer ids = columns.idText;
+        CurrencyTotalsTable totals = columns.totals;
+
+        int buckets = Integer.highestOneBit(Math.max(1, 2 * n - 1)) << 1;
+        int[] indexColumn = new int[buckets];
+        for (int i = 0; i < n; i++) {
+            int start = i == 0 ? 0 : idEndColumn[i - 1];
+            int bucket = hashOf(ids, start, idEndColumn[i]) & (buckets - 1);
+            while (indexColumn[bucket] != 0) {
+                bucket = (bucket + 1) & (buckets - 1);
+            }
+            indexColumn[bucket] = i + 1;
+        }
+
+        int[] codes = totals.codes();
+        Arrays.sort(codes);
+        long sequence = source.entrySequence();
+
+        Path target = file.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(),
+                target.getFileName() + ".", ".tmp");
+        boolean moved = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+
+                out.putInt(MAGIC).putInt(VERSION).putInt(n)
+                        .putInt(codes.length).putLong(sequence)
+                        .putInt(buckets).putInt(0).putLong(ids.position());
+                while (out.position() < HEADER_BYTES) {
+                    out.put((byte) 0);
+                }
+                for (int code : codes) {
+                    out = room(channel, out, CURRENCY_ROW_BYTES);
+                    out.putInt(code).putInt(totals.countOf(code))
+                            .putLong(totals.creditsOf(code))
+                            .putLong(totals.debitsOf(code));
+                }
+                for (int i = 0; i < n; i++) {
+                    out = room(channel, out, Long.BYTES);
+                    out.putLong(createdColumn[i]);
+                }
+                for (int i = 0; i < n; i++) {
+                    out = room(channel, out, Integer.BYTES);
+                    out.putInt(amountColumn[i]);
+                }
+                for (int i = 0; i < n; i++) {
+                    out = room(channel, out, Short.BYTES);
+                    out.putShort(currencyColumn[i]);
+                }
+                for (int i = 0; i < n; i++) {
+                    out = room(channel, out, 1);
+                    out.put(typeColumn[i]);
+                }
+                for (int i = 0; i < n; i++) {
+                    out = room(channel, out, Integer.BYTES);
+                    out.putInt(idEndColumn[i]);
+                }
+                for (int slot : indexColumn) {
+                    out = room(channel, out, Integer.BYTES);
+                    out.putInt(slot);
+                }
+                drain(channel, out);
+                ids.flip();
+                while (ids.hasRemaining()) {
+                    channel.write(ids);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Makes sure out has room for the given number of bytes, writing it to
+     * the channel first if not.
+     *
+     * @param channel
+     *            destination
+     * @param out
+     *            buffer being filled
+     * @param bytes
+     *            bytes about to be put
+     * @return out, with room for bytes
+     * @throws IOException
+     *             if the buffer cannot be written
+     */
+    private static ByteBuffer room(FileChannel channel, ByteBuffer out,
+            int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            drain(channel, out);
+        }
+        return out;
+    }
+
+    /**
+     * Writes everything in out to the channel and clears it.
+     *
+     * @param channel
+     *            destination
+     * @param out
+     *            buffer to write, in fill mode
+     * @throws IOException
+     *             if the write fails
+     */
+    private static void drain(FileChannel channel, ByteBuffer out)
+            throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Opens a snapshot file, mapping it into memory.
+     *
+     * @param file
+     *            snapshot file
+     * @return snapshot view of the file
+     * @throws IOException
+     *             if the file cannot be read or is not a snapshot
+     * @requires file is not null
+     */
+    public static WalletLedgerSnapshot open(Path file) throws IOException {
+        assert file != null : "Violation of: file is not null";
+
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            ByteBuffer header = map(channel, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC
+                    || header.getInt(Integer.BYTES) != VERSION) {
+                throw new IOException("Not a wallet ledger snapshot: " + file);
+            }
+            return new WalletLedgerSnapshot(header, channel);
+        }
+    }
+
+    /**
+     * Returns the id of entry number i.
+     *
+     * @param i
+     *            entry number
+     * @return id of the entry
+     */
+    private String idAt(int i) {
+        int start = i == 0 ? 0 : this.idEnds.getInt((i - 1) * Integer.BYTES);
+        int end = this.idEnds.getInt(i * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        this.idBytes.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the currency table row of the given currency, or -1.
+     *
+     * @param currency
+     *            currency code
+     * @return row number, or -1 if the currency has no entries
+     */
+    private int rowOf(String currency) {
+        int code = CurrencyCodes.pack(currency);
+        int low = 0;
+        int high = this.currencyCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midCode = this.currencyTable.getInt(mid * CURRENCY_ROW_BYTES);
+            if (midCode < code) {
+                low = mid + 1;
+            } else if (midCode > code) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of entries in the snapshot.
+     *
+     * @return entry count
+     */
+    public int entryCount() {
+        return this.entryCount;
+    }
+
+    /**
+     * Returns the total credits of one currency.
+     *
+     * @param currency
+     *            currency code
+     * @return total credits in cents
+     * @requires CurrencyCodes.isValid(currency)
+     */
+    public long totalCreditsCentsLong(String currency) {
+        int row = this.rowOf(currency);
+        if (row < 0) {
+            return 0;
+        }
+        return this.currencyTable.getLong(row * CURRENCY_ROW_BYTES
+                + 2 * Integer.BYTES);
+    }
+
+    /**
+     * Returns the total debits of one currency.
+     *
+     * @param currency
+     *            currency code
+     * @return total debits in cents
+     * @requires CurrencyCodes.isValid(currency)
+     */
+    public long totalDebitsCentsLong(String currency) {
+        int row = this.rowOf(currency);
+        if (row < 0) {
+            return 0;
+        }
+        return this.currencyTable.getLong(row * CURRENCY_ROW_BYTES
+                + 2 * Integer.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Returns the balance of one currency.
+     *
+     * @param currency
+     *            currency code
+     * @return total credits minus total debits in cents
+     * @requires CurrencyCodes.isValid(currency)
+     */
+    public long balanceCentsLong(String currency) {
+        return this.totalCreditsCentsLong(currency)
+                - this.totalDebitsCentsLong(currency);
+    }
+
+    /**
+     * Finds an entry by id.
+     *
+     * @param id
+     *            entry id
+     * @return matching entry, or null if none
+     * @requires id is not empty
+     */
+    public LedgerEntry findById(String id) {
+        assert id != null && !id.isBlank() : "Violation of: id is not empty";
+
+        ByteBuffer wanted = ByteBuffer
+                .wrap(id.getBytes(StandardCharsets.UTF_8));
+        int mask = this.indexBuckets - 1;
+        int bucket = hashOf(wanted, 0, wanted.capacity()) & mask;
+        int slot = this.index.getInt(bucket * Integer.BYTES);
+        while (slot != 0) {
+            int i = slot - 1;
+            int start = i == 0 ? 0
+                    : this.idEnds.getInt((i - 1) * Integer.BYTES);
+            int end = this.idEnds.getInt(i * Integer.BYTES);
+            if (end - start == wanted.capacity()
+                    && this.idBytes.slice(start, end - start).equals(wanted)) {
+                EntryCursor cursor = new EntryCursor();
+                cursor.entry = i;
+                return new EntryCopy(id, cursor.amountCents(),
+                        cursor.currencyCode(), cursor.type(),
+                        cursor.createdAtMillis());
+            }
+            bucket = (bucket + 1) & mask;
+            slot = this.index.getInt(bucket * Integer.BYTES);
+        }
+        return null;
+    }
+
+    /**
+     * Applies action to every entry in the snapshot, in the order they were
+     * written. The entry passed to action is a reused view.
+     *
+     * @param action
+     *            action to apply
+     * @requires action is not null
+     */
+    public void forEachEntry(Consumer<LedgerEntry> action) {
+        assert action != null : "Violation of: action is not null";
+
+        EntryCursor cursor = new EntryCursor();
+        for (int i = 0; i < this.entryCount; i++) {
+            cursor.entry = i;
+            action.accept(cursor);
+        }
+    }
+
+    /**
+     * Adds every snapshot entry to ledger, in addEntriesAt batches of
+     * RESTORE_BATCH rows, and moves its id sequence to the snapshot's.
+     *
+     * @param ledger
+     *            ledger to hydrate
+     * @updates ledger
+     * @requires ledger is empty with sequence 1 (new or cleared)
+     * @ensures ledger holds the snapshot's entries and sequence
+     */
+    public void restoreInto(WalletLedger ledger) {
+        assert ledger != null : "Violation of: ledger is not null";
+        assert ledger.entryCount() == 0 : "Violation of: ledger is empty";
+
+        EntryType[] allTypes = EntryType.values();
+        int batch = Math.min(this.entryCount, RESTORE_BATCH);
+        String[] ids = new String[batch];
+        int[] amountsCents = new int[batch];
+        String[] currencyCodes = new String[batch];
+        EntryType[] entryTypes = new EntryType[batch];
+        long[] createdAtMillis = new long[batch];
+        for (int first = 0; first < this.entryCount; first += batch) {
+            int rows = Math.min(batch, this.entryCount - first);
+            if (rows < batch) {
+                ids = new String[rows];
+                amountsCents = new int[rows];
+                currencyCodes = new String[rows];
+                entryTypes = new EntryType[rows];
+                createdAtMillis = new long[rows];
+            }
+            for (int row = 0; row < rows; row++) {
+                int i = first + row;
+                ids[row] = this.idAt(i);
+                amountsCents[row] = this.amounts.getInt(i * Integer.BYTES);
+                currencyCodes[row] = CurrencyCodes
+                        .unpack(this.currencies.getShort(i * Short.BYTES));
+                entryTypes[row] = allTypes[this.types.get(i)];
+                createdAtMillis[row] = this.createdAt.getLong(i * Long.BYTES);
+            }
+            ledger.addEntriesAt(ids, amountsCents, currencyCodes, entryTypes,
+                    createdAtMillis);
+        }
+
+        ledger.setEntrySequence(this.nextSequence);
+    }
+}
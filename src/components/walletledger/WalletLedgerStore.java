@@ -0,0 +1,1402 @@
+package components.walletledger;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import components.walletledger.WalletLedgerKernel.EntryType;
+import components.walletledger.WalletLedgerKernel.LedgerEntry;
+
+/**
+ * Many wallet ledgers kept together in shared, sharded primitive storage.
+ *
+ * Each wallet is named by a long walletId and read and changed through a
+ * WalletLedger view returned by {@link #wallet(long)}. A view is a small
+ * object holding only the store, the wallet's shard and the walletId, so
+ * views can be created per request and dropped. The store itself keeps no
+ * per-wallet objects: a wallet with entries costs one row of a few primitive
+ * columns plus one row per currency it uses, and a wallet with no entries
+ * and an untouched sequence costs nothing at all.
+ *
+ * Wallets are spread over a fixed number of shards by a hash of their id.
+ * Every view method locks only its wallet's shard, so calls on wallets in
+ * different shards run in parallel, and every single call is atomic. As
+ * with WalletLedger3, clear, newInstance and transferFrom on a view must not
+ * run concurrently with other calls on the same wallet.
+ *
+ * newInstance on a view returns a view of a new wallet with a negative id,
+ * which no client can name again. Such a wallet follows the same storage
+ * rule as any other: its rows are released once it is empty with sequence
+ * 1, which clear and being the source of transferFrom both ensure. A
+ * newInstance wallet dropped with entries, or with an advanced sequence,
+ * keeps its rows for the life of the store, so callers should clear it or
+ * transfer out of it when done.
+ */
+public final class WalletLedgerStore {
+
+    /**
+     * Initial number of rows in each pool of a shard.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Marks the absence of a row in a link column.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * Multiplier spreading wallet ids over the shards.
+     */
+    private static final long SHARD_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Multiplier spreading keys over the buckets of a shard, chosen apart
+     * from SHARD_MULTIPLIER so wallets of one shard do not share buckets.
+     */
+    private static final long BUCKET_MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+
+    /**
+     * Immutable ledger entry handed out by the views.
+     *
+     * @param id
+     *            entry id
+     * @param amountCents
+     *            amount in cents
+     * @param currencyCode
+     *            packed currency code
+     * @param type
+     *            entry type
+     * @param createdAtMillis
+     *            creation time in milliseconds since the epoch
+     */
+    private record Entry(String id, int amountCents, int currencyCode,
+            EntryType type, long createdAtMillis) implements LedgerEntry {
+
+        @Override
+        public String currency() {
+            return CurrencyCodes.unpack(this.currencyCode);
+        }
+    }
+
+    /**
+     * Storage for the wallets of one shard. Every method must be called with
+     * the monitor of this shard held.
+     *
+     * Representation:
+     * Three pools of rows kept in parallel primitive columns, each with a
+     * free list so freed rows are reused and no row ever moves.
+     *
+     * An entry row holds the entry's wallet row, id, amount, packed currency,
+     * type and creation time, and links to the previous and next entry of the
+     * same wallet. entryIndex is an open-addressing hash table with linear
+     * probing from (walletId, id) to entry row + 1, with 0 for an empty
+     * bucket.
+     *
+     * A wallet row holds the walletId, the first of its entries, its entry
+     * count, sequence and content hash, and the first of its currency rows.
+     * walletIndex maps walletId to wallet row + 1 in the same way.
+     *
+     * A currency row holds one currency of one wallet: its packed code, its
+     * CREDIT and DEBIT sums, its entry count, and the next currency row of
+     * the same wallet.
+     *
+     * Convention:
+     * - the rows of each pool below its high-water mark are either live or on
+     *   that pool's free list, linked through entryNext, walletHeads and
+     *   currencyNext respectively
+     * - a free entry row has a null id, and a free wallet row has sequence 0
+     * - a live wallet row has sequence >= 1, and has an entry or a sequence
+     *   other than 1
+     * - the entry rows reachable from walletHeads[w] through entryNext are
+     *   exactly the live entries of wallet row w, with entryPrevious the
+     *   reverse links; walletCounts[w] is their number and walletHashes[w] the
+     *   sum of WalletLedgerSecondary.entryHash over them
+     * - the currency rows reachable from walletCurrencies[w] through
+     *   currencyNext hold one row per currency used by the entries of w,
+     *   with their count and sums, and no row with count 0
+     * - entryIndex.length and walletIndex.length are powers of two at least
+     *   twice the number of live rows they index, and every live row is
+     *   reachable from its home bucket without crossing an empty bucket
+     */
+    private static final class Shard {
+
+        /**
+         * Position of this shard in the store, used to order locks.
+         */
+        private final int number;
+
+        /**
+         * Wallet row of each entry row.
+         */
+        private int[] entryWallets = new int[INITIAL_CAPACITY];
+
+        /**
+         * Id of each entry row, null if the row is free.
+         */
+        private String[] entryIds = new String[INITIAL_CAPACITY];
+
+        /**
+         * Amount of each entry row.
+         */
+        private int[] entryAmounts = new int[INITIAL_CAPACITY];
+
+        /**
+         * Packed currency of each entry row.
+         */
+        private short[] entryCurrencies = new short[INITIAL_CAPACITY];
+
+        /**
+         * True iff the entry row is a DEBIT.
+         */
+        private boolean[] entryDebits = new boolean[INITIAL_CAPACITY];
+
+        /**
+         * Creation time of each entry row.
+         */
+        private long[] entryCreatedAt = new long[INITIAL_CAPACITY];
+
+        /**
+         * Previous entry row of the same wallet, or NONE.
+         */
+        private int[] entryPrevious = new int[INITIAL_CAPACITY];
+
+        /**
+         * Next entry row of the same wallet, next free row, or NONE.
+         */
+        private int[] entryNext = new int[INITIAL_CAPACITY];
+
+        /**
+         * Number of entry rows ever used.
+         */
+        private int entryHigh;
+
+        /**
+         * First free entry row, or NONE.
+         */
+        private int entryFree = NONE;
+
+        /**
+         * Number of live entry rows.
+         */
+        private int entryLive;
+
+        /**
+         * Buckets of (walletId, id) holding entry row + 1, or 0.
+         */
+        private int[] entryIndex = new int[2 * INITIAL_CAPACITY];
+
+        /**
+         * Wallet id of each wallet row.
+         */
+        private long[] walletIds = new long[INITIAL_CAPACITY];
+
+        /**
+         * First entry row of each wallet row, next free row, or NONE.
+         */
+        private int[] walletHeads = new int[INITIAL_CAPACITY];
+
+        /**
+         * Entry count of each wallet row.
+         */
+        private int[] walletCounts = new int[INITIAL_CAPACITY];
+
+        /**
+         * Sequence of each wallet row, 0 if the row is free.
+         */
+        private long[] walletSequences = new long[INITIAL_CAPACITY];
+
+        /**
+         * Content hash of each wallet row.
+         */
+        private long[] walletHashes = new long[INITIAL_CAPACITY];
+
+        /**
+         * First currency row of each wallet row, or NONE.
+         */
+        private int[] walletCurrencies = new int[INITIAL_CAPACITY];
+
+        /**
+         * Number of wallet rows ever used.
+         */
+        private int walletHigh;
+
+        /**
+         * First free wallet row, or NONE.
+         */
+        private int walletFree = NONE;
+
+        /**
+         * Number of live wallet rows.
+         */
+        private int walletLive;
+
+        /**
+         * Buckets of walletId holding wallet row + 1, or 0.
+         */
+        private int[] walletIndex = new int[2 * INITIAL_CAPACITY];
+
+        /**
+         * Packed code of each currency row.
+         */
+        private short[] currencyCodes = new short[INITIAL_CAPACITY];
+
+        /**
+         * CREDIT sum of each currency row.
+         */
+        private long[] currencyCredits = new long[INITIAL_CAPACITY];
+
+        /**
+         * DEBIT sum of each currency row.
+         */
+        private long[] currencyDebits = new long[INITIAL_CAPACITY];
+
+        /**
+         * Entry count of each currency row.
+         */
+        private int[] currencyCounts = new int[INITIAL_CAPACITY];
+
+        /**
+         * Next currency row of the same wallet, next free row, or NONE.
+         */
+        private int[] currencyNext = new int[INITIAL_CAPACITY];
+
+        /**
+         * Number of currency rows ever used.
+         */
+        private int currencyHigh;
+
+        /**
+         * First free currency row, or NONE.
+         */
+        private int currencyFree = NONE;
+
+        /**
+         * Constructs an empty shard.
+         *
+         * @param number
+         *            position of this shard in the store
+         */
+        private Shard(int number) {
+            this.number = number;
+        }
+
+        /**
+         * Returns the bucket hash of a wallet id.
+         *
+         * @param walletId
+         *            wallet id
+         * @return hash of walletId
+         */
+        private static int walletHash(long walletId) {
+            long h = walletId * BUCKET_MULTIPLIER;
+            return (int) (h ^ (h >>> Integer.SIZE));
+        }
+
+        /**
+         * Returns the bucket hash of an entry key.
+         *
+         * @param walletId
+         *            wallet id
+         * @param id
+         *            entry id
+         * @return hash of (walletId, id)
+         */
+        private static int entryHash(long walletId, String id) {
+            long h = (walletId * BUCKET_MULTIPLIER + id.hashCode())
+                    * BUCKET_MULTIPLIER;
+            return (int) (h ^ (h >>> Integer.SIZE));
+        }
+
+        /**
+         * Returns the bucket hash of the live entry row.
+         *
+         * @param row
+         *            live entry row
+         * @return hash of its key
+         */
+        private int entryHashAt(int row) {
+            return entryHash(this.walletIds[this.entryWallets[row]],
+                    this.entryIds[row]);
+        }
+
+        /**
+         * Returns the bucket of walletId in walletIndex, or the empty bucket
+         * where it would go.
+         *
+         * @param walletId
+         *            wallet id
+         * @return bucket for walletId
+         */
+        private int walletBucket(long walletId) {
+            int mask = this.walletIndex.length - 1;
+            int bucket = walletHash(walletId) & mask;
+            while (this.walletIndex[bucket] != 0
+                    && this.walletIds[this.walletIndex[bucket] - 1]
+                            != walletId) {
+                bucket = (bucket + 1) & mask;
+            }
+            return bucket;
+        }
+
+        /**
+         * Returns the bucket of (walletId, id) in entryIndex, or the empty
+         * bucket where it would go.
+         *
+         * @param walletId
+         *            wallet id
+         * @param id
+         *            entry id
+         * @return bucket for the key
+         */
+        private int entryBucket(long walletId, String id) {
+            int mask = this.entryIndex.length - 1;
+            int bucket = entryHash(walletId, id) & mask;
+            while (this.entryIndex[bucket] != 0) {
+                int row = this.entryIndex[bucket] - 1;
+                if (this.walletIds[this.entryWallets[row]] == walletId
+                        && id.equals(this.entryIds[row])) {
+                    return bucket;
+                }
+                bucket = (bucket + 1) & mask;
+            }
+            return bucket;
+        }
+
+        /**
+         * Returns the wallet row of walletId, or NONE.
+         *
+         * @param walletId
+         *            wallet id
+         * @return wallet row, or NONE
+         */
+        private int walletRow(long walletId) {
+            return this.walletIndex[this.walletBucket(walletId)] - 1;
+        }
+
+        /**
+         * Returns the entry row of (walletId, id), or NONE.
+         *
+         * @param walletId
+         *            wallet id
+         * @param id
+         *            entry id
+         * @return entry row, or NONE
+         */
+        private int entryRow(long walletId, String id) {
+            return this.entryIndex[this.entryBucket(walletId, id)] - 1;
+        }
+
+        /**
+         * Returns the wallet row of walletId, creating an empty one with
+         * sequence 1 if needed.
+         *
+         * @param walletId
+         *            wallet id
+         * @return wallet row
+         * @updates this
+         */
+        private int walletRowForUpdate(long walletId) {
+            int bucket = this.walletBucket(walletId);
+            if (this.walletIndex[bucket] != 0) {
+                return this.walletIndex[bucket] - 1;
+            }
+            if (2 * (this.walletLive + 1) > this.walletIndex.length) {
+                this.rebuildWalletIndex(2 * this.walletIndex.length);
+                bucket = this.walletBucket(walletId);
+            }
+            int row = this.walletFree;
+            if (row != NONE) {
+                this.walletFree = this.walletHeads[row];
+            } else {
+                if (this.walletHigh == this.walletIds.length) {
+                    this.growWallets();
+                }
+                row = this.walletHigh;
+                this.walletHigh++;
+            }
+            this.walletIds[row] = walletId;
+            this.walletHeads[row] = NONE;
+            this.walletCounts[row] = 0;
+            this.walletSequences[row] = 1;
+            this.walletHashes[row] = 0;
+            this.walletCurrencies[row] = NONE;
+            this.walletIndex[bucket] = row + 1;
+            this.walletLive++;
+            return row;
+        }
+
+        /**
+         * Frees the wallet row if its wallet is back to the empty value.
+         *
+         * @param row
+         *            live wallet row
+         * @updates this
+         */
+        private void releaseIfIdle(int row) {
+            if (this.walletCounts[row] != 0
+                    || this.walletSequences[row] != 1) {
+                return;
+            }
+            this.deleteWalletBucket(this.walletBucket(this.walletIds[row]));
+            this.walletSequences[row] = 0;
+            this.walletHeads[row] = this.walletFree;
+            this.walletFree = row;
+            this.walletLive--;
+        }
+
+        /**
+         * Doubles the wallet columns.
+         */
+        private void growWallets() {
+            int capacity = 2 * this.walletIds.length;
+            this.walletIds = Arrays.copyOf(this.walletIds, capacity);
+            this.walletHeads = Arrays.copyOf(this.walletHeads, capacity);
+            this.walletCounts = Arrays.copyOf(this.walletCounts, capacity);
+            this.walletSequences = Arrays.copyOf(this.walletSequences,
+                    capacity);
+            this.walletHashes = Arrays.copyOf(this.walletHashes, capacity);
+            this.walletCurrencies = Arrays.copyOf(this.walletCurrencies,
+                    capacity);
+        }
+
+        /**
+         * Replaces walletIndex by one with the given number of buckets.
+         *
+         * @param buckets
+         *            power of two at least twice the live wallet rows
+         */
+        private void rebuildWalletIndex(int buckets) {
+            this.walletIndex = new int[buckets];
+            int mask = buckets - 1;
+            for (int row = 0; row < this.walletHigh; row++) {
+                if (this.walletSequences[row] != 0) {
+                    int bucket = walletHash(this.walletIds[row]) & mask;
+                    while (this.walletIndex[bucket] != 0) {
+                        bucket = (bucket + 1) & mask;
+                    }
+                    this.walletIndex[bucket] = row + 1;
+                }
+            }
+        }
+
+        /**
+         * Empties a bucket of walletIndex, shifting later buckets of the same
+         * probe run back.
+         *
+         * @param bucket
+         *            occupied bucket
+         */
+        private void deleteWalletBucket(int bucket) {
+            int mask = this.walletIndex.length - 1;
+            int hole = bucket;
+            int next = (hole + 1) & mask;
+            while (this.walletIndex[next] != 0) {
+                int home = walletHash(
+                        this.walletIds[this.walletIndex[next] - 1]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    this.walletIndex[hole] = this.walletIndex[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            this.walletIndex[hole] = 0;
+        }
+
+        /**
+         * Doubles the entry columns.
+         */
+        private void growEntries() {
+            int capacity = 2 * this.entryIds.length;
+            this.entryWallets = Arrays.copyOf(this.entryWallets, capacity);
+            this.entryIds = Arrays.copyOf(this.entryIds, capacity);
+            this.entryAmounts = Arrays.copyOf(this.entryAmounts, capacity);
+            this.entryCurrencies = Arrays.copyOf(this.entryCurrencies,
+                    capacity);
+            this.entryDebits = Arrays.copyOf(this.entryDebits, capacity);
+            this.entryCreatedAt = Arrays.copyOf(this.entryCreatedAt,
+                    capacity);
+            this.entryPrevious = Arrays.copyOf(this.entryPrevious, capacity);
+            this.entryNext = Arrays.copyOf(this.entryNext, capacity);
+        }
+
+        /**
+         * Replaces entryIndex by one with the given number of buckets.
+         *
+         * @param buckets
+         *            power of two at least twice the live entry rows
+         */
+        private void rebuildEntryIndex(int buckets) {
+            this.entryIndex = new int[buckets];
+            int mask = buckets - 1;
+            for (int row = 0; row < this.entryHigh; row++) {
+                if (this.entryIds[row] != null) {
+                    int bucket = this.entryHashAt(row) & mask;
+                    while (this.entryIndex[bucket] != 0) {
+                        bucket = (bucket + 1) & mask;
+                    }
+                    this.entryIndex[bucket] = row + 1;
+                }
+            }
+        }
+
+        /**
+         * Empties a bucket of entryIndex, shifting later buckets of the same
+         * probe run back.
+         *
+         * @param bucket
+         *            occupied bucket
+         */
+        private void deleteEntryBucket(int bucket) {
+            int mask = this.entryIndex.length - 1;
+            int hole = bucket;
+            int next = (hole + 1) & mask;
+            while (this.entryIndex[next] != 0) {
+                int home = this.entryHashAt(this.entryIndex[next] - 1) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    this.entryIndex[hole] = this.entryIndex[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            this.entryIndex[hole] = 0;
+        }
+
+        /**
+         * Returns the currency row of code in wallet row, or NONE.
+         *
+         * @param walletRow
+         *            live wallet row
+         * @param code
+         *            packed currency code
+         * @return currency row, or NONE
+         */
+        private int currencyRow(int walletRow, int code) {
+            int row = this.walletCurrencies[walletRow];
+            while (row != NONE && this.currencyCodes[row] != code) {
+                row = this.currencyNext[row];
+            }
+            return row;
+        }
+
+        /**
+         * Adds one entry's amount to, or takes it from, the totals of its
+         * currency in a wallet, creating or freeing the currency row as
+         * needed.
+         *
+         * @param walletRow
+         *            live wallet row
+         * @param code
+         *            packed currency code
+         * @param debit
+         *            true iff the entry is a DEBIT
+         * @param amountCents
+         *            entry amount
+         * @param added
+         *            true if the entry is being added, false if removed
+         * @updates this
+         */
+        private void adjustCurrency(int walletRow, int code, boolean debit,
+                int amountCents, boolean added) {
+            int previous = NONE;
+            int row = this.walletCurrencies[walletRow];
+            while (row != NONE && this.currencyCodes[row] != code) {
+                previous = row;
+                row = this.currencyNext[row];
+            }
+            if (row == NONE) {
+                row = this.currencyFree;
+                if (row != NONE) {
+                    this.currencyFree = this.currencyNext[row];
+                } else {
+                    if (this.currencyHigh == this.currencyCodes.length) {
+                        this.growCurrencies();
+                    }
+                    row = this.currencyHigh;
+                    this.currencyHigh++;
+                }
+                this.currencyCodes[row] = (short) code;
+                this.currencyCredits[row] = 0;
+                this.currencyDebits[row] = 0;
+                this.currencyCounts[row] = 0;
+                this.currencyNext[row] = this.walletCurrencies[walletRow];
+                this.walletCurrencies[walletRow] = row;
+                previous = NONE;
+            }
+            long delta = added ? amountCents : -amountCents;
+            if (debit) {
+                this.currencyDebits[row] += delta;
+            } else {
+                this.currencyCredits[row] += delta;
+            }
+            this.currencyCounts[row] += added ? 1 : -1;
+            if (this.currencyCounts[row] == 0) {
+                if (previous == NONE) {
+                    this.walletCurrencies[walletRow] = this.currencyNext[row];
+                } else {
+                    this.currencyNext[previous] = this.currencyNext[row];
+                }
+                this.currencyNext[row] = this.currencyFree;
+                this.currencyFree = row;
+            }
+        }
+
+        /**
+         * Doubles the currency columns.
+         */
+        private void growCurrencies() {
+            int capacity = 2 * this.currencyCodes.length;
+            this.currencyCodes = Arrays.copyOf(this.currencyCodes, capacity);
+            this.currencyCredits = Arrays.copyOf(this.currencyCredits,
+                    capacity);
+            this.currencyDebits = Arrays.copyOf(this.currencyDebits,
+                    capacity);
+            this.currencyCounts = Arrays.copyOf(this.currencyCounts,
+                    capacity);
+            this.currencyNext = Arrays.copyOf(this.currencyNext, capacity);
+        }
+
+        /**
+         * Returns an immutable copy of the live entry row.
+         *
+         * @param row
+         *            live entry row
+         * @return entry at row
+         */
+        private LedgerEntry entryAt(int row) {
+            EntryType type = EntryType.CREDIT;
+            if (this.entryDebits[row]) {
+                type = EntryType.DEBIT;
+            }
+            return new Entry(this.entryIds[row], this.entryAmounts[row],
+                    this.entryCurrencies[row], type,
+                    this.entryCreatedAt[row]);
+        }
+
+        /**
+         * Adds one entry to a wallet.
+         *
+         * @param walletId
+         *            wallet id
+         * @param id
+         *            entry id, not yet in the wallet
+         * @param amountCents
+         *            positive amount
+         * @param code
+         *            packed currency code
+         * @param type
+         *            entry type
+         * @param createdAtMillis
+         *            creation time
+         * @updates this
+         */
+        private void add(long walletId, String id, int amountCents, int code,
+                EntryType type, long createdAtMillis) {
+            int walletRow = this.walletRowForUpdate(walletId);
+            if (2 * (this.entryLive + 1) > this.entryIndex.length) {
+                this.rebuildEntryIndex(2 * this.entryIndex.length);
+            }
+            int row = this.entryFree;
+            if (row != NONE) {
+                this.entryFree = this.entryNext[row];
+            } else {
+                if (this.entryHigh == this.entryIds.length) {
+                    this.growEntries();
+                }
+                row = this.entryHigh;
+                this.entryHigh++;
+            }
+            this.entryWallets[row] = walletRow;
+            this.entryIds[row] = id;
+            this.entryAmounts[row] = amountCents;
+            this.entryCurrencies[row] = (short) code;
+            this.entryDebits[row] = type == EntryType.DEBIT;
+            this.entryCreatedAt[row] = createdAtMillis;
+            int head = this.walletHeads[walletRow];
+            this.entryPrevious[row] = NONE;
+            this.entryNext[row] = head;
+            if (head != NONE) {
+                this.entryPrevious[head] = row;
+            }
+            this.walletHeads[walletRow] = row;
+            this.entryIndex[this.entryBucket(walletId, id)] = row + 1;
+            this.entryLive++;
+
+            this.walletCounts[walletRow]++;
+            this.walletHashes[walletRow] += WalletLedgerSecondary
+                    .entryHash(id, amountCents, code, type);
+            this.adjustCurrency(walletRow, code, type == EntryType.DEBIT,
+                    amountCents, true);
+        }
+
+        /**
+         * Removes the live entry row, leaving its wallet row in place even if
+         * it became idle.
+         *
+         * @param row
+         *            live entry row
+         * @return the removed entry
+         * @updates this
+         */
+        private LedgerEntry removeRow(int row) {
+            LedgerEntry entry = this.entryAt(row);
+            int walletRow = this.entryWallets[row];
+            this.deleteEntryBucket(this.entryBucket(
+                    this.walletIds[walletRow], this.entryIds[row]));
+
+            int previous = this.entryPrevious[row];
+            int next = this.entryNext[row];
+            if (previous == NONE) {
+                this.walletHeads[walletRow] = next;
+            } else {
+                this.entryNext[previous] = next;
+            }
+            if (next != NONE) {
+                this.entryPrevious[next] = previous;
+            }
+            this.entryIds[row] = null;
+            this.entryNext[row] = this.entryFree;
+            this.entryFree = row;
+            this.entryLive--;
+
+            this.walletCounts[walletRow]--;
+            this.walletHashes[walletRow] -= WalletLedgerSecondary
+                    .entryHash(entry);
+            this.adjustCurrency(walletRow, entry.currencyCode(),
+                    entry.type() == EntryType.DEBIT, entry.amountCents(),
+                    false);
+            return entry;
+        }
+
+        /**
+         * Removes one entry of a wallet.
+         *
+         * @param walletId
+         *            wallet id
+         * @param id
+         *            entry id, or null for any entry
+         * @return the removed entry, or null if there is none
+         * @updates this
+         */
+        private LedgerEntry remove(long walletId, String id) {
+            int walletRow = this.walletRow(walletId);
+            if (walletRow == NONE) {
+                return null;
+            }
+            int row = this.walletHeads[walletRow];
+            if (id != null) {
+                row = this.entryRow(walletId, id);
+            }
+            if (row == NONE) {
+                return null;
+            }
+            LedgerEntry entry = this.removeRow(row);
+            this.releaseIfIdle(walletRow);
+            return entry;
+        }
+
+        /**
+         * Removes every entry of a wallet and resets its sequence.
+         *
+         * @param walletId
+         *            wallet id
+         * @updates this
+         */
+        private void clear(long walletId) {
+            int walletRow = this.walletRow(walletId);
+            if (walletRow == NONE) {
+                return;
+            }
+            while (this.walletHeads[walletRow] != NONE) {
+                this.removeRow(this.walletHeads[walletRow]);
+            }
+            this.walletSequences[walletRow] = 1;
+            this.releaseIfIdle(walletRow);
+        }
+
+        /**
+         * Returns copies of the entries of a wallet.
+         *
+         * @param walletId
+         *            wallet id
+         * @return entries of the wallet
+         */
+        private LedgerEntry[] entries(long walletId) {
+            int walletRow = this.walletRow(walletId);
+            if (walletRow == NONE) {
+                return new LedgerEntry[0];
+            }
+            int count = this.walletCounts[walletRow];
+            LedgerEntry[] result = new LedgerEntry[count];
+            int row = this.walletHeads[walletRow];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = this.entryAt(row);
+                row = this.entryNext[row];
+            }
+            return result;
+        }
+
+        /**
+         * Returns the entry count of a wallet.
+         *
+         * @param walletId
+         *            wallet id
+         * @return number of entries
+         */
+        private int count(long walletId) {
+            int walletRow = this.walletRow(walletId);
+            return walletRow == NONE ? 0 : this.walletCounts[walletRow];
+        }
+
+        /**
+         * Returns the content hash of a wallet.
+         *
+         * @param walletId
+         *            wallet id
+         * @return sum of entryHash over its entries
+         */
+        private long contentHash(long walletId) {
+            int walletRow = this.walletRow(walletId);
+            return walletRow == NONE ? 0 : this.walletHashes[walletRow];
+        }
+
+        /**
+         * Returns the sum of one type of amount in one currency of a wallet.
+         *
+         * @param walletId
+         *            wallet id
+         * @param code
+         *            packed currency code
+         * @param debit
+         *            true for DEBIT amounts, false for CREDIT amounts
+         * @return total in cents
+         */
+        private long total(long walletId, int code, boolean debit) {
+            int walletRow = this.walletRow(walletId);
+            if (walletRow == NONE) {
+                return 0;
+            }
+            int row = this.currencyRow(walletRow, code);
+            if (row == NONE) {
+                return 0;
+            }
+            return debit ? this.currencyDebits[row] : this.currencyCredits[row];
+        }
+
+        /**
+         * Returns the totals of every currency of a wallet.
+         *
+         * @param walletId
+         *            wallet id
+         * @return totals read from the wallet's currency rows
+         */
+        private LedgerTotals totals(long walletId) {
+            CurrencyTotalsTable table = new CurrencyTotalsTable();
+            int walletRow = this.walletRow(walletId);
+            if (walletRow != NONE) {
+                int row = this.walletCurrencies[walletRow];
+                while (row != NONE) {
+                    table.addTotals(this.currencyCodes[row],
+                            this.currencyCounts[row],
+                            this.currencyCredits[row],
+                            this.currencyDebits[row]);
+                    row = this.currencyNext[row];
+                }
+            }
+            return new LedgerTotals(table);
+        }
+
+        /**
+         * Returns the sequence of a wallet and advances it.
+         *
+         * @param walletId
+         *            wallet id
+         * @return sequence before the call
+         * @updates this
+         */
+        private long advanceSequence(long walletId) {
+            int walletRow = this.walletRowForUpdate(walletId);
+            long result = this.walletSequences[walletRow];
+            this.walletSequences[walletRow] = result + 1;
+            return result;
+        }
+
+        /**
+         * Returns the sequence of a wallet.
+         *
+         * @param walletId
+         *            wallet id
+         * @return sequence
+         */
+        private long sequence(long walletId) {
+            int walletRow = this.walletRow(walletId);
+            return walletRow == NONE ? 1 : this.walletSequences[walletRow];
+        }
+
+        /**
+         * Sets the sequence of a wallet.
+         *
+         * @param walletId
+         *            wallet id
+         * @param sequence
+         *            new sequence, at least 1
+         * @updates this
+         */
+        private void setSequence(long walletId, long sequence) {
+            int walletRow = this.walletRowForUpdate(walletId);
+            this.walletSequences[walletRow] = sequence;
+            this.releaseIfIdle(walletRow);
+        }
+    }
+
+    /**
+     * WalletLedger view of one wallet of a store.
+     *
+     * Correspondence:
+     * This is the entries of the wallet row of walletId in shard, together
+     * with its sequence; if walletId has no row, this is empty with sequence
+     * 1.
+     */
+    private static final class WalletView extends WalletLedgerSecondary {
+
+        /**
+         * Store holding the wallet.
+         */
+        private final WalletLedgerStore store;
+
+        /**
+         * Shard holding the wallet.
+         */
+        private final Shard shard;
+
+        /**
+         * Id of the wallet.
+         */
+        private final long walletId;
+
+        /**
+         * Constructs a view of one wallet.
+         *
+         * @param store
+         *            store holding the wallet
+         * @param walletId
+         *            id of the wallet
+         */
+        private WalletView(WalletLedgerStore store, long walletId) {
+            this.store = store;
+            this.shard = store.shardOf(walletId);
+            this.walletId = walletId;
+        }
+
+        /**
+         * Checks whether id satisfies the kernel contract.
+         *
+         * @param id
+         *            candidate id
+         */
+        private static void assertValidId(String id) {
+            assert id != null && !id.isBlank()
+                    : "Violation of: id is not empty";
+        }
+
+        /**
+         * Checks whether amount satisfies the kernel contract.
+         *
+         * @param amountCents
+         *            amount in cents
+         */
+        private static void assertPositiveAmount(int amountCents) {
+            assert amountCents > 0 : "Violation of: amountCents > 0";
+        }
+
+        @Override
+        public void clear() {
+            synchronized (this.shard) {
+                this.shard.clear(this.walletId);
+            }
+        }
+
+        @Override
+        public WalletLedgerKernel newInstance() {
+            return this.store.anonymousWallet();
+        }
+
+        @Override
+        public void transferFrom(WalletLedgerKernel source) {
+            assert source != null : "Violation of: source is not null";
+            assert source != this : "Violation of: source is not this";
+            assert source instanceof WalletView
+                    : "Violation of: source has dynamic type WalletView";
+
+            WalletView localSource = (WalletView) source;
+            assert localSource.store == this.store
+                    : "Violation of: source belongs to the same store";
+            assert localSource.walletId != this.walletId
+                    : "Violation of: source is a different wallet";
+
+            Shard first = this.shard;
+            Shard second = localSource.shard;
+            if (first.number > second.number) {
+                first = localSource.shard;
+                second = this.shard;
+            }
+            synchronized (first) {
+                synchronized (second) {
+                    this.shard.clear(this.walletId);
+                    Shard from = localSource.shard;
+                    long sequence = from.sequence(localSource.walletId);
+                    for (LedgerEntry entry : from
+                            .entries(localSource.walletId)) {
+                        this.shard.add(this.walletId, entry.id(),
+                                entry.amountCents(), entry.currencyCode(),
+                                entry.type(), entry.createdAtMillis());
+                    }
+                    from.clear(localSource.walletId);
+                    this.shard.setSequence(this.walletId, sequence);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasEntry(String id) {
+            assertValidId(id);
+
+            synchronized (this.shard) {
+                return this.shard.entryRow(this.walletId, id) != NONE;
+            }
+        }
+
+        @Override
+        public LedgerEntry entryOrNull(String id) {
+            assertValidId(id);
+
+            synchronized (this.shard) {
+                int row = this.shard.entryRow(this.walletId, id);
+                return row == NONE ? null : this.shard.entryAt(row);
+            }
+        }
+
+        @Override
+        public boolean isValidCurrency(String currency) {
+            return CurrencyCodes.isValid(currency);
+        }
+
+        @Override
+        public void addEntry(String id, int amountCents, String currency,
+                EntryType type) {
+            this.addEntryAt(id, amountCents, currency, type,
+                    System.currentTimeMillis());
+        }
+
+        @Override
+        public void addEntryAt(String id, int amountCents, String currency,
+                EntryType type, long createdAtMillis) {
+            assertValidId(id);
+            assertPositiveAmount(amountCents);
+            assert this.isValidCurrency(currency)
+                    : "Violation of: isValidCurrency(currency)";
+            assert type != null : "Violation of: type is not null";
+
+            synchronized (this.shard) {
+                assert this.shard.entryRow(this.walletId, id) == NONE
+                        : "Violation of: not hasEntry(id)";
+
+                this.shard.add(this.walletId, id, amountCents,
+                        CurrencyCodes.pack(currency), type, createdAtMillis);
+            }
+        }
+
+        @Override
+        public LedgerEntry removeEntry(String id) {
+            assertValidId(id);
+
+            synchronized (this.shard) {
+                LedgerEntry entry = this.shard.remove(this.walletId, id);
+                assert entry != null : "Violation of: hasEntry(id)";
+                return entry;
+            }
+        }
+
+        @Override
+        public LedgerEntry removeAnyEntry() {
+            synchronized (this.shard) {
+                LedgerEntry entry = this.shard.remove(this.walletId, null);
+                assert entry != null : "Violation of: this is not empty";
+                return entry;
+            }
+        }
+
+        @Override
+        public int entryCount() {
+            synchronized (this.shard) {
+                return this.shard.count(this.walletId);
+            }
+        }
+
+        @Override
+        public long entrySequence() {
+            synchronized (this.shard) {
+                return this.shard.sequence(this.walletId);
+            }
+        }
+
+        @Override
+        public long nextEntrySequence() {
+            synchronized (this.shard) {
+                return this.shard.advanceSequence(this.walletId);
+            }
+        }
+
+        @Override
+        public void setEntrySequence(long sequence) {
+            assert sequence >= 1 : "Violation of: sequence >= 1";
+
+            synchronized (this.shard) {
+                this.shard.setSequence(this.walletId, sequence);
+            }
+        }
+
+        /*
+         * Secondary methods overridden for efficiency ------------------------
+         */
+
+        @Override
+        public WithdrawResult tryWithdraw(int amountCents, String currency) {
+            assertPositiveAmount(amountCents);
+            assert currency != null : "Violation of: currency is not null";
+            assert this.isValidCurrency(currency)
+                    : "Violation of: isValidCurrency(currency)";
+
+            synchronized (this.shard) {
+                if (!this.addDebitIfCovered(this.freshEntryId(), amountCents,
+                        currency)) {
+                    return WithdrawResult.INSUFFICIENT_FUNDS;
+                }
+            }
+            return WithdrawResult.DEBITED;
+        }
+
+        @Override
+        protected boolean addDebitIfCovered(String id, int amountCents,
+                String currency) {
+            int code = CurrencyCodes.pack(currency);
+            synchronized (this.shard) {
+                long balance = this.shard.total(this.walletId, code, false)
+                        - this.shard.total(this.walletId, code, true);
+                if (balance < amountCents) {
+                    return false;
+                }
+                this.shard.add(this.walletId, id, amountCents, code,
+                        EntryType.DEBIT, System.currentTimeMillis());
+            }
+            return true;
+        }
+
+        @Override
+        public WithdrawResult transferTo(WalletLedger destination,
+                int amountCents, String currency) {
+            if (!(destination instanceof WalletView)
+                    || ((WalletView) destination).store != this.store) {
+                return super.transferTo(destination, amountCents, currency);
+            }
+            assertPositiveAmount(amountCents);
+            assert currency != null : "Violation of: currency is not null";
+            assert this.isValidCurrency(currency)
+                    : "Violation of: isValidCurrency(currency)";
+
+            WalletView localDestination = (WalletView) destination;
+            assert localDestination.walletId != this.walletId
+                    : "Violation of: destination is a different wallet";
+
+            /*
+             * Views are created per call, so lock the shards they share with
+             * every other view of the same wallets, in the order transferFrom
+             * uses
+             */
+            Shard first = this.shard;
+            Shard second = localDestination.shard;
+            if (first.number > second.number) {
+                first = localDestination.shard;
+                second = this.shard;
+            }
+            synchronized (first) {
+                synchronized (second) {
+                    return this.transferLocked(destination, amountCents,
+                            currency);
+                }
+            }
+        }
+
+        @Override
+        public long contentHash() {
+            synchronized (this.shard) {
+                return this.shard.contentHash(this.walletId);
+            }
+        }
+
+        @Override
+        public void forEachEntry(Consumer<LedgerEntry> action) {
+            assert action != null : "Violation of: action is not null";
+
+            LedgerEntry[] entries;
+            synchronized (this.shard) {
+                entries = this.shard.entries(this.walletId);
+            }
+            for (LedgerEntry entry : entries) {
+                action.accept(entry);
+            }
+        }
+
+        @Override
+        public LedgerTotals balances() {
+            synchronized (this.shard) {
+                return this.shard.totals(this.walletId);
+            }
+        }
+
+        @Override
+        public long balanceCentsLong(String currency) {
+            assert currency != null : "Violation of: currency is not null";
+            assert this.isValidCurrency(currency)
+                    : "Violation of: isValidCurrency(currency)";
+
+            int code = CurrencyCodes.pack(currency);
+            synchronized (this.shard) {
+                return this.shard.total(this.walletId, code, false)
+                        - this.shard.total(this.walletId, code, true);
+            }
+        }
+
+        @Override
+        public long totalCreditsCentsLong(String currency) {
+            assert currency != null : "Violation of: currency is not null";
+            assert this.isValidCurrency(currency)
+                    : "Violation of: isValidCurrency(currency)";
+
+            synchronized (this.shard) {
+                return this.shard.total(this.walletId,
+                        CurrencyCodes.pack(currency), false);
+            }
+        }
+
+        @Override
+        public long totalDebitsCentsLong(String currency) {
+            assert currency != null : "Violation of: currency is not null";
+            assert this.isValidCurrency(currency)
+                    : "Violation of: isValidCurrency(currency)";
+
+            synchronized (this.shard) {
+                return this.shard.total(this.walletId,
+                        CurrencyCodes.pack(currency), true);
+            }
+        }
+    }
+
+    /**
+     * Shards of this store.
+     */
+    private final Shard[] shards;
+
+    /**
+     * Id of the next wallet handed out by newInstance; counts down from -1
+     * so it never meets an id given to {@link #wallet(long)}.
+     */
+    private final AtomicLong nextAnonymousWallet = new AtomicLong(-1);
+
+    /**
+     * Constructs an empty store.
+     *
+     * @param shardCount
+     *            number of shards, typically about the number of threads
+     *            that use the store at once
+     * @requires shardCount > 0
+     * @ensures every wallet of this is empty
+     */
+    public WalletLedgerStore(int shardCount) {
+        assert shardCount > 0 : "Violation of: shardCount > 0";
+
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            this.shards[i] = new Shard(i);
+        }
+    }
+
+    /**
+     * Returns the shard of a wallet.
+     *
+     * @param walletId
+     *            wallet id
+     * @return shard holding walletId
+     */
+    private Shard shardOf(long walletId) {
+        long h = (walletId * SHARD_MULTIPLIER) >>> Integer.SIZE;
+        return this.shards[(int) (h % this.shards.length)];
+    }
+
+    /**
+     * Returns a view of a new empty wallet with an id no client can name.
+     * The wallet takes storage only while it is not empty with sequence 1.
+     *
+     * @return view of the new wallet
+     */
+    private WalletLedger anonymousWallet() {
+        return new WalletView(this,
+                this.nextAnonymousWallet.getAndDecrement());
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return shard count
+     */
+    public int shardCount() {
+        return this.shards.length;
+    }
+
+    /**
+     * Returns a view of the wallet with the given id. Every view of the same
+     * wallet reads and changes the same value, which lives in this store and
+     * not in the view.
+     *
+     * @param walletId
+     *            wallet id
+     * @return view of the wallet
+     * @requires walletId >= 0
+     * @ensures wallet is a view of the wallet walletId of this
+     */
+    public WalletLedger wallet(long walletId) {
+        assert walletId >= 0 : "Violation of: walletId >= 0";
+
+        return new WalletView(this, walletId);
+    }
+
+    /**
+     * Returns the number of wallets of this that are not empty with sequence
+     * 1, and so take up storage.
+     *
+     * @return number of stored wallets
+     */
+    public int walletCount() {
+        int count = 0;
+        for (Shard shard : this.shards) {
+            synchronized (shard) {
+                count += shard.walletLive;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of entries in all wallets of this.
+     *
+     * @return total entry count
+     */
+    public long entryCount() {
+        long count = 0;
+        for (Shard shard : this.shards) {
+            synchronized (shard) {
+                count += shard.entryLive;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,60 @@
+package components.walletledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * JUnit tests for CurrencyCodes.
+ */
+public final class CurrencyCodesTest {
+
+    /**
+     * Tests that packing and unpacking round-trips the edge codes.
+     */
+    @Test
+    public void testPackUnpackRoundTrip() {
+        assertEquals("AAA", CurrencyCodes.unpack(CurrencyCodes.pack("AAA")));
+        assertEquals("ZZZ", CurrencyCodes.unpack(CurrencyCodes.pack("ZZZ")));
+        assertEquals("USD", CurrencyCodes.unpack(CurrencyCodes.pack("USD")));
+    }
+
+    /**
+     * Tests that different codes pack differently and stay in range.
+     */
+    @Test
+    public void testPackIsDistinctAndInRange() {
+        int usd = CurrencyCodes.pack("USD");
+        int dsu = CurrencyCodes.pack("DSU");
+
+        assertNotEquals(usd, dsu);
+        assertTrue(CurrencyCodes.pack("ZZZ") < CurrencyCodes.PACKED_LIMIT);
+        assertEquals(0, CurrencyCodes.pack("AAA"));
+    }
+
+    /**
+     * Tests that unpack returns one shared String per code.
+     */
+    @Test
+    public void testUnpackIsInterned() {
+        int eur = CurrencyCodes.pack("EUR");
+
+        assertSame(CurrencyCodes.unpack(eur), CurrencyCodes.unpack(eur));
+    }
+
+    /**
+     * Tests isValid on invalid codes.
+     */
+    @Test
+    public void testIsValidRejectsInvalidCodes() {
+        assertFalse(CurrencyCodes.isValid(null));
+        assertFalse(CurrencyCodes.isValid("usd"));
+        assertFalse(CurrencyCodes.isValid("US"));
+        assertFalse(CurrencyCodes.isValid("U$D"));
+        assertTrue(CurrencyCodes.isValid("JPY"));
+    }
+}
@@ -0,0 +1,96 @@
+package components.walletledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.walletledger.WalletLedgerMetrics.Operation;
+import components.walletledger.WalletLedgerMetrics.OperationStats;
+
+/**
+ * JUnit tests for InstrumentedWalletLedger and WalletLedgerMetrics.
+ *
+ * Inherits every WalletLedger test, run against an instrumented
+ * WalletLedger1L, and adds tests of what the metrics record.
+ */
+public final class InstrumentedWalletLedgerTest extends WalletLedgerTest {
+
+    /**
+     * Number of calls used to fill a histogram.
+     */
+    private static final int CALLS = 1000;
+
+    /**
+     * Metrics shared by every ledger of one test.
+     */
+    private final WalletLedgerMetrics metrics = new WalletLedgerMetrics();
+
+    @Override
+    protected WalletLedger newLedger() {
+        return new InstrumentedWalletLedger(new WalletLedger1L(),
+                this.metrics);
+    }
+
+    /**
+     * Tests that each call is counted under its operation.
+     */
+    @Test
+    public void testCallsAreCountedByOperation() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.deposit(500, "USD");
+        ledger.deposit(500, "USD");
+        ledger.tryWithdraw(200, "USD");
+        ledger.balanceCents("USD");
+        ledger.forEachEntry(entry -> {
+        });
+
+        assertEquals(2, this.metrics.stats(Operation.DEPOSIT).count());
+        assertEquals(1, this.metrics.stats(Operation.WITHDRAW).count());
+        assertEquals(1, this.metrics.stats(Operation.BALANCE).count());
+        assertEquals(3,
+                this.metrics.stats(Operation.FOR_EACH_ENTRY).entriesScanned());
+        assertEquals(0, this.metrics.stats(Operation.EXPORT).count());
+        assertEquals(2, (long) this.metrics.getCounts().get("DEPOSIT"));
+    }
+
+    /**
+     * Tests that percentiles are ordered and bounded by the maximum.
+     */
+    @Test
+    public void testPercentilesAreOrdered() {
+        WalletLedger ledger = this.newLedger();
+
+        for (int i = 0; i < CALLS; i++) {
+            ledger.addEntry("R" + i, 1, "USD",
+                    WalletLedgerKernel.EntryType.CREDIT);
+        }
+
+        OperationStats stats = this.metrics.stats(Operation.ADD_ENTRY);
+        assertEquals(CALLS, stats.count());
+        assertTrue(stats.p50Nanos() <= stats.p90Nanos());
+        assertTrue(stats.p90Nanos() <= stats.p99Nanos());
+        assertTrue(stats.p99Nanos() <= stats.p999Nanos());
+        assertTrue(stats.p999Nanos() <= stats.maxNanos());
+        assertTrue(stats.meanNanos() <= stats.maxNanos());
+    }
+
+    /**
+     * Tests that nothing is recorded while the metrics are disabled, and
+     * that reset discards what was recorded.
+     */
+    @Test
+    public void testDisableAndReset() {
+        WalletLedger ledger = this.newLedger();
+        ledger.deposit(500, "USD");
+
+        this.metrics.setEnabled(false);
+        ledger.deposit(500, "USD");
+        assertEquals(1, this.metrics.stats(Operation.DEPOSIT).count());
+
+        this.metrics.reset();
+        assertEquals(0, this.metrics.stats(Operation.DEPOSIT).count());
+        assertEquals(1000, ledger.balanceCents("USD"));
+    }
+}
@@ -0,0 +1,70 @@
+package components.walletledger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * JUnit tests for SortedIdRuns.
+ */
+public final class SortedIdRunsTest {
+
+    /**
+     * Number of ids in the spilling test.
+     */
+    private static final int IDS = 1000;
+
+    /**
+     * Run length small enough to spill several runs.
+     */
+    private static final int RUN = 64;
+
+    /**
+     * Tests that ids that fit in one run come back sorted.
+     *
+     * @throws IOException
+     *             never, since nothing is spilled
+     */
+    @Test
+    public void testSingleRunIsSorted() throws IOException {
+        List<String> seen = new ArrayList<>();
+
+        try (SortedIdRuns ids = new SortedIdRuns(RUN)) {
+            ids.add("b");
+            ids.add("c");
+            ids.add("a");
+            ids.forEachSorted(seen::add);
+        }
+
+        assertEquals(List.of("a", "b", "c"), seen);
+    }
+
+    /**
+     * Tests that spilled runs merge into one increasing sequence holding
+     * every id once.
+     *
+     * @throws IOException
+     *             if a run cannot be spilled or read
+     */
+    @Test
+    public void testSpilledRunsMerge() throws IOException {
+        List<String> seen = new ArrayList<>();
+
+        try (SortedIdRuns ids = new SortedIdRuns(RUN)) {
+            for (int i = 0; i < IDS; i++) {
+                ids.add("R" + (i * 7919 % IDS) + "-é");
+            }
+            ids.forEachSorted(seen::add);
+        }
+
+        assertEquals(IDS, seen.size());
+        for (int i = 1; i < seen.size(); i++) {
+            assertEquals(-1, Integer.signum(
+                    seen.get(i - 1).compareTo(seen.get(i))));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package components.walletledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * JUnit tests for WalletLedger2.
+ *
+ * Inherits every WalletLedger test and adds tests for the column and index
+ * handling specific to this implementation.
+ */
+public final class WalletLedger2Test extends WalletLedgerTest {
+
+    /**
+     * Number of entries used to force several rounds of growth.
+     */
+    private static final int MANY = 1000;
+
+    @Override
+    protected WalletLedger newLedger() {
+        return new WalletLedger2();
+    }
+
+    /**
+     * Tests that entries survive column and index growth.
+     */
+    @Test
+    public void testGrowthKeepsEntries() {
+        WalletLedger ledger = this.newLedger();
+
+        for (int i = 0; i < MANY; i++) {
+            ledger.addEntry("R" + i, i + 1, "USD",
+                    WalletLedgerKernel.EntryType.CREDIT);
+        }
+
+        assertEquals(MANY, ledger.entryCount());
+        for (int i = 0; i < MANY; i++) {
+            assertEquals(i + 1, ledger.findById("R" + i).amountCents());
+        }
+    }
+
+    /**
+     * Tests that removing entries from the middle keeps the others
+     * reachable.
+     */
+    @Test
+    public void testRemoveEntryKeepsOthersReachable() {
+        WalletLedger ledger = this.newLedger();
+
+        for (int i = 0; i < MANY; i++) {
+            ledger.addEntry("R" + i, i + 1, "USD",
+                    WalletLedgerKernel.EntryType.DEBIT);
+        }
+        for (int i = 0; i < MANY; i += 2) {
+            ledger.removeEntry("R" + i);
+        }
+
+        assertEquals(MANY / 2, ledger.entryCount());
+        for (int i = 0; i < MANY; i++) {
+            assertEquals(i % 2 == 1, ledger.hasEntry("R" + i));
+        }
+        assertEquals(WalletLedgerKernel.EntryType.DEBIT,
+                ledger.findById("R1").type());
+    }
+
+    /**
+     * Tests that numeric and text ids that look alike stay distinct.
+     */
+    @Test
+    public void testNumericAndTextIdsAreDistinct() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E7", 100, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E07", 200, "USD",
+                WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("e7", 300, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        assertEquals(100, ledger.findById("E7").amountCents());
+        assertEquals(200, ledger.findById("E07").amountCents());
+        assertEquals(300, ledger.findById("e7").amountCents());
+        assertFalse(ledger.hasEntry("E70"));
+
+        ledger.removeEntry("E7");
+        assertTrue(ledger.hasEntry("E07"));
+        assertFalse(ledger.hasEntry("E7"));
+    }
+
+    /**
+     * Tests that the running totals agree with a recount after removals
+     * that move entries between slots.
+     */
+    @Test
+    public void testRunningTotalsFollowRemovals() {
+        WalletLedger ledger = this.newLedger();
+
+        for (int i = 0; i < MANY; i++) {
+            ledger.addEntry("R" + i, i + 1, i % 3 == 0 ? "EUR" : "USD",
+                    i % 4 == 0 ? WalletLedgerKernel.EntryType.DEBIT
+                            : WalletLedgerKernel.EntryType.CREDIT);
+        }
+        for (int i = 0; i < MANY; i += 3) {
+            ledger.removeEntry("R" + i);
+        }
+        ledger.removeAnyEntry();
+
+        assertEquals(ledger.parallelTotals(), ledger.balances());
+        int usd = CurrencyCodes.pack("USD");
+        assertEquals(ledger.balances().netCents(usd),
+                ledger.balanceCentsLong("USD"));
+    }
+}
@@ -0,0 +1,142 @@
+package components.walletledger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import components.walletledger.WalletLedger.WithdrawResult;
+
+/**
+ * JUnit tests for WalletLedger3.
+ *
+ * Inherits every WalletLedger test and adds tests that drive one ledger from
+ * several threads at once.
+ */
+public final class WalletLedger3Test extends WalletLedgerTest {
+
+    /**
+     * Number of threads used by the concurrent tests.
+     */
+    private static final int THREADS = 8;
+
+    /**
+     * Operations per thread in the concurrent tests.
+     */
+    private static final int OPERATIONS = 2000;
+
+    @Override
+    protected WalletLedger newLedger() {
+        return new WalletLedger3();
+    }
+
+    /**
+     * Runs task on THREADS threads at once and waits for all of them.
+     *
+     * @param task
+     *            work for each thread
+     * @throws Exception
+     *             if any thread fails
+     */
+    private static void runConcurrently(Runnable task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                results.add(pool.submit(task));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Tests that concurrent deposits are all recorded with distinct ids.
+     *
+     * @throws Exception
+     *             if a worker thread fails
+     */
+    @Test
+    public void testConcurrentDepositsAreAllRecorded() throws Exception {
+        WalletLedger ledger = this.newLedger();
+
+        runConcurrently(() -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                ledger.deposit(1, "USD");
+            }
+        });
+
+        assertEquals(THREADS * OPERATIONS, ledger.entryCount());
+        assertEquals(THREADS * OPERATIONS, ledger.balanceCents("USD"));
+        assertEquals(ledger.parallelTotals(), ledger.balances());
+        assertEquals(THREADS * OPERATIONS,
+                ledger.balances().entryCount(CurrencyCodes.pack("USD")));
+    }
+
+    /**
+     * Tests that concurrent withdrawals never overdraw the currency.
+     *
+     * @throws Exception
+     *             if a worker thread fails
+     */
+    @Test
+    public void testConcurrentWithdrawalsNeverOverdraw() throws Exception {
+        WalletLedger ledger = this.newLedger();
+        ledger.deposit(OPERATIONS, "USD");
+        AtomicInteger debited = new AtomicInteger();
+
+        runConcurrently(() -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                if (ledger.tryWithdraw(1, "USD") == WithdrawResult.DEBITED) {
+                    debited.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(OPERATIONS, debited.get());
+        assertEquals(0, ledger.balanceCents("USD"));
+    }
+
+    /**
+     * Tests that transfers in both directions between two ledgers neither
+     * deadlock nor create or lose funds.
+     *
+     * @throws Exception
+     *             if a worker thread fails
+     */
+    @Test
+    public void testConcurrentTransfersConserveFunds() throws Exception {
+        WalletLedger left = this.newLedger();
+        WalletLedger right = this.newLedger();
+        left.deposit(OPERATIONS, "USD");
+        right.deposit(OPERATIONS, "USD");
+        AtomicInteger nextThread = new AtomicInteger();
+
+        runConcurrently(() -> {
+            boolean leftToRight = nextThread.getAndIncrement() % 2 == 0;
+            WalletLedger from = leftToRight ? left : right;
+            WalletLedger to = leftToRight ? right : left;
+            for (int i = 0; i < OPERATIONS; i++) {
+                from.transferTo(to, 1, "USD");
+            }
+        });
+
+        assertEquals(2 * OPERATIONS,
+                left.balanceCents("USD") + right.balanceCents("USD"));
+        assertEquals(left.entryCount() + right.entryCount() - 2,
+                2 * (left.totalDebitsCents("USD")
+                        + right.totalDebitsCents("USD")));
+    }
+
+}
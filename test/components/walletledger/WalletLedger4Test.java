@@ -0,0 +1,161 @@
+package components.walletledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import components.walletledger.WalletLedgerKernel.EntryType;
+
+/**
+ * JUnit tests for WalletLedger4.
+ *
+ * Inherits every WalletLedger test and adds tests for the trie handling and
+ * the published versions specific to this implementation.
+ */
+public final class WalletLedger4Test extends WalletLedgerTest {
+
+    /**
+     * Number of entries used to force several trie levels.
+     */
+    private static final int MANY = 5000;
+
+    /**
+     * Number of batches the writer publishes in the reader test.
+     */
+    private static final int BATCHES = 20000;
+
+    /**
+     * Number of entries the writer adds and removes in the text test.
+     */
+    private static final int CHURN = 2000;
+
+    @Override
+    protected WalletLedger newLedger() {
+        return new WalletLedger4();
+    }
+
+    /**
+     * Tests that removing half of many entries keeps the rest reachable.
+     */
+    @Test
+    public void testRemoveEntryKeepsOthersReachable() {
+        WalletLedger ledger = this.newLedger();
+
+        for (int i = 0; i < MANY; i++) {
+            ledger.addEntry("R" + i, i + 1, "USD", EntryType.CREDIT);
+        }
+        for (int i = 0; i < MANY; i += 2) {
+            ledger.removeEntry("R" + i);
+        }
+
+        assertEquals(MANY / 2, ledger.entryCount());
+        for (int i = 0; i < MANY; i++) {
+            assertEquals(i % 2 == 1, ledger.hasEntry("R" + i));
+        }
+        while (ledger.entryCount() > 0) {
+            ledger.removeAnyEntry();
+        }
+        assertEquals(0, ledger.totalCreditsCents("USD"));
+    }
+
+    /**
+     * Tests that a snapshot keeps its value while the original changes.
+     */
+    @Test
+    public void testSnapshotIsUnaffectedByLaterChanges() {
+        WalletLedger4 ledger = new WalletLedger4();
+        ledger.deposit(500, "USD");
+
+        WalletLedger4 snapshot = ledger.snapshot();
+        ledger.withdraw(200, "USD");
+        ledger.addEntry("x", 10, "EUR", EntryType.CREDIT);
+
+        assertEquals(1, snapshot.entryCount());
+        assertEquals(500, snapshot.balanceCents("USD"));
+        assertFalse(snapshot.hasEntry("x"));
+        assertEquals(300, ledger.balanceCents("USD"));
+        assertTrue(ledger.hasEntry("x"));
+    }
+
+    /**
+     * Tests that a reader never sees half of a published batch.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the writer
+     */
+    @Test
+    public void testReadersSeeWholeBatches() throws InterruptedException {
+        WalletLedger ledger = this.newLedger();
+        ledger.deposit(1000, "USD");
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger torn = new AtomicInteger();
+
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < BATCHES; i++) {
+                ledger.addEntries(new String[] { "C" + i, "D" + i },
+                        new int[] { 7, 7 }, new String[] { "USD", "USD" },
+                        new EntryType[] { EntryType.CREDIT,
+                                EntryType.DEBIT });
+            }
+            done.set(true);
+        });
+        writer.start();
+        while (!done.get()) {
+            if (ledger.balanceCents("USD") != 1000) {
+                torn.incrementAndGet();
+            }
+        }
+        writer.join();
+
+        assertEquals(0, torn.get());
+        assertEquals(1 + 2 * BATCHES, ledger.entryCount());
+    }
+
+    /**
+     * Tests that toString and exportTo give whole, ordered text while
+     * another thread adds and removes entries.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the writer
+     * @throws IOException
+     *             never, since the export goes to a StringBuilder
+     */
+    @Test
+    public void testTextIsConsistentWhileWriting()
+            throws InterruptedException, IOException {
+        WalletLedger ledger = this.newLedger();
+        ledger.addEntry("A", 1, "USD", EntryType.CREDIT);
+        AtomicBoolean done = new AtomicBoolean();
+
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < CHURN; i++) {
+                ledger.addEntry("W" + i, 1, "USD", EntryType.CREDIT);
+                if (i % 2 == 1) {
+                    ledger.removeEntry("W" + (i - 1));
+                }
+            }
+            done.set(true);
+        });
+        writer.start();
+        do {
+            assertTrue(ledger.toString().startsWith("WalletLedger[A|"));
+            StringBuilder out = new StringBuilder();
+            ledger.exportTo(out);
+            String[] lines = out.toString().split("\n");
+            for (int i = 1; i < lines.length; i++) {
+                String previous = lines[i - 1].split("\\|")[0];
+                assertTrue(previous.compareTo(lines[i].split("\\|")[0]) < 0);
+            }
+        } while (!done.get());
+        writer.join();
+
+        assertEquals(1 + CHURN / 2, ledger.entryCount());
+    }
+
+}
@@ -0,0 +1,104 @@
+package components.walletledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * JUnit tests for WalletLedger5.
+ *
+ * Inherits every WalletLedger test and adds tests for the off-heap record,
+ * id and index handling specific to this implementation.
+ */
+public final class WalletLedger5Test extends WalletLedgerTest {
+
+    /**
+     * Number of entries used to force several rounds of growth.
+     */
+    private static final int MANY = 1000;
+
+    @Override
+    protected WalletLedger newLedger() {
+        return new WalletLedger5();
+    }
+
+    /**
+     * Tests that entries, with ids of many lengths, survive growth and the
+     * compaction of removed ids.
+     */
+    @Test
+    public void testGrowthAndIdCompactionKeepEntries() {
+        WalletLedger ledger = this.newLedger();
+
+        for (int i = 0; i < MANY; i++) {
+            ledger.addEntry("R" + "x".repeat(i % 7) + i, i + 1, "USD",
+                    WalletLedgerKernel.EntryType.CREDIT);
+        }
+        for (int i = 0; i < MANY; i += 2) {
+            ledger.removeEntry("R" + "x".repeat(i % 7) + i);
+        }
+        for (int i = 0; i < MANY; i++) {
+            ledger.addEntry("Sé" + i, 1, "EUR",
+                    WalletLedgerKernel.EntryType.DEBIT);
+        }
+
+        assertEquals(MANY / 2 + MANY, ledger.entryCount());
+        for (int i = 0; i < MANY; i++) {
+            String id = "R" + "x".repeat(i % 7) + i;
+            assertEquals(i % 2 == 1, ledger.hasEntry(id));
+            if (i % 2 == 1) {
+                assertEquals(i + 1, ledger.findById(id).amountCents());
+            }
+            assertEquals("Sé" + i, ledger.findById("Sé" + i).id());
+        }
+        assertEquals(MANY, ledger.totalDebitsCents("EUR"));
+    }
+
+    /**
+     * Tests that forEachEntry passes a reused view, while lookups return
+     * copies that outlive changes to the ledger.
+     */
+    @Test
+    public void testCursorIsReusedAndLookupsAreCopies() {
+        WalletLedger ledger = this.newLedger();
+        ledger.addEntry("A", 100, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("B", 200, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        List<WalletLedgerKernel.LedgerEntry> seen = new ArrayList<>();
+
+        ledger.forEachEntry(seen::add);
+        WalletLedgerKernel.LedgerEntry a = ledger.findById("A");
+        ledger.removeEntry("A");
+
+        assertEquals(2, seen.size());
+        assertTrue(seen.get(0) == seen.get(1));
+        assertEquals("A", a.id());
+        assertEquals(100, a.amountCents());
+        assertNotSame(a, ledger.findById("B"));
+    }
+
+    /**
+     * Tests that close empties the ledger and that it can be used again.
+     */
+    @Test
+    public void testCloseEmptiesAndLedgerStaysUsable() {
+        WalletLedger5 ledger = new WalletLedger5();
+        try (WalletLedger5 closing = ledger) {
+            closing.deposit(500, "USD");
+            closing.setEntrySequence(9);
+        }
+
+        assertEquals(0, ledger.entryCount());
+        assertFalse(ledger.hasEntry("E1"));
+        assertEquals(0, ledger.balanceCents("USD"));
+        assertEquals(1, ledger.nextEntrySequence());
+
+        ledger.deposit(300, "USD");
+        assertEquals(300, ledger.balanceCents("USD"));
+    }
+}
@@ -0,0 +1,325 @@
+package components.walletledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import components.walletledger.WalletLedgerJournal.SyncPolicy;
+
+/**
+ * JUnit tests for journaled WalletLedger1L instances.
+ */
+public final class WalletLedgerJournalTest {
+
+    /**
+     * Group commit interval used by the tests.
+     */
+    private static final long GROUP_COMMIT_MILLIS = 5;
+
+    /**
+     * Folder for journal files, deleted after each test.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Returns a new journal file path.
+     *
+     * @return path of a file that does not exist yet
+     * @throws IOException
+     *             if the folder cannot be used
+     */
+    private Path journalFile() throws IOException {
+        return this.folder.getRoot().toPath().resolve("ledger.wal");
+    }
+
+    /**
+     * Tests that a reopened journal rebuilds entries, totals and sequence.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testReplayRestoresLedger() throws IOException {
+        Path file = this.journalFile();
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.EVERY_OPERATION, 0)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            ledger.deposit(5000, "USD");
+            ledger.withdraw(1200, "USD");
+            ledger.addEntryAt("X1", 700, "EUR",
+                    WalletLedgerKernel.EntryType.CREDIT, 1234);
+            ledger.removeEntry("E1");
+        }
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.EVERY_OPERATION, 0)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            assertEquals(2, ledger.entryCount());
+            assertFalse(ledger.hasEntry("E1"));
+            assertEquals(-1200, ledger.balanceCents("USD"));
+            assertEquals(700, ledger.balanceCents("EUR"));
+            assertEquals(1234, ledger.findById("X1").createdAtMillis());
+            assertEquals(3, ledger.nextEntrySequence());
+        }
+    }
+
+    /**
+     * Tests that a removal, clear or transferFrom whose journal write fails
+     * leaves the ledgers unchanged.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testFailedJournalWriteLeavesLedgerUnchanged()
+            throws IOException {
+        WalletLedgerJournal journal = new WalletLedgerJournal(
+                this.journalFile(), SyncPolicy.EVERY_OPERATION, 0);
+        WalletLedger ledger = new WalletLedger1L(journal);
+        ledger.deposit(500, "USD");
+        ledger.deposit(300, "USD");
+        WalletLedger1L source = new WalletLedger1L();
+        source.deposit(70, "EUR");
+        journal.close();
+
+        List<Runnable> mutations = Arrays.asList(
+                () -> ledger.removeEntry("E1"), ledger::removeAnyEntry,
+                ledger::clear, () -> ledger.transferFrom(source));
+        for (Runnable mutation : mutations) {
+            try {
+                mutation.run();
+                fail("journal write did not fail");
+            } catch (UncheckedIOException e) {
+                assertEquals(2, ledger.entryCount());
+                assertEquals(800, ledger.balanceCents("USD"));
+                assertEquals(3, ledger.entrySequence());
+                assertEquals(70, source.balanceCents("EUR"));
+            }
+        }
+    }
+
+    /**
+     * Tests that a deposit, which draws a sequence value and adds an entry,
+     * appends a single ADD frame.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testDepositIsOneFrame() throws IOException {
+        Path file = this.journalFile();
+        final int addFrameOfE1 = 2 * Integer.BYTES + 1 + Short.BYTES + 2
+                + Integer.BYTES + Short.BYTES + 1 + 2 * Long.BYTES;
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.EVERY_OPERATION, 0)) {
+            new WalletLedger1L(journal).deposit(100, "USD");
+            assertEquals(addFrameOfE1, Files.size(file));
+        }
+    }
+
+    /**
+     * Tests that group commit frames are durable after close.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testGroupCommitReplay() throws IOException {
+        Path file = this.journalFile();
+        final int deposits = 2000;
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.GROUP_COMMIT, GROUP_COMMIT_MILLIS)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            for (int i = 0; i < deposits; i++) {
+                ledger.deposit(1, "USD");
+            }
+        }
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.OS_MANAGED, 0)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            assertEquals(deposits, ledger.entryCount());
+            assertEquals(deposits, ledger.balanceCents("USD"));
+        }
+    }
+
+    /**
+     * Tests that a torn final frame is dropped and later frames still
+     * replay.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testTornTailIsTruncated() throws IOException {
+        Path file = this.journalFile();
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.OS_MANAGED, 0)) {
+            new WalletLedger1L(journal).deposit(100, "USD");
+        }
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 40, 1, 2 }));
+        }
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.OS_MANAGED, 0)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            assertEquals(1, ledger.entryCount());
+            ledger.deposit(50, "USD");
+        }
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.OS_MANAGED, 0)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            assertEquals(2, ledger.entryCount());
+            assertEquals(150, ledger.balanceCents("USD"));
+        }
+    }
+
+    /**
+     * Tests that clear and transferFrom are journaled.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testClearAndTransferFromAreJournaled() throws IOException {
+        Path file = this.journalFile();
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.OS_MANAGED, 0)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            ledger.deposit(100, "USD");
+            ledger.clear();
+
+            WalletLedger source = new WalletLedger1L();
+            source.addEntry("S1", 900, "GBP",
+                    WalletLedgerKernel.EntryType.CREDIT);
+            ledger.transferFrom(source);
+        }
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.OS_MANAGED, 0)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            assertEquals(1, ledger.entryCount());
+            assertTrue(ledger.hasEntry("S1"));
+            assertEquals(0, ledger.balanceCents("USD"));
+            assertEquals(900, ledger.balanceCents("GBP"));
+        }
+    }
+
+    /**
+     * Tests that an id of the largest journaled length replays along with
+     * the frames around it.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testLongestIdReplays() throws IOException {
+        Path file = this.journalFile();
+        String longest = "I".repeat(WalletLedgerJournal.MAX_ID_BYTES);
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.EVERY_OPERATION, 0)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            ledger.deposit(100, "USD");
+            ledger.addEntry(longest, 200, "USD",
+                    WalletLedgerKernel.EntryType.CREDIT);
+            ledger.deposit(5, "USD");
+        }
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.EVERY_OPERATION, 0)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            assertEquals(3, ledger.entryCount());
+            assertTrue(ledger.hasEntry(longest));
+            assertEquals(305, ledger.balanceCents("USD"));
+        }
+    }
+
+    /**
+     * Tests that an id too long for a journal frame is rejected without
+     * changing the ledger or the journal.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testTooLongIdIsRejected() throws IOException {
+        Path file = this.journalFile();
+        String tooLong = "I".repeat(WalletLedgerJournal.MAX_ID_BYTES + 1);
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.EVERY_OPERATION, 0)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            ledger.deposit(100, "USD");
+            try {
+                ledger.addEntry(tooLong, 200, "USD",
+                        WalletLedgerKernel.EntryType.CREDIT);
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                assertFalse(ledger.hasEntry(tooLong));
+                assertEquals(1, ledger.entryCount());
+            }
+            ledger.deposit(5, "USD");
+        }
+
+        try (WalletLedgerJournal journal = new WalletLedgerJournal(file,
+                SyncPolicy.EVERY_OPERATION, 0)) {
+            WalletLedger ledger = new WalletLedger1L(journal);
+            assertEquals(2, ledger.entryCount());
+            assertEquals(105, ledger.balanceCents("USD"));
+        }
+    }
+
+    /**
+     * Tests that a transfer whose CREDIT cannot be journaled takes its DEBIT
+     * back out of the source.
+     *
+     * @throws IOException
+     *             if the journal cannot be used
+     */
+    @Test
+    public void testTransferToRollsBackWhenDestinationThrows()
+            throws IOException {
+        WalletLedger source = new WalletLedger1L();
+        source.deposit(500, "USD");
+        WalletLedgerJournal journal = new WalletLedgerJournal(
+                this.journalFile(), SyncPolicy.OS_MANAGED, 0);
+        WalletLedger destination = new WalletLedger1L(journal);
+        journal.close();
+
+        try {
+            source.transferTo(destination, 200, "USD");
+            fail("Expected UncheckedIOException");
+        } catch (UncheckedIOException e) {
+            assertEquals(1, source.entryCount());
+            assertEquals(500, source.balanceCents("USD"));
+            assertNull(source.findById("T2"));
+            assertEquals(0, destination.entryCount());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package components.walletledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import components.walletledger.WalletLedgerKernel.EntryType;
+import components.walletledger.WalletLedgerKernel.LedgerEntry;
+
+/**
+ * JUnit tests for WalletLedgerSnapshot.
+ */
+public final class WalletLedgerSnapshotTest {
+
+    /**
+     * Folder for snapshot files, deleted after each test.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Returns a ledger with entries in two currencies and mixed ids.
+     *
+     * @return sample ledger
+     */
+    private static WalletLedger sampleLedger() {
+        WalletLedger ledger = new WalletLedger1L();
+        ledger.deposit(5000, "USD");
+        ledger.withdraw(1200, "USD");
+        ledger.addEntry("refund-é", 300, "EUR", EntryType.CREDIT);
+        ledger.addEntry("fee", 40, "EUR", EntryType.DEBIT);
+        return ledger;
+    }
+
+    /**
+     * Tests that an opened snapshot answers balances and lookups.
+     *
+     * @throws IOException
+     *             if the snapshot cannot be used
+     */
+    @Test
+    public void testOpenServesReads() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("ledger.snap");
+        WalletLedger ledger = sampleLedger();
+        WalletLedgerSnapshot.write(ledger, file);
+
+        WalletLedgerSnapshot snapshot = WalletLedgerSnapshot.open(file);
+        assertEquals(4, snapshot.entryCount());
+        assertEquals(3800, snapshot.balanceCentsLong("USD"));
+        assertEquals(260, snapshot.balanceCentsLong("EUR"));
+        assertEquals(40, snapshot.totalDebitsCentsLong("EUR"));
+        assertEquals(0, snapshot.balanceCentsLong("JPY"));
+        LedgerEntry refund = snapshot.findById("refund-é");
+        assertEquals(300, refund.amountCents());
+        assertEquals("EUR", refund.currency());
+        assertEquals(EntryType.CREDIT, refund.type());
+        assertNull(snapshot.findById("missing"));
+        int[] count = new int[1];
+        snapshot.forEachEntry(entry -> count[0]++);
+        assertEquals(4, count[0]);
+    }
+
+    /**
+     * Tests that restoring a snapshot rebuilds entries and sequence.
+     *
+     * @throws IOException
+     *             if the snapshot cannot be used
+     */
+    @Test
+    public void testRestoreIntoRebuildsLedger() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("ledger.snap");
+        WalletLedger ledger = sampleLedger();
+        WalletLedgerSnapshot.write(ledger, file);
+
+        WalletLedger restored = new WalletLedger2();
+        WalletLedgerSnapshot.open(file).restoreInto(restored);
+        assertEquals(ledger, restored);
+        assertEquals(ledger.findById("fee").createdAtMillis(),
+                restored.findById("fee").createdAtMillis());
+        assertEquals(ledger.nextEntrySequence(),
+                restored.nextEntrySequence());
+    }
+
+    /**
+     * Tests that writing a snapshot leaves the ledger's sequence alone and
+     * replaces an older snapshot without leaving other files behind.
+     *
+     * @throws IOException
+     *             if the snapshot cannot be used
+     */
+    @Test
+    public void testWriteKeepsSequenceAndReplacesFile() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("ledger.snap");
+        WalletLedger ledger = sampleLedger();
+        WalletLedgerSnapshot.write(ledger, file);
+        ledger.addEntry("late", 5, "USD", EntryType.CREDIT);
+        WalletLedgerSnapshot.write(ledger, file);
+
+        assertEquals(3, ledger.nextEntrySequence());
+        WalletLedger restored = new WalletLedger1L();
+        WalletLedgerSnapshot.open(file).restoreInto(restored);
+        assertEquals(5, restored.entryCount());
+        assertEquals(3, restored.nextEntrySequence());
+        try (Stream<Path> files = Files.list(this.folder.getRoot().toPath())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    /**
+     * Tests that a restore larger than one batch keeps every entry and its
+     * creation time.
+     *
+     * @throws IOException
+     *             if the snapshot cannot be used
+     */
+    @Test
+    public void testRestoreIntoSpansBatches() throws IOException {
+        final int rows = 70000;
+        Path file = this.folder.getRoot().toPath().resolve("ledger.snap");
+        WalletLedger ledger = new WalletLedger1L();
+        for (int i = 0; i < rows; i++) {
+            ledger.addEntryAt("R" + i, 1, "USD", EntryType.CREDIT, i);
+        }
+        WalletLedgerSnapshot.write(ledger, file);
+
+        WalletLedger restored = new WalletLedger1L();
+        WalletLedgerSnapshot.open(file).restoreInto(restored);
+        assertEquals(ledger, restored);
+        assertEquals(rows - 1,
+                restored.findById("R" + (rows - 1)).createdAtMillis());
+        assertEquals(rows / 2, restored.balanceCentsAsOf("USD", rows / 2 - 1));
+    }
+
+    /**
+     * Tests that snapshots written while another thread adds and removes
+     * entries are complete and readable.
+     *
+     * @throws Exception
+     *             if the snapshot cannot be used or the writer fails
+     */
+    @Test
+    public void testWriteDuringConcurrentChanges() throws Exception {
+        final int rounds = 20;
+        Path file = this.folder.getRoot().toPath().resolve("ledger.snap");
+        WalletLedger ledger = new WalletLedger3();
+        for (int i = 0; i < 1000; i++) {
+            ledger.addEntry("K" + i, 1, "USD", EntryType.CREDIT);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; !done.get(); i++) {
+                ledger.addEntry("N" + i, 1, "USD", EntryType.CREDIT);
+                if (i > 0) {
+                    ledger.removeEntry("N" + (i - 1));
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < rounds; round++) {
+                WalletLedgerSnapshot.write(ledger, file);
+                WalletLedgerSnapshot snapshot = WalletLedgerSnapshot
+                        .open(file);
+                int[] count = new int[1];
+                snapshot.forEachEntry(entry -> {
+                    assertEquals(entry.id(),
+                            snapshot.findById(entry.id()).id());
+                    count[0]++;
+                });
+                assertEquals(snapshot.entryCount(), count[0]);
+                assertEquals(snapshot.entryCount(),
+                        snapshot.balanceCentsLong("USD"));
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+
+    /**
+     * Tests that a file that is not a snapshot is rejected.
+     *
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    @Test(expected = IOException.class)
+    public void testOpenRejectsOtherFiles() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("other.bin");
+        Files.write(file, new byte[128]);
+        WalletLedgerSnapshot.open(file);
+    }
+
+}
@@ -0,0 +1,176 @@
+package components.walletledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * JUnit tests for the wallet views of WalletLedgerStore.
+ *
+ * Inherits every WalletLedger test, run against fresh wallets of one shared
+ * store, and adds tests for how wallets share the store's storage.
+ */
+public final class WalletLedgerStoreTest extends WalletLedgerTest {
+
+    /**
+     * Number of shards of the store under test.
+     */
+    private static final int SHARDS = 4;
+
+    /**
+     * Number of wallets used to fill several shards.
+     */
+    private static final int WALLETS = 1000;
+
+    /**
+     * Store shared by every ledger of one test.
+     */
+    private final WalletLedgerStore store = new WalletLedgerStore(SHARDS);
+
+    /**
+     * Id of the next wallet handed out by newLedger.
+     */
+    private long nextWallet;
+
+    @Override
+    protected WalletLedger newLedger() {
+        WalletLedger ledger = this.store.wallet(this.nextWallet);
+        this.nextWallet++;
+        return ledger;
+    }
+
+    /**
+     * Tests that two views of one wallet see the same value.
+     */
+    @Test
+    public void testViewsOfOneWalletShareState() {
+        WalletLedger first = this.store.wallet(42);
+        WalletLedger second = this.store.wallet(42);
+
+        first.deposit(700, "USD");
+        second.withdraw(200, "USD");
+
+        assertEquals(500, first.balanceCents("USD"));
+        assertEquals(2, second.entryCount());
+        assertEquals(first, second);
+    }
+
+    /**
+     * Tests that many wallets with overlapping entry ids stay separate.
+     */
+    @Test
+    public void testWalletsAreIsolated() {
+        for (int w = 0; w < WALLETS; w++) {
+            WalletLedger wallet = this.store.wallet(w);
+            wallet.addEntry("E1", w + 1, "USD",
+                    WalletLedgerKernel.EntryType.CREDIT);
+            if (w % 2 == 0) {
+                wallet.addEntry("E2", 1, "EUR",
+                        WalletLedgerKernel.EntryType.CREDIT);
+            }
+        }
+
+        for (int w = 0; w < WALLETS; w++) {
+            WalletLedger wallet = this.store.wallet(w);
+            assertEquals(w + 1, wallet.balanceCents("USD"));
+            assertEquals(w % 2 == 0, wallet.hasEntry("E2"));
+        }
+        assertEquals(WALLETS, this.store.walletCount());
+        assertEquals(WALLETS + WALLETS / 2, this.store.entryCount());
+    }
+
+    /**
+     * Tests that a wallet takes no storage once it is empty again.
+     */
+    @Test
+    public void testEmptiedWalletIsReleased() {
+        WalletLedger wallet = this.store.wallet(7);
+        wallet.addEntry("E1", 100, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        wallet.addEntry("E2", 100, "EUR", WalletLedgerKernel.EntryType.DEBIT);
+        assertEquals(1, this.store.walletCount());
+
+        wallet.removeEntry("E1");
+        wallet.removeAnyEntry();
+
+        assertEquals(0, this.store.walletCount());
+        assertEquals(0, this.store.entryCount());
+        assertFalse(wallet.hasEntry("E1"));
+        assertEquals(0, wallet.balanceCents("USD"));
+    }
+
+    /**
+     * Tests that a wallet with an advanced sequence keeps its row until it
+     * is cleared.
+     */
+    @Test
+    public void testSequenceKeepsWalletUntilClear() {
+        WalletLedger wallet = this.store.wallet(7);
+
+        wallet.deposit(100, "USD");
+        wallet.removeAnyEntry();
+        assertEquals(1, this.store.walletCount());
+        assertTrue(wallet.nextEntrySequence() > 1);
+
+        wallet.clear();
+        assertEquals(0, this.store.walletCount());
+        assertEquals(1, wallet.nextEntrySequence());
+    }
+
+    /**
+     * Tests that transfers in both directions through fresh views of two
+     * wallets keep every transfer id unique and every balance consistent.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the other thread
+     */
+    @Test
+    public void testTransfersThroughFreshViewsAreSerialized()
+            throws InterruptedException {
+        final int transfers = 2000;
+        this.store.wallet(1).deposit(transfers, "USD");
+        this.store.wallet(2).deposit(transfers, "USD");
+
+        Thread back = new Thread(() -> {
+            for (int i = 0; i < transfers; i++) {
+                this.store.wallet(2).transferTo(this.store.wallet(1), 1,
+                        "USD");
+            }
+        });
+        back.start();
+        for (int i = 0; i < transfers; i++) {
+            this.store.wallet(1).transferTo(this.store.wallet(2), 1, "USD");
+        }
+        back.join();
+
+        assertEquals(transfers, this.store.wallet(1).balanceCents("USD"));
+        assertEquals(transfers, this.store.wallet(2).balanceCents("USD"));
+        assertEquals(2 * transfers + 1, this.store.wallet(1).entryCount());
+        assertEquals(2 * transfers + 1, this.store.wallet(2).entryCount());
+    }
+
+    /**
+     * Tests that a newInstance wallet is released once it is transferred out
+     * of or cleared, and kept while it still holds entries.
+     */
+    @Test
+    public void testNewInstanceWalletIsReleasedWhenEmptied() {
+        WalletLedger wallet = this.store.wallet(7);
+        wallet.deposit(100, "USD");
+
+        WalletLedgerKernel scratch = wallet.newInstance();
+        scratch.addEntry("S1", 5, "EUR", WalletLedgerKernel.EntryType.CREDIT);
+        assertEquals(2, this.store.walletCount());
+        WalletLedgerKernel other = wallet.newInstance();
+        other.transferFrom(scratch);
+        assertEquals(2, this.store.walletCount());
+        other.clear();
+        assertEquals(1, this.store.walletCount());
+
+        WalletLedgerKernel dropped = wallet.newInstance();
+        dropped.addEntry("S2", 5, "EUR", WalletLedgerKernel.EntryType.CREDIT);
+        assertEquals(2, this.store.walletCount());
+        assertEquals(2, this.store.entryCount());
+    }
+}
@@ -0,0 +1,1061 @@
+package components.walletledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import components.walletledger.WalletLedgerKernel.EntryType;
+import components.walletledger.WalletLedgerKernel.LedgerEntry;
+
+/**
+ * JUnit tests for WalletLedger, run against WalletLedger1L.
+ *
+ * Tests for other kernel implementations extend this class and override
+ * {@link #newLedger()}.
+ */
+public class WalletLedgerTest {
+
+    /**
+     * Returns a new test ledger.
+     *
+     * @return new empty ledger
+     */
+    protected WalletLedger newLedger() {
+        return new WalletLedger1L();
+    }
+
+    /**
+     * Tests that a new ledger starts empty.
+     */
+    @Test
+    public void testConstructorStartsEmpty() {
+        WalletLedger ledger = this.newLedger();
+        assertEquals(0, ledger.entryCount());
+    }
+
+    /**
+     * Tests balances and totals on an empty ledger.
+     */
+    @Test
+    public void testEmptyLedgerBalancesAreZero() {
+        WalletLedger ledger = this.newLedger();
+
+        assertEquals(0, ledger.balanceCents("USD"));
+        assertEquals(0, ledger.totalCreditsCents("USD"));
+        assertEquals(0, ledger.totalDebitsCents("USD"));
+    }
+
+    /**
+     * Tests valid currency.
+     */
+    @Test
+    public void testValidCurrency() {
+        WalletLedger ledger = this.newLedger();
+        assertTrue(ledger.isValidCurrency("USD"));
+    }
+
+    /**
+     * Tests invalid lowercase currency.
+     */
+    @Test
+    public void testInvalidLowercaseCurrency() {
+        WalletLedger ledger = this.newLedger();
+        assertFalse(ledger.isValidCurrency("usd"));
+    }
+
+    /**
+     * Tests invalid short currency.
+     */
+    @Test
+    public void testInvalidShortCurrency() {
+        WalletLedger ledger = this.newLedger();
+        assertFalse(ledger.isValidCurrency("US"));
+    }
+
+    /**
+     * Tests invalid long currency.
+     */
+    @Test
+    public void testInvalidLongCurrency() {
+        WalletLedger ledger = this.newLedger();
+        assertFalse(ledger.isValidCurrency("USDT"));
+    }
+
+    /**
+     * Tests invalid mixed currency.
+     */
+    @Test
+    public void testInvalidMixedCurrency() {
+        WalletLedger ledger = this.newLedger();
+        assertFalse(ledger.isValidCurrency("U1D"));
+    }
+
+    /**
+     * Tests adding one valid entry.
+     */
+    @Test
+    public void testAddEntryIncreasesCount() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        assertEquals(1, ledger.entryCount());
+        assertTrue(ledger.hasEntry("E1"));
+    }
+
+    /**
+     * Tests adding multiple valid entries.
+     */
+    @Test
+    public void testAddMultipleEntries() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E2", 3000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+        ledger.addEntry("E3", 7000, "EUR", WalletLedgerKernel.EntryType.CREDIT);
+
+        assertEquals(3, ledger.entryCount());
+        assertTrue(ledger.hasEntry("E1"));
+        assertTrue(ledger.hasEntry("E2"));
+        assertTrue(ledger.hasEntry("E3"));
+    }
+
+    /**
+     * Tests removing one entry by id.
+     */
+    @Test
+    public void testRemoveEntryRemovesCorrectly() {
+        WalletLedger ledger = this.newLedger();
+        ledger.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        WalletLedgerKernel.LedgerEntry removed = ledger.removeEntry("E1");
+
+        assertEquals("E1", removed.id());
+        assertEquals(5000, removed.amountCents());
+        assertEquals("USD", removed.currency());
+        assertEquals(WalletLedgerKernel.EntryType.CREDIT, removed.type());
+        assertEquals(0, ledger.entryCount());
+        assertFalse(ledger.hasEntry("E1"));
+    }
+
+    /**
+     * Tests removeAnyEntry on non-empty ledger.
+     */
+    @Test
+    public void testRemoveAnyEntryRemovesOneEntry() {
+        WalletLedger ledger = this.newLedger();
+        ledger.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E2", 3000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+
+        WalletLedgerKernel.LedgerEntry removed = ledger.removeAnyEntry();
+
+        assertNotNull(removed);
+        assertEquals(1, ledger.entryCount());
+    }
+
+    /**
+     * Tests that removing entries from the middle and then draining with
+     * removeAnyEntry returns every remaining entry exactly once.
+     */
+    @Test
+    public void testRemoveMiddleThenDrain() {
+        final int rows = 10;
+        WalletLedger ledger = this.newLedger();
+        for (int i = 0; i < rows; i++) {
+            ledger.addEntry("E" + i, i + 1, "USD",
+                    WalletLedgerKernel.EntryType.CREDIT);
+        }
+
+        ledger.removeEntry("E3");
+        ledger.removeEntry("E0");
+        int drained = 0;
+        long cents = 0;
+        while (ledger.entryCount() > 0) {
+            WalletLedgerKernel.LedgerEntry removed = ledger.removeAnyEntry();
+            assertFalse(ledger.hasEntry(removed.id()));
+            cents += removed.amountCents();
+            drained++;
+        }
+
+        assertEquals(rows - 2, drained);
+        assertEquals(rows * (rows + 1) / 2 - 4 - 1, cents);
+        assertEquals(0, ledger.balanceCents("USD"));
+    }
+
+    /**
+     * Tests total credits in one currency.
+     */
+    @Test
+    public void testTotalCreditsCents() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E1", 4000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E2", 6000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E3", 2000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+
+        assertEquals(10000, ledger.totalCreditsCents("USD"));
+    }
+
+    /**
+     * Tests total debits in one currency.
+     */
+    @Test
+    public void testTotalDebitsCents() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E1", 4000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+        ledger.addEntry("E2", 6000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+        ledger.addEntry("E3", 2000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        assertEquals(10000, ledger.totalDebitsCents("USD"));
+    }
+
+    /**
+     * Tests balance calculation in one currency.
+     */
+    @Test
+    public void testBalanceCents() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E1", 10000, "USD",
+                WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E2", 3000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+
+        assertEquals(7000, ledger.balanceCents("USD"));
+    }
+
+    /**
+     * Tests balance separation across currencies.
+     */
+    @Test
+    public void testMultiCurrencySeparation() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E1", 10000, "USD",
+                WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E2", 5000, "EUR", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E3", 2000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+
+        assertEquals(8000, ledger.balanceCents("USD"));
+        assertEquals(5000, ledger.balanceCents("EUR"));
+    }
+
+    /**
+     * Tests that secondary methods do not change contents.
+     */
+    @Test
+    public void testSecondaryMethodsDoNotChangeLedgerContents() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E1", 10000, "USD",
+                WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E2", 3000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+        ledger.addEntry("E3", 5000, "EUR", WalletLedgerKernel.EntryType.CREDIT);
+
+        int beforeCount = ledger.entryCount();
+
+        ledger.balanceCents("USD");
+        ledger.totalCreditsCents("USD");
+        ledger.totalDebitsCents("USD");
+
+        assertEquals(beforeCount, ledger.entryCount());
+        assertTrue(ledger.hasEntry("E1"));
+        assertTrue(ledger.hasEntry("E2"));
+        assertTrue(ledger.hasEntry("E3"));
+    }
+
+    /**
+     * Tests deposit.
+     */
+    @Test
+    public void testDepositAddsCredit() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.deposit(5000, "USD");
+
+        assertEquals(1, ledger.entryCount());
+        assertEquals(5000, ledger.totalCreditsCents("USD"));
+        assertEquals(0, ledger.totalDebitsCents("USD"));
+        assertEquals(5000, ledger.balanceCents("USD"));
+    }
+
+    /**
+     * Tests withdraw after sufficient funds exist.
+     */
+    @Test
+    public void testWithdrawAddsDebit() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.deposit(10000, "USD");
+        ledger.withdraw(4000, "USD");
+
+        assertEquals(2, ledger.entryCount());
+        assertEquals(10000, ledger.totalCreditsCents("USD"));
+        assertEquals(4000, ledger.totalDebitsCents("USD"));
+        assertEquals(6000, ledger.balanceCents("USD"));
+    }
+
+    /**
+     * Tests hasSufficientFunds.
+     */
+    @Test
+    public void testHasSufficientFunds() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.deposit(7000, "USD");
+
+        assertTrue(ledger.hasSufficientFunds(5000, "USD"));
+        assertFalse(ledger.hasSufficientFunds(9000, "USD"));
+    }
+
+    /**
+     * Tests findById when entry exists.
+     */
+    @Test
+    public void testFindByIdExisting() {
+        WalletLedger ledger = this.newLedger();
+        ledger.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        WalletLedgerKernel.LedgerEntry found = ledger.findById("E1");
+
+        assertNotNull(found);
+        assertEquals("E1", found.id());
+        assertEquals(5000, found.amountCents());
+        assertEquals("USD", found.currency());
+        assertEquals(WalletLedgerKernel.EntryType.CREDIT, found.type());
+        assertEquals(1, ledger.entryCount());
+        assertTrue(ledger.hasEntry("E1"));
+    }
+
+    /**
+     * Tests findById when entry does not exist.
+     */
+    @Test
+    public void testFindByIdMissing() {
+        WalletLedger ledger = this.newLedger();
+        ledger.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        WalletLedgerKernel.LedgerEntry found = ledger.findById("E9");
+
+        assertNull(found);
+        assertEquals(1, ledger.entryCount());
+        assertTrue(ledger.hasEntry("E1"));
+    }
+
+    /**
+     * Tests clear.
+     */
+    @Test
+    public void testClearResetsLedger() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E2", 3000, "EUR", WalletLedgerKernel.EntryType.DEBIT);
+
+        ledger.clear();
+
+        assertEquals(0, ledger.entryCount());
+    }
+
+    /**
+     * Tests newInstance.
+     */
+    @Test
+    public void testNewInstanceCreatesEmptyLedger() {
+        WalletLedger original = this.newLedger();
+        original.addEntry("E1", 5000, "USD",
+                WalletLedgerKernel.EntryType.CREDIT);
+
+        WalletLedgerKernel fresh = original.newInstance();
+
+        assertNotNull(fresh);
+        assertEquals(0, fresh.entryCount());
+        assertEquals(1, original.entryCount());
+    }
+
+    /**
+     * Tests transferFrom.
+     */
+    @Test
+    public void testTransferFromMovesContents() {
+        WalletLedgerKernel source = this.newLedger();
+        WalletLedgerKernel destination = this.newLedger();
+
+        source.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        source.addEntry("E2", 3000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+
+        destination.transferFrom(source);
+
+        assertEquals(0, source.entryCount());
+        assertEquals(2, destination.entryCount());
+        assertTrue(destination.hasEntry("E1"));
+        assertTrue(destination.hasEntry("E2"));
+    }
+
+    /**
+     * Tests equals on same content.
+     */
+    @Test
+    public void testEqualsForSameContent() {
+        WalletLedger first = this.newLedger();
+        WalletLedger second = this.newLedger();
+
+        first.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        first.addEntry("E2", 3000, "EUR", WalletLedgerKernel.EntryType.DEBIT);
+
+        second.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        second.addEntry("E2", 3000, "EUR", WalletLedgerKernel.EntryType.DEBIT);
+
+        assertTrue(first.equals(second));
+        assertTrue(second.equals(first));
+    }
+
+    /**
+     * Tests equals on different content.
+     */
+    @Test
+    public void testEqualsForDifferentContent() {
+        WalletLedger first = this.newLedger();
+        WalletLedger second = this.newLedger();
+
+        first.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        second.addEntry("E1", 7000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        assertFalse(first.equals(second));
+    }
+
+    /**
+     * Tests hashCode consistency with equals.
+     */
+    @Test
+    public void testHashCodeForEqualLedgers() {
+        WalletLedger first = this.newLedger();
+        WalletLedger second = this.newLedger();
+
+        first.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        second.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    /**
+     * Tests toString stability.
+     */
+    @Test
+    public void testToStringIsDeterministic() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E2", 3000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+        ledger.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        String first = ledger.toString();
+        String second = ledger.toString();
+
+        assertEquals(first, second);
+    }
+
+    /**
+     * Tests that toString shows only the entries with the smallest ids.
+     */
+    @Test
+    public void testToStringIsBounded() {
+        final int rows = 150;
+        WalletLedger ledger = this.newLedger();
+        for (int i = 0; i < rows; i++) {
+            ledger.addEntry(String.format("B%03d", i), 1, "USD",
+                    WalletLedgerKernel.EntryType.CREDIT);
+        }
+
+        String text = ledger.toString();
+
+        assertTrue(text.startsWith("WalletLedger[B000|CREDIT|USD|1, "));
+        assertTrue(text.contains("B099|"));
+        assertFalse(text.contains("B100|"));
+        assertTrue(text.endsWith(", ... (50 more)]"));
+    }
+
+    /**
+     * Tests that exportTo writes one line per entry in id order.
+     *
+     * @throws IOException
+     *             never, since a StringBuilder is the destination
+     */
+    @Test
+    public void testExportToWritesLinesInIdOrder() throws IOException {
+        WalletLedger ledger = this.newLedger();
+        ledger.addEntry("E2", 3000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+        ledger.addEntry("E10", 700, "EUR", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        StringBuilder out = new StringBuilder();
+
+        ledger.exportTo(out);
+
+        assertEquals("E1|CREDIT|USD|5000\nE10|CREDIT|EUR|700\n"
+                + "E2|DEBIT|USD|3000\n", out.toString());
+        assertEquals(3, ledger.entryCount());
+    }
+
+    /**
+     * Tests that totals follow removeEntry and removeAnyEntry.
+     */
+    @Test
+    public void testTotalsTrackRemovals() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E1", 4000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E2", 1500, "USD", WalletLedgerKernel.EntryType.DEBIT);
+        ledger.addEntry("E3", 900, "EUR", WalletLedgerKernel.EntryType.CREDIT);
+
+        ledger.removeEntry("E2");
+        assertEquals(4000, ledger.balanceCents("USD"));
+        assertEquals(0, ledger.totalDebitsCents("USD"));
+
+        while (ledger.entryCount() > 0) {
+            ledger.removeAnyEntry();
+        }
+        assertEquals(0, ledger.totalCreditsCents("USD"));
+        assertEquals(0, ledger.totalCreditsCents("EUR"));
+    }
+
+    /**
+     * Tests that totals are reset by clear and moved by transferFrom.
+     */
+    @Test
+    public void testTotalsFollowClearAndTransferFrom() {
+        WalletLedger source = this.newLedger();
+        WalletLedger destination = this.newLedger();
+
+        source.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        source.addEntry("E2", 2000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+        destination.addEntry("E9", 100, "EUR",
+                WalletLedgerKernel.EntryType.CREDIT);
+
+        destination.transferFrom(source);
+        assertEquals(3000, destination.balanceCents("USD"));
+        assertEquals(0, destination.balanceCents("EUR"));
+        assertEquals(0, source.balanceCents("USD"));
+
+        destination.clear();
+        assertEquals(0, destination.totalCreditsCents("USD"));
+        assertEquals(0, destination.totalDebitsCents("USD"));
+    }
+
+    /**
+     * Tests tryWithdraw when funds are sufficient.
+     */
+    @Test
+    public void testTryWithdrawDebits() {
+        WalletLedger ledger = this.newLedger();
+        ledger.deposit(5000, "USD");
+
+        WalletLedger.WithdrawResult result = ledger.tryWithdraw(5000, "USD");
+
+        assertEquals(WalletLedger.WithdrawResult.DEBITED, result);
+        assertEquals(2, ledger.entryCount());
+        assertEquals(0, ledger.balanceCents("USD"));
+    }
+
+    /**
+     * Tests tryWithdraw when funds are insufficient.
+     */
+    @Test
+    public void testTryWithdrawInsufficientLeavesLedgerUnchanged() {
+        WalletLedger ledger = this.newLedger();
+        ledger.deposit(5000, "USD");
+        ledger.deposit(9000, "EUR");
+
+        WalletLedger.WithdrawResult result = ledger.tryWithdraw(5001, "USD");
+
+        assertEquals(WalletLedger.WithdrawResult.INSUFFICIENT_FUNDS, result);
+        assertEquals(2, ledger.entryCount());
+        assertEquals(5000, ledger.balanceCents("USD"));
+    }
+
+    /**
+     * Tests that transferTo adds a DEBIT and a CREDIT under one shared id.
+     */
+    @Test
+    public void testTransferToLinksEntries() {
+        WalletLedger source = this.newLedger();
+        WalletLedger destination = this.newLedger();
+        source.deposit(5000, "USD");
+        destination.addEntry("T2", 100, "USD",
+                WalletLedgerKernel.EntryType.CREDIT);
+
+        WalletLedger.WithdrawResult result = source.transferTo(destination,
+                1200, "USD");
+
+        assertEquals(WalletLedger.WithdrawResult.DEBITED, result);
+        assertEquals(3800, source.balanceCents("USD"));
+        assertEquals(1300, destination.balanceCents("USD"));
+        String[] transferId = new String[1];
+        source.forEachEntry(entry -> {
+            if (entry.type() == WalletLedgerKernel.EntryType.DEBIT) {
+                transferId[0] = entry.id();
+            }
+        });
+        assertFalse(transferId[0].equals("T2"));
+        WalletLedgerKernel.LedgerEntry credit = destination
+                .findById(transferId[0]);
+        assertEquals(WalletLedgerKernel.EntryType.CREDIT, credit.type());
+        assertEquals(1200, credit.amountCents());
+    }
+
+    /**
+     * Tests transferTo when funds are insufficient.
+     */
+    @Test
+    public void testTransferToInsufficientLeavesBothUnchanged() {
+        WalletLedger source = this.newLedger();
+        WalletLedger destination = this.newLedger();
+        source.deposit(5000, "USD");
+
+        WalletLedger.WithdrawResult result = source.transferTo(destination,
+                5001, "USD");
+
+        assertEquals(WalletLedger.WithdrawResult.INSUFFICIENT_FUNDS, result);
+        assertEquals(1, source.entryCount());
+        assertEquals(0, destination.entryCount());
+    }
+
+    /**
+     * Tests that addEntryAt records the given creation time.
+     */
+    @Test
+    public void testAddEntryAtKeepsCreationTime() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntryAt("A", 100, "USD", WalletLedgerKernel.EntryType.CREDIT,
+                1_700_000_000_000L);
+
+        assertEquals(1_700_000_000_000L,
+                ledger.findById("A").createdAtMillis());
+    }
+
+    /**
+     * Tests balanceCentsAsOf and netFlowCents over entries at known times.
+     */
+    @Test
+    public void testBalanceCentsAsOfAndNetFlow() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntryAt("A", 500, "USD", WalletLedgerKernel.EntryType.CREDIT,
+                100);
+        ledger.addEntryAt("B", 900, "EUR", WalletLedgerKernel.EntryType.CREDIT,
+                150);
+        ledger.addEntryAt("C", 200, "USD", WalletLedgerKernel.EntryType.DEBIT,
+                200);
+        ledger.addEntryAt("D", 50, "USD", WalletLedgerKernel.EntryType.CREDIT,
+                300);
+
+        assertEquals(0, ledger.balanceCentsAsOf("USD", 99));
+        assertEquals(500, ledger.balanceCentsAsOf("USD", 100));
+        assertEquals(300, ledger.balanceCentsAsOf("USD", 250));
+        assertEquals(350, ledger.balanceCentsAsOf("USD", 1000));
+        assertEquals(0, ledger.balanceCentsAsOf("JPY", 1000));
+        assertEquals(-150, ledger.netFlowCents("USD", 100, 300));
+        assertEquals(900, ledger.netFlowCents("EUR", 0, 150));
+    }
+
+    /**
+     * Tests balanceCentsAsOf after an out-of-order add and a removal.
+     */
+    @Test
+    public void testBalanceCentsAsOfAfterOutOfOrderAddAndRemove() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntryAt("A", 500, "USD", WalletLedgerKernel.EntryType.CREDIT,
+                300);
+        assertEquals(500, ledger.balanceCentsAsOf("USD", 300));
+        ledger.addEntryAt("B", 70, "USD", WalletLedgerKernel.EntryType.DEBIT,
+                100);
+        assertEquals(-70, ledger.balanceCentsAsOf("USD", 200));
+        ledger.removeEntry("B");
+        ledger.addEntryAt("C", 40, "USD", WalletLedgerKernel.EntryType.CREDIT,
+                400);
+
+        assertEquals(0, ledger.balanceCentsAsOf("USD", 200));
+        assertEquals(540, ledger.balanceCentsAsOf("USD", 400));
+    }
+
+    /**
+     * Tests balanceCentsAsOf against a direct sum while entries are added in
+     * random time order and removed again.
+     */
+    @Test
+    public void testBalanceCentsAsOfUnderChurn() {
+        final int steps = 3000;
+        final int times = 400;
+        WalletLedger ledger = this.newLedger();
+        List<LedgerEntry> live = new ArrayList<>();
+        Random random = new Random(7);
+
+        for (int step = 0; step < steps; step++) {
+            if (live.isEmpty() || random.nextInt(5) < 3) {
+                String id = "R" + step;
+                ledger.addEntryAt(id, 1 + random.nextInt(100),
+                        random.nextBoolean() ? "USD" : "EUR",
+                        random.nextBoolean() ? EntryType.CREDIT
+                                : EntryType.DEBIT,
+                        random.nextInt(times));
+                live.add(ledger.findById(id));
+            } else {
+                LedgerEntry gone = live.remove(random.nextInt(live.size()));
+                ledger.removeEntry(gone.id());
+            }
+            if (step % 100 == 0) {
+                long instant = random.nextInt(times);
+                long expected = 0;
+                for (LedgerEntry entry : live) {
+                    if (entry.currency().equals("USD")
+                            && entry.createdAtMillis() <= instant) {
+                        expected += entry.type() == EntryType.CREDIT
+                                ? entry.amountCents()
+                                : -entry.amountCents();
+                    }
+                }
+                assertEquals(expected,
+                        ledger.balanceCentsAsOf("USD", instant));
+            }
+        }
+    }
+
+    /**
+     * Tests that forEachEntry visits every entry once without changing this.
+     */
+    @Test
+    public void testForEachEntryVisitsEveryEntry() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E1", 4000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E2", 1500, "USD", WalletLedgerKernel.EntryType.DEBIT);
+        ledger.addEntry("E3", 900, "EUR", WalletLedgerKernel.EntryType.CREDIT);
+
+        int[] visited = new int[1];
+        int[] amounts = new int[1];
+        ledger.forEachEntry(entry -> {
+            visited[0]++;
+            amounts[0] += entry.amountCents();
+        });
+
+        assertEquals(3, visited[0]);
+        assertEquals(6400, amounts[0]);
+        assertEquals(3, ledger.entryCount());
+        assertTrue(ledger.hasEntry("E2"));
+    }
+
+    /**
+     * Tests that deposit ids are not reused after removals.
+     */
+    @Test
+    public void testDepositIdsAreNotReusedAfterRemoval() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.deposit(100, "USD");
+        ledger.deposit(200, "USD");
+        ledger.removeEntry("E1");
+        ledger.deposit(300, "USD");
+
+        assertEquals(2, ledger.entryCount());
+        assertTrue(ledger.hasEntry("E2"));
+        assertTrue(ledger.hasEntry("E3"));
+        assertFalse(ledger.hasEntry("E1"));
+    }
+
+    /**
+     * Tests that minted ids skip ids already added by the client.
+     */
+    @Test
+    public void testDepositSkipsClientIds() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.addEntry("E1", 100, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.deposit(200, "USD");
+
+        assertEquals(2, ledger.entryCount());
+        assertEquals(200, ledger.findById("E2").amountCents());
+    }
+
+    /**
+     * Tests that the sequence follows transferFrom and clear.
+     */
+    @Test
+    public void testSequenceFollowsTransferFromAndClear() {
+        WalletLedgerKernel source = this.newLedger();
+        WalletLedgerKernel destination = this.newLedger();
+
+        assertEquals(1, source.nextEntrySequence());
+        assertEquals(2, source.nextEntrySequence());
+
+        destination.transferFrom(source);
+        assertEquals(3, destination.nextEntrySequence());
+        assertEquals(1, source.nextEntrySequence());
+
+        destination.clear();
+        assertEquals(1, destination.nextEntrySequence());
+    }
+
+    /**
+     * Tests that entrySequence reports the sequence without advancing it.
+     */
+    @Test
+    public void testEntrySequenceDoesNotAdvance() {
+        WalletLedger ledger = this.newLedger();
+        ledger.deposit(500, "USD");
+
+        assertEquals(2, ledger.entrySequence());
+        assertEquals(2, ledger.entrySequence());
+        assertEquals(2, ledger.nextEntrySequence());
+        assertEquals(3, ledger.entrySequence());
+    }
+
+    /**
+     * Tests that setEntrySequence changes only the sequence, and that
+     * forEachEntry leaves it alone.
+     */
+    @Test
+    public void testSetEntrySequenceKeepsEntries() {
+        WalletLedger ledger = this.newLedger();
+        ledger.deposit(500, "USD");
+        ledger.addEntry("C1", 200, "EUR", WalletLedgerKernel.EntryType.CREDIT);
+        long hash = ledger.contentHash();
+
+        ledger.setEntrySequence(40);
+        ledger.forEachEntry(entry -> {
+        });
+
+        assertEquals(40, ledger.nextEntrySequence());
+        assertEquals(2, ledger.entryCount());
+        assertEquals(hash, ledger.contentHash());
+        assertEquals(500, ledger.balanceCents("USD"));
+    }
+
+    /**
+     * Tests entryOrNull for present and missing ids.
+     */
+    @Test
+    public void testEntryOrNull() {
+        WalletLedgerKernel ledger = this.newLedger();
+        ledger.addEntry("E1", 5000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        assertEquals(5000, ledger.entryOrNull("E1").amountCents());
+        assertNull(ledger.entryOrNull("E2"));
+        assertEquals(1, ledger.entryCount());
+    }
+
+    /**
+     * Tests that long totals hold sums past the int range.
+     */
+    @Test
+    public void testLongTotalsDoNotOverflow() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.deposit(Integer.MAX_VALUE, "USD");
+        ledger.deposit(Integer.MAX_VALUE, "USD");
+        ledger.withdraw(1, "USD");
+
+        long expected = 2L * Integer.MAX_VALUE;
+        assertEquals(expected, ledger.totalCreditsCentsLong("USD"));
+        assertEquals(1L, ledger.totalDebitsCentsLong("USD"));
+        assertEquals(expected - 1, ledger.balanceCentsLong("USD"));
+        assertTrue(ledger.hasSufficientFunds(Integer.MAX_VALUE, "USD"));
+    }
+
+    /**
+     * Tests that int totals fail loudly instead of wrapping.
+     */
+    @Test(expected = ArithmeticException.class)
+    public void testIntTotalOverflowThrows() {
+        WalletLedger ledger = this.newLedger();
+
+        ledger.deposit(Integer.MAX_VALUE, "USD");
+        ledger.deposit(1, "USD");
+
+        ledger.totalCreditsCents("USD");
+    }
+
+    /**
+     * Tests addEntries on a ledger that already has entries.
+     */
+    @Test
+    public void testAddEntriesAppendsEveryRow() {
+        WalletLedger ledger = this.newLedger();
+        ledger.addEntry("E1", 1000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        ledger.addEntries(new String[] { "B1", "B2", "B3" },
+                new int[] { 500, 200, 700 },
+                new String[] { "USD", "USD", "EUR" },
+                new WalletLedgerKernel.EntryType[] {
+                        WalletLedgerKernel.EntryType.CREDIT,
+                        WalletLedgerKernel.EntryType.DEBIT,
+                        WalletLedgerKernel.EntryType.CREDIT });
+
+        assertEquals(4, ledger.entryCount());
+        assertEquals(1300, ledger.balanceCents("USD"));
+        assertEquals(700, ledger.balanceCents("EUR"));
+        assertEquals(WalletLedgerKernel.EntryType.DEBIT,
+                ledger.findById("B2").type());
+    }
+
+    /**
+     * Tests that addEntriesAt keeps the creation time of every row.
+     */
+    @Test
+    public void testAddEntriesAtKeepsTimes() {
+        WalletLedger ledger = this.newLedger();
+        ledger.addEntry("E1", 1000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+
+        ledger.addEntriesAt(new String[] { "B1", "B2" },
+                new int[] { 300, 200 }, new String[] { "USD", "USD" },
+                new WalletLedgerKernel.EntryType[] {
+                        WalletLedgerKernel.EntryType.DEBIT,
+                        WalletLedgerKernel.EntryType.CREDIT },
+                new long[] { 50, 20 });
+
+        assertEquals(3, ledger.entryCount());
+        assertEquals(900, ledger.balanceCents("USD"));
+        assertEquals(50, ledger.findById("B1").createdAtMillis());
+        assertEquals(20, ledger.findById("B2").createdAtMillis());
+        assertEquals(200, ledger.balanceCentsAsOf("USD", 20));
+        assertEquals(-100, ledger.balanceCentsAsOf("USD", 50));
+    }
+
+    /**
+     * Tests addEntries with a batch much larger than the ledger.
+     */
+    @Test
+    public void testAddEntriesLargeBatch() {
+        final int rows = 500;
+        WalletLedger ledger = this.newLedger();
+        String[] ids = new String[rows];
+        int[] amounts = new int[rows];
+        String[] currencies = new String[rows];
+        WalletLedgerKernel.EntryType[] types =
+                new WalletLedgerKernel.EntryType[rows];
+        for (int i = 0; i < rows; i++) {
+            ids[i] = "B" + i;
+            amounts[i] = 2;
+            currencies[i] = "JPY";
+            types[i] = WalletLedgerKernel.EntryType.CREDIT;
+        }
+
+        ledger.addEntries(ids, amounts, currencies, types);
+
+        assertEquals(rows, ledger.entryCount());
+        assertEquals(2 * rows, ledger.totalCreditsCents("JPY"));
+        assertTrue(ledger.hasEntry("B0"));
+        assertTrue(ledger.hasEntry("B" + (rows - 1)));
+    }
+
+    /**
+     * Tests that parallelTotals agrees with the per-currency totals on a
+     * ledger large enough to be scanned in parallel.
+     */
+    @Test
+    public void testParallelTotalsMatchTotals() {
+        final int rows = 20000;
+        final String[] currencies = {"USD", "EUR", "JPY"};
+        WalletLedger ledger = this.newLedger();
+        assertEquals(0, ledger.parallelTotals().currencyCount());
+        for (int i = 0; i < rows; i++) {
+            WalletLedgerKernel.EntryType type = i % 3 == 0
+                    ? WalletLedgerKernel.EntryType.DEBIT
+                    : WalletLedgerKernel.EntryType.CREDIT;
+            ledger.addEntry("P" + i, i % 97 + 1, currencies[i % 2], type);
+        }
+        ledger.addEntry("J1", 5, "JPY", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.removeEntry("J1");
+        ledger.removeEntry("P7");
+
+        LedgerTotals totals = ledger.parallelTotals();
+
+        assertEquals(2, totals.currencyCount());
+        assertEquals(rows - 1, totals.entryCount(CurrencyCodes.pack("USD"))
+                + totals.entryCount(CurrencyCodes.pack("EUR")));
+        for (String currency : currencies) {
+            int code = CurrencyCodes.pack(currency);
+            assertEquals(ledger.totalCreditsCentsLong(currency),
+                    totals.creditsCents(code));
+            assertEquals(ledger.totalDebitsCentsLong(currency),
+                    totals.debitsCents(code));
+            assertEquals(ledger.balanceCentsLong(currency),
+                    totals.netCents(code));
+        }
+    }
+
+    /**
+     * Tests that balances lists every currency with entries, and no longer
+     * lists a currency once its last entry is removed.
+     */
+    @Test
+    public void testBalancesListsCurrenciesWithEntries() {
+        WalletLedger ledger = this.newLedger();
+        ledger.deposit(900, "USD");
+        ledger.withdraw(400, "USD");
+        ledger.addEntry("C1", 300, "EUR", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("C2", 50, "GBP", WalletLedgerKernel.EntryType.DEBIT);
+        ledger.removeEntry("C1");
+
+        LedgerTotals balances = ledger.balances();
+
+        int usd = CurrencyCodes.pack("USD");
+        assertEquals(ledger.parallelTotals(), balances);
+        assertEquals(2, balances.currencyCount());
+        assertEquals(2, balances.entryCount(usd));
+        assertEquals(900, balances.creditsCents(usd));
+        assertEquals(400, balances.debitsCents(usd));
+        assertEquals(500, balances.netCents(usd));
+        assertEquals(-50, balances.netCents(CurrencyCodes.pack("GBP")));
+        assertEquals(0, balances.entryCount(CurrencyCodes.pack("EUR")));
+    }
+
+    /**
+     * Tests that ledgers with the same entries added in a different order
+     * have the same content hash, and that it matches WalletLedger1L.
+     */
+    @Test
+    public void testContentHashIgnoresOrder() {
+        WalletLedger ledger = this.newLedger();
+        ledger.addEntry("E1", 1000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        ledger.addEntry("E2", 300, "EUR", WalletLedgerKernel.EntryType.DEBIT);
+        WalletLedger reference = new WalletLedger1L();
+        reference.addEntry("E2", 300, "EUR",
+                WalletLedgerKernel.EntryType.DEBIT);
+        reference.addEntry("E1", 1000, "USD",
+                WalletLedgerKernel.EntryType.CREDIT);
+
+        assertEquals(reference.contentHash(), ledger.contentHash());
+        assertEquals(reference.hashCode(), ledger.hashCode());
+        assertTrue(ledger.equals(reference));
+    }
+
+    /**
+     * Tests that removing and re-adding an entry restores the content hash.
+     */
+    @Test
+    public void testContentHashFollowsRemoval() {
+        WalletLedger ledger = this.newLedger();
+        long empty = ledger.contentHash();
+        ledger.addEntry("E1", 1000, "USD", WalletLedgerKernel.EntryType.CREDIT);
+        long one = ledger.contentHash();
+        ledger.addEntry("E2", 1000, "USD", WalletLedgerKernel.EntryType.DEBIT);
+
+        WalletLedgerKernel.LedgerEntry removed = ledger.removeEntry("E2");
+        assertEquals(one, ledger.contentHash());
+        ledger.addEntry(removed.id(), removed.amountCents(),
+                removed.currency(), removed.type());
+        assertFalse(one == ledger.contentHash());
+        ledger.removeAnyEntry();
+        ledger.removeAnyEntry();
+        assertEquals(empty, ledger.contentHash());
+    }
+}